@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Pool of bitmaps that are no longer displayed or cached, which the decoder can reuse through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} instead of allocating new ones.
+ * Bitmaps are held through soft references, so the pool never keeps memory the system needs.
+ */
+final class BitmapPool {
+
+    /** Maximum number of bitmaps kept for reuse */
+    private final int mMaxCount;
+
+    /** Bitmaps available for reuse, oldest first. Guarded by this pool's lock. */
+    private final LinkedList<SoftReference<Bitmap>> mBitmaps = new LinkedList<>();
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    /**
+     * Constructs a new {@link BitmapPool}.
+     *
+     * @param maxCount maximum number of bitmaps kept for reuse
+     */
+    BitmapPool(int maxCount) {
+        mMaxCount = maxCount;
+    }
+
+    /**
+     * Offer a bitmap for reuse. The caller must not use the bitmap afterwards. Only mutable
+     * bitmaps can be decoded into, others are ignored.
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        mBitmaps.addLast(new SoftReference<>(bitmap));
+        if (mBitmaps.size() > mMaxCount) {
+            mBitmaps.removeFirst();
+        }
+    }
+
+    /**
+     * Take a bitmap out of the pool that is large enough to decode an image of the given number
+     * of bytes into, or return null if there is none.
+     */
+    synchronized Bitmap get(int byteCount) {
+        Iterator<SoftReference<Bitmap>> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next().get();
+            if (bitmap == null || bitmap.isRecycled()) {
+                // Collected by the garbage collector
+                iterator.remove();
+            } else if (bitmap.getAllocationByteCount() >= byteCount) {
+                iterator.remove();
+                mHitCount++;
+                return bitmap;
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /** Empty the pool. */
+    synchronized void clear() {
+        mBitmaps.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[" + mBitmaps.size() + "/" + mMaxCount + " bitmaps, "
+                + mHitCount + " hits, " + mMissCount + " misses]";
+    }
+}
@@ -17,25 +17,35 @@ package com.example.android.records;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.SimpleCursorAdapter;
+import android.widget.Spinner;
 
 import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
 
 /**
  * Displays list of records that were entered and stored in the app.
@@ -49,17 +59,71 @@ public class CatalogActivity extends AppCompatActivity implements
      * Identifier for the record data loader
      */
     private static final int RECORD_LOADER = 0;
+
+    /** Number of records loaded at a time as the user scrolls through the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /** Milliseconds the typing has to pause before the search runs */
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    /** Load the next page once the user scrolls within this many records of the end */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /** Request code of the file picker for the records to import */
+    private static final int PICK_IMPORT_FILE_REQUEST = 1;
+
+    /** Keys of the sort and filters in the saved instance state */
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_DESCENDING = "descending";
+    private static final String STATE_FILTERS = "filters";
+
+    /** ID of the entry of the supplier filter that shows every supplier */
+    private static final long ALL_SUPPLIERS = -1;
+
     /**
-     * Adapter for the ListView
+     * Adapter for the RecyclerView
      */
-    RecordCursorAdapter mCursorAdapter;
+    RecordAdapter mAdapter;
+
+    /** Text typed in the search box (empty when the whole catalog is shown) */
+    private String mSearchQuery = "";
+
+    /** Text typed in the search box that the list doesn't show yet */
+    private String mPendingSearchQuery = "";
+
+    private final Handler mHandler = new Handler();
+
+    /** Reloads the list with the text typed in the search box, once the typing pauses */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mPendingSearchQuery.equals(mSearchQuery)) {
+                mSearchQuery = mPendingSearchQuery;
+                getLoaderManager().restartLoader(RECORD_LOADER, null, CatalogActivity.this);
+            }
+        }
+    };
+
+    /** How the catalog is sorted, one of the SORT values of {@link RecordEntry} */
+    private String mSort = RecordEntry.SORT_ALBUM;
 
+    /** True to sort the catalog from the largest value to the smallest */
+    private boolean mDescending;
+
+    /** Filters of the catalog: values of the records URI query parameters, by parameter */
+    private Bundle mFilters = new Bundle();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT, RecordEntry.SORT_ALBUM);
+            mDescending = savedInstanceState.getBoolean(STATE_DESCENDING);
+            mFilters = savedInstanceState.getBundle(STATE_FILTERS);
+        }
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -70,31 +134,24 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the record data
-        ListView recordListView = (ListView) findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        recordListView.setEmptyView(emptyView);
+        // Find the RecyclerView which will be populated with the record data
+        RecyclerView recordListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recordListView.setLayoutManager(layoutManager);
 
-        // Setup an Adapter to create a list item for each row of record data in the Cursor.
-        // There is no record data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new RecordCursorAdapter(this, null);
-        recordListView.setAdapter(mCursorAdapter);
-
-        // Setup the item click listener
-        recordListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each record, and open the editor
+        // when one is clicked on.
+        mAdapter = new RecordAdapter(this, new RecordAdapter.OnRecordClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onRecordClick(long recordId) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
-                // Form the content URI that represents the specific pet that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link RecordEntry#CONTENT_URI}.
+                // Form the content URI that represents the specific record that was clicked on,
+                // by appending the "id" onto the {@link RecordEntry#CONTENT_URI}.
                 // For example, the URI would be "content://com.example.android.records/records/2"
-                // if the pet with ID 2 was clicked on.
-                Uri currentRecordUri = ContentUris.withAppendedId(RecordEntry.CONTENT_URI, id);
+                // if the record with ID 2 was clicked on.
+                Uri currentRecordUri = ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId);
 
                 // Set the URI on the data field of the intent
                 intent.setData(currentRecordUri);
@@ -103,6 +160,45 @@ public class CatalogActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        recordListView.setAdapter(mAdapter);
+
+        // Show the empty view only when the list has 0 items.
+        final View emptyView = findViewById(R.id.empty_view);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            private void updateEmptyView() {
+                emptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            }
+        });
+
+        // Load the next page of records when the user gets close to the end of the list
+        recordListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = layoutManager.getItemCount();
+                if (totalItemCount > 0
+                        && layoutManager.findLastVisibleItemPosition() >= totalItemCount - PREFETCH_DISTANCE) {
+                    Loader<Cursor> loader = getLoaderManager().getLoader(RECORD_LOADER);
+                    if (loader instanceof RecordPageLoader) {
+                        ((RecordPageLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
 
         // Kick off the loader
         getLoaderManager().initLoader(RECORD_LOADER, null, this);
@@ -137,6 +233,49 @@ public class CatalogActivity extends AppCompatActivity implements
         getContentResolver().insert(RecordEntry.CONTENT_URI, values);
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        outState.putBoolean(STATE_DESCENDING, mDescending);
+        outState.putBundle(STATE_FILTERS, mFilters);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't hold sales back while the list isn't in front of the user
+        mAdapter.flushSales();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSearchRunnable);
+    }
+
+    /**
+     * Let the user pick a CSV or JSON file of records to import.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {
+                "text/csv", "text/comma-separated-values", "text/plain", "application/json"});
+        startActivityForResult(intent, PICK_IMPORT_FILE_REQUEST);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent resultData) {
+        if (requestCode == PICK_IMPORT_FILE_REQUEST && resultCode == RESULT_OK && resultData != null) {
+            // The import runs in a service, so it carries on if the user leaves the catalog
+            RecordImportService.start(this, resultData.getData());
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, resultData);
+    }
+
     /**
      * Helper method to delete all records in the database.
      */
@@ -179,17 +318,82 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Reload the list through the search URI as the user types in the search box
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Wait for a pause in the typing, so a burst of keys runs a single search
+                mPendingSearchQuery = newText.trim();
+                mHandler.removeCallbacks(mSearchRunnable);
+                mHandler.postDelayed(mSearchRunnable,
+                        mPendingSearchQuery.isEmpty() ? 0 : SEARCH_DELAY_MILLIS);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        int sortItemId;
+        switch (mSort) {
+            case RecordEntry.SORT_BAND:
+                sortItemId = R.id.sort_band;
+                break;
+            case RecordEntry.SORT_PRICE:
+                sortItemId = R.id.sort_price;
+                break;
+            case RecordEntry.SORT_QUANTITY:
+                sortItemId = R.id.sort_quantity;
+                break;
+            default:
+                sortItemId = R.id.sort_album;
+                break;
+        }
+        menu.findItem(sortItemId).setChecked(true);
+        menu.findItem(R.id.sort_descending).setChecked(mDescending);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort" options
+            case R.id.sort_album:
+                setSort(RecordEntry.SORT_ALBUM, mDescending);
+                return true;
+            case R.id.sort_band:
+                setSort(RecordEntry.SORT_BAND, mDescending);
+                return true;
+            case R.id.sort_price:
+                setSort(RecordEntry.SORT_PRICE, mDescending);
+                return true;
+            case R.id.sort_quantity:
+                setSort(RecordEntry.SORT_QUANTITY, mDescending);
+                return true;
+            case R.id.sort_descending:
+                setSort(mSort, !mDescending);
+                return true;
+            // Respond to a click on the "Filter" menu option
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertRecord();
                 return true;
+            // Respond to a click on the "Import records" menu option
+            case R.id.action_import:
+                pickImportFile();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
@@ -198,6 +402,121 @@ public class CatalogActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Sort the catalog the given way, reloading it if that changes its order.
+     */
+    private void setSort(String sort, boolean descending) {
+        if (!sort.equals(mSort) || descending != mDescending) {
+            mSort = sort;
+            mDescending = descending;
+            getLoaderManager().restartLoader(RECORD_LOADER, null, this);
+        }
+    }
+
+    /**
+     * Let the user narrow the catalog down to a price range, a stock range and a supplier.
+     */
+    private void showFilterDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final EditText minPriceEditText = (EditText) view.findViewById(R.id.filter_min_price);
+        final EditText maxPriceEditText = (EditText) view.findViewById(R.id.filter_max_price);
+        final EditText minQuantityEditText = (EditText) view.findViewById(R.id.filter_min_quantity);
+        final EditText maxQuantityEditText = (EditText) view.findViewById(R.id.filter_max_quantity);
+        final Spinner supplierSpinner = (Spinner) view.findViewById(R.id.filter_supplier);
+
+        minPriceEditText.setText(mFilters.getString(RecordEntry.QUERY_PARAMETER_MIN_PRICE));
+        maxPriceEditText.setText(mFilters.getString(RecordEntry.QUERY_PARAMETER_MAX_PRICE));
+        minQuantityEditText.setText(mFilters.getString(RecordEntry.QUERY_PARAMETER_MIN_QUANTITY));
+        maxQuantityEditText.setText(mFilters.getString(RecordEntry.QUERY_PARAMETER_MAX_QUANTITY));
+
+        final SimpleCursorAdapter supplierAdapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_spinner_item, null, new String[] { SupplierEntry.COLUMN_NAME },
+                new int[] { android.R.id.text1 }, 0);
+        supplierAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        supplierSpinner.setAdapter(supplierAdapter);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_filter);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply_filter, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                Bundle filters = new Bundle();
+                putNumber(filters, RecordEntry.QUERY_PARAMETER_MIN_PRICE, minPriceEditText);
+                putNumber(filters, RecordEntry.QUERY_PARAMETER_MAX_PRICE, maxPriceEditText);
+                putNumber(filters, RecordEntry.QUERY_PARAMETER_MIN_QUANTITY, minQuantityEditText);
+                putNumber(filters, RecordEntry.QUERY_PARAMETER_MAX_QUANTITY, maxQuantityEditText);
+                long supplierId = supplierSpinner.getSelectedItemId();
+                if (supplierId >= 0) {
+                    filters.putString(RecordEntry.QUERY_PARAMETER_SUPPLIER, String.valueOf(supplierId));
+                }
+                setFilters(filters);
+            }
+        });
+        builder.setNeutralButton(R.string.clear_filter, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                setFilters(new Bundle());
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                // Close the suppliers cursor
+                supplierAdapter.changeCursor(null);
+            }
+        });
+        final AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+
+        // Read the suppliers in the background, after an entry that shows all of them
+        final String selectedSupplier = mFilters.getString(RecordEntry.QUERY_PARAMETER_SUPPLIER);
+        new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if (!alertDialog.isShowing()) {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                    return;
+                }
+                MatrixCursor allSuppliers = new MatrixCursor(
+                        new String[] { SupplierEntry._ID, SupplierEntry.COLUMN_NAME });
+                allSuppliers.addRow(new Object[] { ALL_SUPPLIERS, getString(R.string.all_suppliers) });
+                supplierAdapter.changeCursor(cursor == null
+                        ? allSuppliers : new MergeCursor(new Cursor[] { allSuppliers, cursor }));
+                for (int position = 0; position < supplierAdapter.getCount(); position++) {
+                    if (String.valueOf(supplierAdapter.getItemId(position)).equals(selectedSupplier)) {
+                        supplierSpinner.setSelection(position);
+                        break;
+                    }
+                }
+            }
+        }.startQuery(0, null, SupplierEntry.CONTENT_URI,
+                new String[] { SupplierEntry._ID, SupplierEntry.COLUMN_NAME }, null, null, null);
+    }
+
+    /**
+     * Put the number typed in the given field in the filters, unless the field is empty or
+     * doesn't hold a number.
+     */
+    private static void putNumber(Bundle filters, String parameter, EditText editText) {
+        String value = editText.getText().toString().trim();
+        try {
+            Long.parseLong(value);
+            filters.putString(parameter, value);
+        } catch (NumberFormatException e) {
+            // Leave this filter out
+        }
+    }
+
+    /**
+     * Filter the catalog with the given filters, reloading it.
+     */
+    private void setFilters(Bundle filters) {
+        mFilters = filters;
+        getLoaderManager().restartLoader(RECORD_LOADER, null, this);
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         // Define a projection that specifies the columns from the table we care about.
@@ -206,27 +525,39 @@ public class CatalogActivity extends AppCompatActivity implements
                 RecordEntry.COLUMN_ALBUM_NAME,
                 RecordEntry.COLUMN_BAND_NAME,
                 RecordEntry.COLUMN_QUANTITY,
-                RecordEntry.COLUMN_PRICE};
+                RecordEntry.COLUMN_PRICE,
+                RecordEntry.COLUMN_RECORD_COVER};
+
+        // Without a search, page through the catalog as the user scrolls, sorted and filtered
+        // as the user chose
+        if (TextUtils.isEmpty(mSearchQuery)) {
+            Uri.Builder builder = RecordEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(RecordEntry.QUERY_PARAMETER_SORT, mSort)
+                    .appendQueryParameter(RecordEntry.QUERY_PARAMETER_DIRECTION,
+                            mDescending ? RecordEntry.DIRECTION_DESCENDING : RecordEntry.DIRECTION_ASCENDING);
+            for (String parameter : mFilters.keySet()) {
+                builder.appendQueryParameter(parameter, mFilters.getString(parameter));
+            }
+            return new RecordPageLoader(this, builder.build(), projection, PAGE_SIZE);
+        }
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                RecordEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        // Otherwise only show the search results, best matches first, a page at a time too
+        Uri uri = RecordEntry.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_SEARCH, mSearchQuery)
+                .build();
+        return new RecordPageLoader(this, uri, projection, PAGE_SIZE);
     }
 
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link RecordCursorAdapter} with this new cursor containing updated record data
-        mCursorAdapter.swapCursor(data);
+        // Update {@link RecordAdapter} with this new cursor containing updated record data
+        mAdapter.swapCursor(data);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        mAdapter.swapCursor(null);
     }
 }
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two level cache of record covers, keyed by the cover URI and the size the cover was scaled to.
+ * The first level keeps decoded bitmaps in memory, the second level keeps the scaled down
+ * thumbnails on disk, so a cover only has to be decoded at full size once. Both levels evict
+ * the least recently used covers once they go over their byte budget.
+ */
+public final class CoverCache {
+
+    public static final String LOG_TAG = CoverCache.class.getSimpleName();
+
+    /** Name of the directory, inside the app cache directory, holding the thumbnails */
+    private static final String DISK_CACHE_DIRECTORY = "covers";
+
+    /** Maximum number of bytes of thumbnails kept on disk */
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    /** Fraction of the heap that the in-memory cache may use */
+    private static final int MEMORY_CACHE_HEAP_FRACTION = 8;
+
+    /** Quality of the JPEG thumbnails written to disk */
+    private static final int THUMBNAIL_QUALITY = 90;
+
+    private static CoverCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final DiskCache mDiskCache;
+
+    /** Told about the bitmaps the memory level drops to stay in its budget, may be null */
+    private volatile OnEvictedListener mOnEvictedListener;
+
+    /**
+     * Listener told about the bitmaps the in-memory level of the cache drops to stay within its
+     * budget. It's called on the thread that added or trimmed the cache.
+     */
+    interface OnEvictedListener {
+        void onEvicted(Bitmap bitmap);
+    }
+
+    /**
+     * Return the cover cache of the app, creating it the first time.
+     *
+     * @param context of the app
+     */
+    public static synchronized CoverCache getInstance(Context context) {
+        if (sInstance == null) {
+            int memoryBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_FRACTION);
+            File directory = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIRECTORY);
+            sInstance = new CoverCache(memoryBytes, directory, DISK_CACHE_BYTES);
+        }
+        return sInstance;
+    }
+
+    private CoverCache(int memoryBytes, File directory, long diskBytes) {
+        mMemoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                // A cover decoded into a bigger recycled bitmap holds all of that bitmap's
+                // memory, not just the bytes of its pixels
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                OnEvictedListener listener = mOnEvictedListener;
+                if (evicted && listener != null) {
+                    listener.onEvicted(oldValue);
+                }
+            }
+        };
+        mDiskCache = new DiskCache(directory, diskBytes);
+    }
+
+    /**
+     * Set the listener told about the bitmaps dropped by the in-memory level of the cache.
+     */
+    void setOnEvictedListener(OnEvictedListener listener) {
+        mOnEvictedListener = listener;
+    }
+
+    /**
+     * Return the cover scaled for the given size if it's on disk, or null otherwise. The cover
+     * isn't added to the memory level, the caller does that with {@link #putInMemory} once it
+     * has taken hold of the bitmap, so it can't be evicted and reused before then.
+     */
+    public Bitmap getFromDisk(Uri uri, int width, int height) {
+        return mDiskCache.get(diskKey(uri, width, height));
+    }
+
+    /**
+     * Return the cover scaled for the given size if it's in memory, or null otherwise. This
+     * never touches the disk, so it's safe on the main thread.
+     */
+    public Bitmap getFromMemory(Uri uri, int width, int height) {
+        return mMemoryCache.get(memoryKey(uri, width, height));
+    }
+
+    /**
+     * Add a cover scaled for the given size to the memory level of the cache only, for a cover
+     * read back from the disk level.
+     */
+    public void putInMemory(Uri uri, int width, int height, Bitmap bitmap) {
+        mMemoryCache.put(memoryKey(uri, width, height), bitmap);
+    }
+
+    /**
+     * Add a cover scaled for the given size to both levels of the cache.
+     */
+    public void put(Uri uri, int width, int height, Bitmap bitmap) {
+        mMemoryCache.put(memoryKey(uri, width, height), bitmap);
+        mDiskCache.put(diskKey(uri, width, height), bitmap);
+    }
+
+    /**
+     * Remove every size of the given cover from both levels of the cache, for instance when the
+     * cover of a record is replaced.
+     */
+    public void evict(Uri uri) {
+        String prefix = memoryKey(uri, 0, 0);
+        prefix = prefix.substring(0, prefix.lastIndexOf('@') + 1);
+        for (String key : mMemoryCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mMemoryCache.remove(key);
+            }
+        }
+        mDiskCache.removeAll(hash(uri.toString()) + "_");
+    }
+
+    /**
+     * Release memory when the system asks for it. Called from the application.
+     *
+     * @param level the trim level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mMemoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    /** Number of covers found in memory */
+    public int getMemoryHitCount() {
+        return mMemoryCache.hitCount();
+    }
+
+    /** Number of covers looked up in memory and not found */
+    public int getMemoryMissCount() {
+        return mMemoryCache.missCount();
+    }
+
+    /** Number of covers found on disk */
+    public int getDiskHitCount() {
+        return mDiskCache.getHitCount();
+    }
+
+    /** Number of covers looked up on disk and not found */
+    public int getDiskMissCount() {
+        return mDiskCache.getMissCount();
+    }
+
+    @Override
+    public String toString() {
+        return "CoverCache[memory " + mMemoryCache.size() + "/" + mMemoryCache.maxSize() + " bytes, "
+                + getMemoryHitCount() + " hits, " + getMemoryMissCount() + " misses; disk "
+                + mDiskCache.getSize() + " bytes, " + getDiskHitCount() + " hits, "
+                + getDiskMissCount() + " misses]";
+    }
+
+    private static String memoryKey(Uri uri, int width, int height) {
+        return uri.toString() + "@" + width + "x" + height;
+    }
+
+    private static String diskKey(Uri uri, int width, int height) {
+        return hash(uri.toString()) + "_" + width + "x" + height;
+    }
+
+    /**
+     * Return the hex MD5 of the given string, used to turn a URI into a file name.
+     */
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Java platform has MD5 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Least recently used cache of thumbnails stored as files in a directory. Entries are
+     * tracked in memory in access order, the order is rebuilt from the file modification
+     * times when the app starts.
+     */
+    private static final class DiskCache {
+
+        private final File mDirectory;
+
+        private final long mMaxBytes;
+
+        /** File name to file size, in access order. Guarded by this cache's lock. */
+        private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+        /** Total size of the files. Guarded by this cache's lock. */
+        private long mSize;
+
+        private int mHitCount;
+
+        private int mMissCount;
+
+        /** True once the existing files have been read. Guarded by this cache's lock. */
+        private boolean mInitialized;
+
+        DiskCache(File directory, long maxBytes) {
+            mDirectory = directory;
+            mMaxBytes = maxBytes;
+        }
+
+        synchronized Bitmap get(String name) {
+            initialize();
+            if (!mEntries.containsKey(name)) {
+                mMissCount++;
+                return null;
+            }
+            File file = new File(mDirectory, name);
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap == null) {
+                // The file is gone or corrupt, forget about it
+                remove(name);
+                mMissCount++;
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            mHitCount++;
+            return bitmap;
+        }
+
+        synchronized void put(String name, Bitmap bitmap) {
+            initialize();
+            File file = new File(mDirectory, name);
+            File tmp = new File(mDirectory, name + ".tmp");
+            OutputStream output = null;
+            try {
+                output = new FileOutputStream(tmp);
+                bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                        THUMBNAIL_QUALITY, output);
+                output.close();
+                output = null;
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Cannot rename " + tmp);
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to write cover thumbnail.", e);
+                tmp.delete();
+                return;
+            } finally {
+                if (output != null) {
+                    try {
+                        output.close();
+                    } catch (IOException ioe) {
+                        // Nothing left to clean up
+                    }
+                }
+            }
+
+            Long oldSize = mEntries.put(name, file.length());
+            if (oldSize != null) {
+                mSize -= oldSize;
+            }
+            mSize += file.length();
+            trimToSize();
+        }
+
+        /**
+         * Remove every file whose name starts with the given prefix.
+         */
+        synchronized void removeAll(String prefix) {
+            initialize();
+            List<String> names = new ArrayList<>();
+            for (String name : mEntries.keySet()) {
+                if (name.startsWith(prefix)) {
+                    names.add(name);
+                }
+            }
+            for (String name : names) {
+                remove(name);
+            }
+        }
+
+        synchronized long getSize() {
+            return mSize;
+        }
+
+        synchronized int getHitCount() {
+            return mHitCount;
+        }
+
+        synchronized int getMissCount() {
+            return mMissCount;
+        }
+
+        private void remove(String name) {
+            Long size = mEntries.remove(name);
+            if (size != null) {
+                mSize -= size;
+            }
+            new File(mDirectory, name).delete();
+        }
+
+        /**
+         * Delete the least recently used files until the cache fits in its budget.
+         */
+        private void trimToSize() {
+            Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+            while (mSize > mMaxBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                mSize -= eldest.getValue();
+                new File(mDirectory, eldest.getKey()).delete();
+                iterator.remove();
+            }
+        }
+
+        /**
+         * Read the files left by earlier runs, oldest first, the first time the cache is used.
+         */
+        private void initialize() {
+            if (mInitialized) {
+                return;
+            }
+            mInitialized = true;
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.e(LOG_TAG, "Cannot create cover cache directory " + mDirectory);
+                return;
+            }
+            File[] files = mDirectory.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long difference = a.lastModified() - b.lastModified();
+                    return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                } else {
+                    mEntries.put(file.getName(), file.length());
+                    mSize += file.length();
+                }
+            }
+            trimToSize();
+        }
+    }
+}
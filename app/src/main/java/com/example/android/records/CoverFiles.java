@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * The files of the {@link CoverStore}: one directory with each cover in a file named after the
+ * SHA-256 of its content. Only plain file work, the store adds the URIs and the records.
+ */
+final class CoverFiles {
+
+    /** Suffix of the files being copied, which are renamed after their hash once complete */
+    static final String TMP_SUFFIX = ".tmp";
+
+    /** Size of the buffer used to copy the covers */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Decides if a complete copy is kept.
+     */
+    interface Check {
+        /**
+         * @param file holding the copy
+         * @throws IOException if the copy isn't a cover
+         */
+        void check(File file) throws IOException;
+    }
+
+    private final File mDirectory;
+
+    CoverFiles(File directory) {
+        mDirectory = directory;
+    }
+
+    File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Copy the content into the directory, unless a file already holds the same content, and
+     * return the file holding it. The input is read to the end, but not closed.
+     *
+     * @param input of the cover
+     * @param check run on the copy before it is kept
+     * @throws IOException if the input can't be read, or the check rejects the copy
+     */
+    File add(InputStream input, Check check) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Can't create " + mDirectory);
+        }
+
+        MessageDigest digest = newDigest();
+        File tmp = File.createTempFile("cover", TMP_SUFFIX, mDirectory);
+        try {
+            OutputStream output = new FileOutputStream(tmp);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                InputStream digestInput = new DigestInputStream(input, digest);
+                int read;
+                while ((read = digestInput.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+            check.check(tmp);
+
+            File file = new File(mDirectory, toHex(digest.digest()));
+            if (file.exists()) {
+                // Counts as new for deleteUnused, as a record is about to use it again
+                file.setLastModified(System.currentTimeMillis());
+            } else if (!tmp.renameTo(file)) {
+                throw new IOException("Can't rename " + tmp + " to " + file);
+            }
+            return file;
+        } finally {
+            // Already renamed, or a duplicate of a stored cover
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Delete the copies left half done when the app was killed while copying.
+     */
+    void deleteIncomplete() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete the covers no record uses any more. Covers added after the given time are kept
+     * even when unused, as the record they were copied for may not be saved yet.
+     *
+     * @param used      names of the covers the records use
+     * @param keepAfter time in milliseconds since the epoch after which covers are kept
+     * @return number of covers deleted
+     */
+    int deleteUnused(Set<String> used, long keepAfter) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(TMP_SUFFIX) && !used.contains(name)
+                    && file.lastModified() <= keepAfter && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads record covers into {@link ImageView}s without blocking the main thread. Covers are
+ * looked up in the {@link CoverCache} and otherwise decoded on a small pool of background
+ * threads, from their file when they are in the {@link CoverStore}, downsampled to the size
+ * of the view and decoded into recycled bitmaps where possible. Views asking for the same
+ * cover at the same size share a single decode, and binding a view to another cover, or
+ * cancelling it, drops its pending load.
+ * <p>
+ * All the public methods must be called on the main thread.
+ */
+public final class CoverLoader {
+
+    public static final String LOG_TAG = CoverLoader.class.getSimpleName();
+
+    /** Number of background threads decoding covers */
+    private static final int THREAD_COUNT = 2;
+
+    /** Maximum number of bitmaps kept for reuse */
+    private static final int POOL_SIZE = 16;
+
+    /** Bytes per pixel of the ARGB_8888 bitmaps the decoder produces */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static CoverLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    private final DisplayMetrics mDisplayMetrics;
+
+    private final CoverCache mCache;
+
+    private final CoverStore mStore;
+
+    private final BitmapPool mPool = new BitmapPool(POOL_SIZE);
+
+    private final ExecutorService mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Loads in progress, by cache key. Main thread only. */
+    private final Map<String, Request> mRequests = new HashMap<>();
+
+    /**
+     * Number of views showing each bitmap this loader delivered, plus one while a bitmap is on
+     * its way to the views waiting for it. A bitmap can only be reused once it's neither
+     * displayed, on its way, nor cached. Guarded by its own lock.
+     */
+    private final IdentityHashMap<Bitmap, Integer> mDisplayCounts = new IdentityHashMap<>();
+
+    /** Bitmaps dropped by the cache while they were still displayed. Guarded by mDisplayCounts. */
+    private final IdentityHashMap<Bitmap, Boolean> mEvicted = new IdentityHashMap<>();
+
+    /**
+     * Return the cover loader of the app, creating it the first time.
+     *
+     * @param context of the app
+     */
+    public static synchronized CoverLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CoverLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CoverLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+        mDisplayMetrics = context.getResources().getDisplayMetrics();
+        mCache = CoverCache.getInstance(context);
+        mStore = CoverStore.getInstance(context);
+        mCache.setOnEvictedListener(new CoverCache.OnEvictedListener() {
+            @Override
+            public void onEvicted(Bitmap bitmap) {
+                recycleWhenUnused(bitmap, true);
+            }
+        });
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CoverLoader #" + (++mCount));
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Show the cover at the given URI in the view, scaled down to the size of the view. Any load
+     * still pending for the view is cancelled. If the view hasn't been laid out yet the load
+     * starts once its size is known.
+     *
+     * @param uri  of the cover, may be null to just clear the view
+     * @param view to show the cover in
+     */
+    public void load(Uri uri, ImageView view) {
+        load(uri, view, 0);
+    }
+
+    /**
+     * Show the cover at the given URI in the view, like {@link #load(Uri, ImageView)}, showing
+     * the placeholder until the cover is ready.
+     *
+     * @param uri           of the cover, may be null to just show the placeholder
+     * @param view          to show the cover in
+     * @param placeholderId drawable resource shown while the cover loads, or 0 for none
+     */
+    public void load(Uri uri, ImageView view, int placeholderId) {
+        cancel(view);
+        if (placeholderId != 0) {
+            view.setImageResource(placeholderId);
+        } else {
+            view.setImageDrawable(null);
+        }
+        if (uri == null || uri.toString().isEmpty()) {
+            return;
+        }
+
+        final Binding binding = new Binding(uri, view);
+        view.setTag(R.id.cover_binding, binding);
+
+        int width = measuredOrRequestedWidth(view);
+        int height = measuredOrRequestedHeight(view);
+        if (width > 0 && height > 0) {
+            start(binding, width, height);
+            return;
+        }
+
+        // Wait until the view has been measured, so the cover is decoded at the right size
+        binding.mLayoutListener = new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                ImageView boundView = binding.mView;
+                boundView.getViewTreeObserver().removeOnPreDrawListener(this);
+                binding.mLayoutListener = null;
+                if (boundView.getTag(R.id.cover_binding) == binding) {
+                    int width = boundView.getWidth();
+                    int height = boundView.getHeight();
+                    if (width <= 0 || height <= 0) {
+                        // Still no size, fall back to the size of the screen
+                        width = mDisplayMetrics.widthPixels;
+                        height = mDisplayMetrics.heightPixels;
+                    }
+                    start(binding, width, height);
+                }
+                return true;
+            }
+        };
+        view.getViewTreeObserver().addOnPreDrawListener(binding.mLayoutListener);
+    }
+
+    /**
+     * Cancel the load pending for the view, if any, and release the cover it shows. Call this
+     * when the view is recycled for another record or its activity is destroyed.
+     */
+    public void cancel(ImageView view) {
+        Binding binding = (Binding) view.getTag(R.id.cover_binding);
+        if (binding == null) {
+            return;
+        }
+        view.setTag(R.id.cover_binding, null);
+
+        if (binding.mLayoutListener != null) {
+            view.getViewTreeObserver().removeOnPreDrawListener(binding.mLayoutListener);
+            binding.mLayoutListener = null;
+        }
+
+        Request request = binding.mRequest;
+        if (request != null) {
+            request.mBindings.remove(binding);
+            if (request.mBindings.isEmpty()) {
+                // Nobody wants this cover any more
+                request.mFuture.cancel(true);
+                mRequests.remove(request.mKey);
+            }
+            binding.mRequest = null;
+        }
+
+        if (binding.mBitmap != null) {
+            release(binding.mBitmap);
+            binding.mBitmap = null;
+        }
+    }
+
+    /**
+     * Release memory when the system asks for it. Called from the application.
+     *
+     * @param level the trim level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void trimMemory(int level) {
+        mCache.trimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mPool.clear();
+        }
+    }
+
+    /**
+     * Show the cover from memory if it's there, otherwise join or start a background load.
+     */
+    private void start(Binding binding, int width, int height) {
+        Bitmap cached = retainFromMemory(binding.mUri, width, height);
+        if (cached != null) {
+            display(binding, cached);
+            release(cached);
+            return;
+        }
+
+        String key = binding.mUri + "@" + width + "x" + height;
+        Request request = mRequests.get(key);
+        if (request == null) {
+            request = new Request(key, binding.mUri, width, height);
+            mRequests.put(key, request);
+            request.mFuture = mExecutor.submit(request);
+        }
+        request.mBindings.add(binding);
+        binding.mRequest = request;
+    }
+
+    /**
+     * Hand the decoded cover to every view still waiting for it. Runs on the main thread.
+     */
+    private void deliver(Request request, Bitmap bitmap) {
+        if (mRequests.get(request.mKey) == request) {
+            mRequests.remove(request.mKey);
+        }
+        for (Binding binding : request.mBindings) {
+            binding.mRequest = null;
+            if (bitmap != null && binding.mView.getTag(R.id.cover_binding) == binding) {
+                display(binding, bitmap);
+            }
+        }
+        request.mBindings.clear();
+        if (bitmap != null) {
+            // Let go of the hold the request took, the views now hold the bitmap themselves
+            release(bitmap);
+        }
+    }
+
+    private void display(Binding binding, Bitmap bitmap) {
+        retain(bitmap);
+        binding.mBitmap = bitmap;
+        binding.mView.setImageBitmap(bitmap);
+    }
+
+    /**
+     * Count one more user of the bitmap, which keeps it out of the pool until it's released.
+     */
+    private void retain(Bitmap bitmap) {
+        synchronized (mDisplayCounts) {
+            Integer count = mDisplayCounts.get(bitmap);
+            mDisplayCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Return the cover from the memory cache, retained, or null if it isn't there. Looked up
+     * and retained under the lock the eviction listener takes, so the cache can't hand the
+     * bitmap to the pool in between.
+     */
+    private Bitmap retainFromMemory(Uri uri, int width, int height) {
+        synchronized (mDisplayCounts) {
+            Bitmap bitmap = mCache.getFromMemory(uri, width, height);
+            if (bitmap != null) {
+                retain(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * A view stopped showing the bitmap, or a request handed it over. Once nothing retains it
+     * and the cache dropped it, it can be reused.
+     */
+    private void release(Bitmap bitmap) {
+        synchronized (mDisplayCounts) {
+            Integer count = mDisplayCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mDisplayCounts.put(bitmap, count - 1);
+                return;
+            }
+            mDisplayCounts.remove(bitmap);
+        }
+        recycleWhenUnused(bitmap, false);
+    }
+
+    /**
+     * Give the bitmap to the pool if it's no longer cached and no view shows it.
+     *
+     * @param evicted true if the cache just dropped the bitmap
+     */
+    private void recycleWhenUnused(Bitmap bitmap, boolean evicted) {
+        synchronized (mDisplayCounts) {
+            if (evicted) {
+                if (mDisplayCounts.containsKey(bitmap)) {
+                    // Still on screen, wait until the last view lets go of it
+                    mEvicted.put(bitmap, Boolean.TRUE);
+                    return;
+                }
+            } else if (mEvicted.remove(bitmap) == null) {
+                // Still in the cache
+                return;
+            }
+        }
+        mPool.put(bitmap);
+    }
+
+    /**
+     * Decode the cover at the given URI, downsampled so that it's no smaller than the given
+     * size. Runs on a background thread. Return null if the cover can't be read.
+     */
+    private Bitmap decode(Uri uri, int width, int height) throws IOException {
+        // Read the dimensions of the image first
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream input = openCover(uri);
+        try {
+            BitmapFactory.decodeStream(input, null, options);
+        } finally {
+            input.close();
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inMutable = true;
+
+        // Decode into a recycled bitmap if there is one big enough
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = mPool.get(sampledWidth * sampledHeight * BYTES_PER_PIXEL);
+
+        input = openCover(uri);
+        try {
+            return BitmapFactory.decodeStream(input, null, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            // The recycled bitmap didn't fit after all, decode into a new one
+            input.close();
+            options.inBitmap = null;
+            input = openCover(uri);
+            return BitmapFactory.decodeStream(input, null, options);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Open the cover, straight from its file when it's in the {@link CoverStore}, otherwise
+     * through the provider of the app it was picked from.
+     */
+    private InputStream openCover(Uri uri) throws IOException {
+        if (mStore.isLocal(uri)) {
+            return mStore.open(uri);
+        }
+        return mContentResolver.openInputStream(uri);
+    }
+
+    /**
+     * Return the largest power of two sample size that keeps the decoded image at least as big
+     * as the requested size. A missing requested size gets the full image.
+     */
+    static int calculateInSampleSize(int width, int height, int requestedWidth, int requestedHeight) {
+        int inSampleSize = 1;
+        if (requestedWidth <= 0 || requestedHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= requestedWidth
+                && height / (inSampleSize * 2) >= requestedHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static int measuredOrRequestedWidth(ImageView view) {
+        if (view.getWidth() > 0) {
+            return view.getWidth();
+        }
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        return params == null ? 0 : params.width;
+    }
+
+    private static int measuredOrRequestedHeight(ImageView view) {
+        if (view.getHeight() > 0) {
+            return view.getHeight();
+        }
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        return params == null ? 0 : params.height;
+    }
+
+    /**
+     * A view waiting for, or showing, a cover.
+     */
+    private static final class Binding {
+        final Uri mUri;
+        final ImageView mView;
+        /** Load the view is waiting for, null once delivered or cancelled */
+        Request mRequest;
+        /** Listener waiting for the view to be laid out, if any */
+        ViewTreeObserver.OnPreDrawListener mLayoutListener;
+        /** Bitmap the view shows, if any */
+        Bitmap mBitmap;
+
+        Binding(Uri uri, ImageView view) {
+            mUri = uri;
+            mView = view;
+        }
+    }
+
+    /**
+     * Background load of one cover at one size, shared by all the views that want it.
+     */
+    private final class Request implements Runnable {
+        final String mKey;
+        final Uri mUri;
+        final int mWidth;
+        final int mHeight;
+        /** Views waiting for the cover. Main thread only. */
+        final List<Binding> mBindings = new ArrayList<>();
+        Future<?> mFuture;
+
+        Request(String key, Uri uri, int width, int height) {
+            mKey = key;
+            mUri = uri;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void run() {
+            // The bitmap is retained until deliver() has shown it, and retained before it goes
+            // into the memory cache, so that an eviction in between doesn't pool it
+            Bitmap bitmap = retainFromMemory(mUri, mWidth, mHeight);
+            if (bitmap == null && !Thread.currentThread().isInterrupted()) {
+                bitmap = mCache.getFromDisk(mUri, mWidth, mHeight);
+                if (bitmap != null) {
+                    retain(bitmap);
+                    mCache.putInMemory(mUri, mWidth, mHeight, bitmap);
+                } else {
+                    try {
+                        bitmap = decode(mUri, mWidth, mHeight);
+                    } catch (IOException | RuntimeException e) {
+                        Log.e(LOG_TAG, "Failed to load image " + mUri, e);
+                    }
+                    if (bitmap != null) {
+                        retain(bitmap);
+                        mCache.put(mUri, mWidth, mHeight, bitmap);
+                    }
+                }
+            }
+
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, result);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.UriPermission;
+import android.database.Cursor;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies of the record covers kept in the app's private files, named after the SHA-256 of their
+ * content, so the same artwork picked for several records is only stored once. Records point
+ * to their copy with a file URI, which is read straight from disk without going through the
+ * provider of the app the cover was picked from, and keeps working when the original is moved
+ * or deleted.
+ * <p>
+ * Covers picked before the store existed still point to the original document. They are
+ * copied in the background by {@link #migrate()}, which the app runs when it starts, and
+ * which also deletes the copies no record uses any more.
+ */
+public final class CoverStore {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CoverStore.class.getSimpleName();
+
+    /** Name of the directory, inside the app files directory, holding the covers */
+    private static final String DIRECTORY = "covers";
+
+    /**
+     * Milliseconds an unused copy is kept before {@link #migrate()} deletes it, so a copy made
+     * for a record that the editor hasn't saved yet survives a restart of the app
+     */
+    private static final long UNUSED_COPY_AGE = TimeUnit.DAYS.toMillis(1);
+
+    /** Checks that the loader can decode a copy before it is kept */
+    private static final CoverFiles.Check IMAGE_CHECK = new CoverFiles.Check() {
+        @Override
+        public void check(File file) throws IOException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IOException("Not an image: " + file);
+            }
+        }
+    };
+
+    /**
+     * Told on the main thread when a cover was copied into the store.
+     */
+    interface Callback {
+        /**
+         * @param source the cover was copied from
+         * @param local  URI of the copy, or null if the cover couldn't be read
+         */
+        void onCoverImported(Uri source, Uri local);
+    }
+
+    private static CoverStore sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    private final RecordWriter mRecordWriter;
+
+    private final CoverFiles mFiles;
+
+    /** Prefix shared by the URIs of all the covers in the store */
+    private final String mUriPrefix;
+
+    /** Copies the covers one at a time, so two copies of the same cover can't race */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Return the cover store of the app, creating it the first time.
+     *
+     * @param context of the app
+     */
+    public static synchronized CoverStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CoverStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CoverStore(Context context) {
+        mContentResolver = context.getContentResolver();
+        mRecordWriter = RecordWriter.getInstance(context);
+        mFiles = new CoverFiles(new File(context.getFilesDir(), DIRECTORY));
+        mUriPrefix = Uri.fromFile(mFiles.getDirectory()).toString() + "/";
+    }
+
+    /**
+     * Return true if the URI points to a cover of the store.
+     */
+    public boolean isLocal(Uri uri) {
+        return uri != null && uri.toString().startsWith(mUriPrefix);
+    }
+
+    /**
+     * Open a cover of the store, straight from its file.
+     *
+     * @throws FileNotFoundException if the URI isn't a cover of the store, or the file is gone
+     */
+    InputStream open(Uri uri) throws FileNotFoundException {
+        if (!isLocal(uri)) {
+            throw new FileNotFoundException("Not a stored cover: " + uri);
+        }
+        return new FileInputStream(new File(mFiles.getDirectory(), uri.getLastPathSegment()));
+    }
+
+    /**
+     * Copy the cover in the background, then tell the callback on the main thread. Records
+     * saved with the source URI, before or until the callback, are then pointed to the copy,
+     * and the persistable permission on the source is given back.
+     *
+     * @param source   URI the cover was picked from
+     * @param callback told once the copy is done or failed
+     */
+    void importCover(final Uri source, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri local = null;
+                try {
+                    local = importCover(source);
+                } catch (IOException | RuntimeException e) {
+                    // The record keeps the source URI, the next migration tries again
+                    Log.e(LOG_TAG, "Failed to copy the cover " + source, e);
+                }
+
+                final Uri finalLocal = local;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onCoverImported(source, finalLocal);
+                        if (finalLocal != null && !source.equals(finalLocal)) {
+                            rewriteAndRelease(source, finalLocal);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Point the records using the source cover to its copy, then give back the permission on
+     * the source. Called on the main thread once the callback switched to the copy, so later
+     * saves use the copy. The rewrite is queued on the {@link RecordWriter}, behind the saves
+     * asked for before, so none of them can store the source URI once the permission is gone.
+     */
+    private void rewriteAndRelease(final Uri source, Uri local) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_RECORD_COVER, local.toString());
+        mRecordWriter.update(RecordEntry.CONTENT_URI, values,
+                RecordEntry.COLUMN_RECORD_COVER + " = ?", new String[] {source.toString()},
+                new RecordWriter.Callback<Integer>() {
+                    @Override
+                    public void onWriteDone(Integer result, RuntimeException error) {
+                        if (error != null) {
+                            // The records keep the source, the next migration tries again
+                            return;
+                        }
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    releasePermission(source);
+                                } catch (RuntimeException e) {
+                                    Log.w(LOG_TAG, "Failed to release " + source + ": " + e);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Copy the covers the records still read from another app into the store, in the
+     * background, and point the records to the copies. Covers that can't be read are left
+     * as they are, and tried again the next time. Then delete the copies no record uses any
+     * more, once they are old enough that no unsaved record can be waiting for them.
+     */
+    public void migrate() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mFiles.deleteIncomplete();
+                    int imported = 0;
+                    Set<String> sources = findExternalCovers();
+                    for (String cover : sources) {
+                        Uri source = Uri.parse(cover);
+                        try {
+                            rewrite(source, importCover(source));
+                            releasePermission(source);
+                            imported++;
+                        } catch (IOException | SecurityException e) {
+                            Log.w(LOG_TAG, "Failed to copy the cover " + source + ": " + e);
+                        }
+                    }
+                    if (!sources.isEmpty()) {
+                        Log.i(LOG_TAG, "Copied " + imported + " of " + sources.size() + " covers");
+                    }
+
+                    Set<String> used = findUsedCopies();
+                    if (used != null) {
+                        int deleted = mFiles.deleteUnused(used,
+                                System.currentTimeMillis() - UNUSED_COPY_AGE);
+                        if (deleted > 0) {
+                            Log.i(LOG_TAG, "Deleted " + deleted + " unused covers");
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Cover migration failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy the cover into the store, unless the store already holds the same content, and
+     * return the URI of the copy. Runs on the store's thread.
+     *
+     * @throws IOException if the cover can't be read, or isn't an image
+     */
+    private Uri importCover(Uri source) throws IOException {
+        if (isLocal(source)) {
+            return source;
+        }
+        InputStream input = mContentResolver.openInputStream(source);
+        if (input == null) {
+            throw new FileNotFoundException("Can't open " + source);
+        }
+        try {
+            return Uri.fromFile(mFiles.add(input, IMAGE_CHECK));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Return the distinct covers of the records that aren't in the store yet.
+     */
+    private Set<String> findExternalCovers() {
+        Set<String> covers = new LinkedHashSet<>();
+        // Reads the whole table, but only once per start and in the background
+        Cursor cursor = mContentResolver.query(RecordEntry.CONTENT_URI,
+                new String[] {RecordEntry.COLUMN_RECORD_COVER},
+                RecordEntry.COLUMN_RECORD_COVER + " NOT LIKE ?", new String[] {mUriPrefix + "%"}, null);
+        if (cursor == null) {
+            return covers;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String cover = cursor.getString(0);
+                if (cover != null && !cover.isEmpty()) {
+                    covers.add(cover);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return covers;
+    }
+
+    /**
+     * Return the names of the copies the records use, or null if the records can't be read.
+     */
+    private Set<String> findUsedCopies() {
+        Cursor cursor = mContentResolver.query(RecordEntry.CONTENT_URI,
+                new String[] {RecordEntry.COLUMN_RECORD_COVER},
+                RecordEntry.COLUMN_RECORD_COVER + " LIKE ?", new String[] {mUriPrefix + "%"}, null);
+        if (cursor == null) {
+            return null;
+        }
+        Set<String> used = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                used.add(Uri.parse(cursor.getString(0)).getLastPathSegment());
+            }
+        } finally {
+            cursor.close();
+        }
+        return used;
+    }
+
+    /**
+     * Point the records using the source cover to its copy in the store.
+     */
+    private void rewrite(Uri source, Uri local) {
+        if (source.equals(local)) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_RECORD_COVER, local.toString());
+        mContentResolver.update(RecordEntry.CONTENT_URI, values,
+                RecordEntry.COLUMN_RECORD_COVER + " = ?", new String[] {source.toString()});
+    }
+
+    /**
+     * Give back the persistable permission taken on the source cover when it was picked, now
+     * that no record reads it any more.
+     */
+    private void releasePermission(Uri source) {
+        for (UriPermission permission : mContentResolver.getPersistedUriPermissions()) {
+            if (permission.getUri().equals(source)) {
+                int flags = 0;
+                if (permission.isReadPermission()) {
+                    flags |= Intent.FLAG_GRANT_READ_URI_PERMISSION;
+                }
+                if (permission.isWritePermission()) {
+                    flags |= Intent.FLAG_GRANT_WRITE_URI_PERMISSION;
+                }
+                mContentResolver.releasePersistableUriPermission(source, flags);
+                return;
+            }
+        }
+    }
+}
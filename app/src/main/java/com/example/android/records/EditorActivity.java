@@ -17,7 +17,6 @@ package com.example.android.records;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.CursorLoader;
@@ -25,8 +24,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
@@ -38,18 +35,15 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.example.android.records.data.RecordContract;
 import com.example.android.records.data.RecordContract.RecordEntry;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 
 import static android.content.ContentValues.TAG;
 
@@ -81,9 +75,6 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private String imagePath;
 
-    /** Bitmap value of the image fetched from the Uri */
-    private Bitmap image;
-
     /** Content URI for the existing record (null if it's a new record) */
     private Uri mCurrentRecordUri;
 
@@ -247,6 +238,13 @@ public class EditorActivity extends AppCompatActivity implements
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Drop the cover load if it's still pending, the view is going away
+        CoverLoader.getInstance(this).cancel(mRecordCover);
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -262,15 +260,7 @@ public class EditorActivity extends AppCompatActivity implements
         if (savedInstanceState.containsKey(STATE_IMAGE_URI) &&
                 !savedInstanceState.getString(STATE_IMAGE_URI).equals("")) {
             mImageUri = Uri.parse(savedInstanceState.getString(STATE_IMAGE_URI));
-
-            ViewTreeObserver viewTreeObserver = mRecordCover.getViewTreeObserver();
-            viewTreeObserver.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
-                @Override
-                public void onGlobalLayout() {
-                    mRecordCover.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                    mRecordCover.setImageBitmap(getBitmapFromUri(mImageUri, mContext, mRecordCover));
-                }
-            });
+            CoverLoader.getInstance(this).load(mImageUri, mRecordCover);
         }
     }
 
@@ -278,35 +268,33 @@ public class EditorActivity extends AppCompatActivity implements
 
         //if we are here our request was successful
         if (requestCode == IMAGE_GALLERY_REQUEST && (resultCode == RESULT_OK)) {
+            //this is the address of the image on the sd cards
+            mImageUri = data.getData();
+            int takeFlags = data.getFlags();
+            takeFlags &= (Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+            imagePath = mImageUri.toString();
+            // Keeps the picked image readable if the record is saved before the copy below is
+            // done, or if the copy fails, until the migration copies it at the next start
             try {
-                //this is the address of the image on the sd cards
-                mImageUri = data.getData();
-                int takeFlags = data.getFlags();
-                takeFlags &= (Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-                imagePath = mImageUri.toString();
-                //Declare a stream to read the data from the card
-                InputStream inputStream;
-                //We are getting an input stream based on the Uri of the image
-                inputStream = getContentResolver().openInputStream(mImageUri);
-                //Get a bitmap from the stream
-                image = BitmapFactory.decodeStream(inputStream);
-                //Show the image to the user
-                mRecordCover.setImageBitmap(image);
-                imagePath = mImageUri.toString();
-                try {
-                    getContentResolver().takePersistableUriPermission(mImageUri, takeFlags);
-                } catch (SecurityException e) {
-                    e.printStackTrace();
-                }
-                mRecordCover.setImageBitmap(getBitmapFromUri(mImageUri, mContext, mRecordCover));
+                getContentResolver().takePersistableUriPermission(mImageUri, takeFlags);
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
+            //Show the image to the user, decoded in the background at the size of the view
+            CoverLoader.getInstance(this).load(mImageUri, mRecordCover);
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    //Show the user a Toast mewssage that the Image is not available
-                    Toast.makeText(EditorActivity.this, "Unable to open image", Toast.LENGTH_LONG).show();
+            // Copy the image into the app's own files, and save the record with the copy
+            CoverStore.getInstance(this).importCover(mImageUri, new CoverStore.Callback() {
+                @Override
+                public void onCoverImported(Uri source, Uri local) {
+                    if (local != null && source.equals(mImageUri)) {
+                        mImageUri = local;
+                        imagePath = local.toString();
+                    }
                 }
-            }
+            });
         }
+    }
 
     /**
      * Method to add clear top flag so it doesn't create new instance of parent
@@ -322,56 +310,6 @@ public class EditorActivity extends AppCompatActivity implements
         return intent;
     }
 
-    public Bitmap getBitmapFromUri(Uri uri, Context context, ImageView imageView) {
-
-        if (uri == null || uri.toString().isEmpty())
-            return null;
-
-        // Get the dimensions of the View
-        int targetW = imageView.getWidth();
-        int targetH = imageView.getHeight();
-
-        InputStream input = null;
-        try {
-            input = this.getContentResolver().openInputStream(uri);
-
-            // Get the dimensions of the bitmap
-            BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-            bmOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-
-            int photoW = bmOptions.outWidth;
-            int photoH = bmOptions.outHeight;
-
-            // Determine how much to scale down the image
-            int scaleFactor = Math.min(photoW / targetW, photoH / targetH);
-
-            // Decode the image file into a Bitmap sized to fill the View
-            bmOptions.inJustDecodeBounds = false;
-            bmOptions.inSampleSize = scaleFactor;
-            bmOptions.inPurgeable = true;
-
-            input = this.getContentResolver().openInputStream(uri);
-            Bitmap bitmap = BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-            return bitmap;
-
-        } catch (FileNotFoundException fne) {
-            Log.e(LOG_TAG, "Failed to load image.", fne);
-            return null;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Failed to load image.", e);
-            return null;
-        } finally {
-            try {
-                input.close();
-            } catch (IOException ioe) {
-
-            }
-        }
-    }
-
     /**
      * Get user input from editor and save record into database.
      */
@@ -437,41 +375,60 @@ public class EditorActivity extends AppCompatActivity implements
         values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, supplierEmailString );
 
 
+        // The write runs in the background and outlives this activity, which finishes right
+        // away, so its outcome is shown through the application context
+        final Context appContext = getApplicationContext();
+
         // Determine if this is a new or existing record by checking if mCurrentRecordUri is null or not
         if (mCurrentRecordUri == null) {
             // This is a NEW record, so insert a new record into the provider,
             // returning the content URI for the new record.
-            Uri newUri = getContentResolver().insert(RecordEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_record_failed),
-                        Toast.LENGTH_SHORT).show();
-
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_record_successful),
-                        Toast.LENGTH_SHORT).show();
-
-            }
+            RecordWriter.getInstance(this).insert(RecordEntry.CONTENT_URI, values,
+                    new RecordWriter.Callback<Uri>() {
+                        @Override
+                        public void onWriteDone(Uri newUri, RuntimeException error) {
+                            // Show a toast message depending on whether or not the insertion was successful.
+                            if (newUri == null) {
+                                // If the new content URI is null, then there was an error with insertion.
+                                showWriteFailed(appContext, R.string.editor_insert_record_failed, error);
+                            } else {
+                                // Otherwise, the insertion was successful and we can display a toast.
+                                Toast.makeText(appContext, R.string.editor_insert_record_successful,
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
         } else {
             // Otherwise this is an EXISTING record, so update the record with content URI: mCurrentRecordUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentRecordUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentRecordUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_record_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_record_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // and pass in the new ContentValues. mCurrentRecordUri already identifies the correct
+            // row in the database that we want to modify.
+            RecordWriter.getInstance(this).update(mCurrentRecordUri, values,
+                    new RecordWriter.Callback<Integer>() {
+                        @Override
+                        public void onWriteDone(Integer rowsAffected, RuntimeException error) {
+                            // Show a toast message depending on whether or not the update was successful.
+                            if (rowsAffected == null || rowsAffected == 0) {
+                                // If no rows were affected, then there was an error with the update.
+                                showWriteFailed(appContext, R.string.editor_update_record_failed, error);
+                            } else {
+                                // Otherwise, the update was successful and we can display a toast.
+                                Toast.makeText(appContext, R.string.editor_update_record_successful,
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Tell the user a write failed. A record the provider rejected as invalid comes with the
+     * reason, which is shown instead of the generic message.
+     */
+    private static void showWriteFailed(Context context, int messageId, RuntimeException error) {
+        if (error instanceof IllegalArgumentException && error.getMessage() != null) {
+            Toast.makeText(context, error.getMessage(), Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(context, messageId, Toast.LENGTH_SHORT).show();
         }
     }
 
@@ -629,49 +586,56 @@ public class EditorActivity extends AppCompatActivity implements
             mPriceEditText.setText(Integer.toString(price));
             mContactNameEditText.setText(supplierName);
             mContactEmailEditText.setText(supplierEmail);
-            mRecordCover.setImageBitmap(getBitmapFromUri(Uri.parse(cover), mContext, mRecordCover));
             mImageUri = Uri.parse(cover);
+            CoverLoader.getInstance(this).load(mImageUri, mRecordCover);
 
 
             mAddStock.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (quantity >= 0) {
-                        int newQuantity = quantity + 1;
-                        ContentValues values = new ContentValues();
-                        values.put(RecordEntry.COLUMN_QUANTITY, newQuantity);
-                        Uri recordUri = ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId);
-                        int numRowsUpdated = EditorActivity.this.getContentResolver().update(recordUri, values, null, null);
-                        if (!(numRowsUpdated > 0)) {
-                            Log.e(TAG, EditorActivity.this.getString(R.string.editor_update_record_failed));
-                        }
-                    }
-                    int newQuantity = 0;
-
+                    changeStock(recordId, RecordContract.METHOD_RESTOCK);
                 }
             });
 
             mMinusStock.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (quantity >= 1) {
-                        int newQuantity = quantity - 1;
-                        ContentValues values = new ContentValues();
-                        values.put(RecordEntry.COLUMN_QUANTITY, newQuantity);
-                        Uri recordUri = ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId);
-                        int numRowsUpdated = EditorActivity.this.getContentResolver().update(recordUri, values, null, null);
-                        if (!(numRowsUpdated > 0)) {
-                            Log.e(TAG, EditorActivity.this.getString(R.string.editor_update_record_failed));
-                        }
-                    } else if (!(quantity >= 1)) {
-                        Toast.makeText(EditorActivity.this, getString(R.string.negative_stock), Toast.LENGTH_SHORT).show();
-                    }
+                    changeStock(recordId, RecordContract.METHOD_SELL);
                 }
             });
         }
 
     }
 
+    /**
+     * Sell or restock one copy of the record through the provider, which applies the change
+     * atomically, and show the resulting quantity once it's done.
+     *
+     * @param recordId ID of the record being edited
+     * @param method   {@link RecordContract#METHOD_SELL} or {@link RecordContract#METHOD_RESTOCK}
+     */
+    private void changeStock(long recordId, String method) {
+        RecordWriter.getInstance(this).call(RecordEntry.CONTENT_URI, method, String.valueOf(recordId),
+                null, new RecordWriter.Callback<Bundle>() {
+                    @Override
+                    public void onWriteDone(Bundle result, RuntimeException error) {
+                        if (isDestroyed()) {
+                            // The loader of the next editor shows the new quantity
+                            return;
+                        }
+                        if (result == null) {
+                            Log.e(TAG, getString(R.string.editor_update_record_failed));
+                        } else if (!result.getBoolean(RecordContract.EXTRA_UPDATED)) {
+                            Toast.makeText(EditorActivity.this, getString(R.string.negative_stock),
+                                    Toast.LENGTH_SHORT).show();
+                        } else {
+                            mQuantityEditText.setText(
+                                    Integer.toString(result.getInt(RecordContract.EXTRA_QUANTITY)));
+                        }
+                    }
+                });
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields.
@@ -739,21 +703,23 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteRecord() {
         // Only perform the delete if this is an existing record.
         if (mCurrentRecordUri != null) {
-            // Call the ContentResolver to delete the record at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentRecordUri
-            // content URI already identifies the record that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentRecordUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_record_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_record_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Delete the record at the given content URI in the background. The activity closes
+            // right away, so the outcome is shown through the application context.
+            final Context appContext = getApplicationContext();
+            RecordWriter.getInstance(this).delete(mCurrentRecordUri, new RecordWriter.Callback<Integer>() {
+                @Override
+                public void onWriteDone(Integer rowsDeleted, RuntimeException error) {
+                    // Show a toast message depending on whether or not the delete was successful.
+                    if (rowsDeleted == null || rowsDeleted == 0) {
+                        // If no rows were deleted, then there was an error with the delete.
+                        showWriteFailed(appContext, R.string.editor_delete_record_failed, error);
+                    } else {
+                        // Otherwise, the delete was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_delete_record_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
 
         // Close the activity
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link RecordAdapter} is an adapter for a {@link RecyclerView} that uses a {@link Cursor} of
+ * record data as its data source. Each new cursor is read into a list of records on a
+ * background thread and compared with the list on screen, so only the rows that actually
+ * changed are bound again.
+ */
+public class RecordAdapter extends RecyclerView.Adapter<RecordAdapter.ViewHolder> {
+
+    public static final String LOG_TAG = RecordAdapter.class.getSimpleName();
+
+    /** Thread reading the cursors and computing the differences, shared by all the adapters */
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Listener told when the user clicks on a record.
+     */
+    public interface OnRecordClickListener {
+        void onRecordClick(long recordId);
+    }
+
+    private final Context mContext;
+
+    private final OnRecordClickListener mOnRecordClickListener;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Sales tapped in the list, shown right away and sent in batches */
+    private final SaleBuffer mSaleBuffer;
+
+    /** Records on screen. Main thread only. */
+    private List<Record> mRecords = Collections.emptyList();
+
+    /**
+     * Incremented with every new cursor, so that a difference computed for a cursor that has
+     * since been replaced is thrown away.
+     */
+    private volatile int mGeneration;
+
+    /**
+     * Constructs a new {@link RecordAdapter}.
+     *
+     * @param context  The context
+     * @param listener told when the user clicks on a record
+     */
+    public RecordAdapter(Context context, OnRecordClickListener listener) {
+        mContext = context;
+        mOnRecordClickListener = listener;
+        mSaleBuffer = new SaleBuffer(context.getContentResolver(), new SaleBuffer.Listener() {
+            @Override
+            public void onStockChanged(long recordId) {
+                int position = indexOf(recordId);
+                if (position != -1) {
+                    notifyItemChanged(position);
+                }
+            }
+
+            @Override
+            public void onSaleFailed(long recordId, boolean soldOut) {
+                Toast.makeText(mContext, soldOut ? R.string.sold_out : R.string.sale_failed,
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+        setHasStableIds(true);
+    }
+
+    /**
+     * Send the sales tapped in the list right away, for instance because it's going off screen.
+     * Must be called on the main thread.
+     */
+    public void flushSales() {
+        mSaleBuffer.flush();
+    }
+
+    /**
+     * Show the records of the given cursor. The cursor is read and compared with the records
+     * on screen in the background, then only the differences are applied to the list. Must be
+     * called on the main thread.
+     *
+     * @param cursor The cursor from which to get the data, or null to empty the list
+     */
+    public void swapCursor(final Cursor cursor) {
+        final int generation = ++mGeneration;
+        if (cursor == null) {
+            mRecords = Collections.emptyList();
+            notifyDataSetChanged();
+            return;
+        }
+
+        final List<Record> oldRecords = mRecords;
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Record> newRecords;
+                try {
+                    newRecords = Record.readAll(cursor);
+                } catch (RuntimeException e) {
+                    if (generation != mGeneration) {
+                        // The cursor was closed because a newer one replaced it
+                        return;
+                    }
+                    throw e;
+                }
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new RecordDiffCallback(oldRecords, newRecords));
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mRecords = newRecords;
+                            mSaleBuffer.onRecordsReloaded();
+                            diff.dispatchUpdatesTo(RecordAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRecords.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRecords.get(position).mId;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        holder.bind(mRecords.get(position));
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        // The row is going back to the pool, stop loading a cover nobody will see
+        CoverLoader.getInstance(mContext).cancel(holder.mCoverImageView);
+        holder.mCover = null;
+    }
+
+    /**
+     * Return the position of the record with the given ID in the list, or -1 if it isn't there.
+     */
+    private int indexOf(long recordId) {
+        for (int i = 0; i < mRecords.size(); i++) {
+            if (mRecords.get(i).mId == recordId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sell one copy of the record at the given position. The row shows the new stock right
+     * away, the sale is sent with the others tapped around the same time.
+     */
+    private void sell(int position) {
+        Record record = mRecords.get(position);
+        if (mSaleBuffer.sell(record.mId, record.mQuantity)) {
+            notifyItemChanged(position);
+        } else {
+            Toast.makeText(mContext, R.string.sold_out, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Holds the views of one row of the list, so they are only looked up once.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView mAlbumNameTextView;
+        final TextView mBandNameTextView;
+        final TextView mQuantityTextView;
+        final TextView mPriceTextView;
+        final ImageView mCoverImageView;
+        final ImageView mSaleImageView;
+
+        /** Cover shown in the row, so binding the same record again doesn't reload it */
+        String mCover;
+
+        ViewHolder(View view) {
+            super(view);
+            mAlbumNameTextView = (TextView) view.findViewById(R.id.album_name);
+            mBandNameTextView = (TextView) view.findViewById(R.id.band_name);
+            mQuantityTextView = (TextView) view.findViewById(R.id.quantiy);
+            mPriceTextView = (TextView) view.findViewById(R.id.price);
+            mCoverImageView = (ImageView) view.findViewById(R.id.cover_thumbnail);
+            mSaleImageView = (ImageView) view.findViewById(R.id.sale_button);
+
+            // One listener per row, which looks up the record the row shows when clicked
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        mOnRecordClickListener.onRecordClick(mRecords.get(position).mId);
+                    }
+                }
+            });
+
+            // Sale button reduces the quantity of the record in stock by -1.
+            mSaleImageView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        sell(position);
+                    }
+                }
+            });
+        }
+
+        void bind(Record record) {
+            // Update the TextViews with the attributes for the current record
+            mAlbumNameTextView.setText(record.mAlbumName);
+            mBandNameTextView.setText(record.mBandName);
+            mQuantityTextView.setText(Integer.toString(
+                    mSaleBuffer.getQuantity(record.mId, record.mQuantity)));
+            mPriceTextView.setText(Integer.toString(record.mPrice));
+
+            // Load the cover thumbnail in the background, unless the row already shows it.
+            // Loading another cover cancels the load of the record the row showed before.
+            if (!TextUtils.equals(mCover, record.mCover)) {
+                mCover = record.mCover;
+                CoverLoader.getInstance(mContext).load(
+                        TextUtils.isEmpty(record.mCover) ? null : Uri.parse(record.mCover),
+                        mCoverImageView, R.drawable.turntable);
+            }
+        }
+    }
+
+    /**
+     * Immutable copy of the columns of one record shown in the list.
+     */
+    static final class Record {
+        final long mId;
+        final String mAlbumName;
+        final String mBandName;
+        final int mQuantity;
+        final int mPrice;
+        final String mCover;
+
+        Record(long id, String albumName, String bandName, int quantity, int price, String cover) {
+            mId = id;
+            mAlbumName = albumName;
+            mBandName = bandName;
+            mQuantity = quantity;
+            mPrice = price;
+            mCover = cover;
+        }
+
+        /**
+         * Read every row of the cursor, looking up the column indices only once.
+         */
+        static List<Record> readAll(Cursor cursor) {
+            int idColumnIndex = cursor.getColumnIndex(RecordEntry._ID);
+            int albumNameColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_ALBUM_NAME);
+            int bandNameColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_BAND_NAME);
+            int quantityColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_QUANTITY);
+            int priceColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_PRICE);
+            int coverColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_RECORD_COVER);
+
+            List<Record> records = new ArrayList<>(cursor.getCount());
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                records.add(new Record(
+                        cursor.getLong(idColumnIndex),
+                        cursor.getString(albumNameColumnIndex),
+                        cursor.getString(bandNameColumnIndex),
+                        cursor.getInt(quantityColumnIndex),
+                        cursor.getInt(priceColumnIndex),
+                        coverColumnIndex == -1 ? null : cursor.getString(coverColumnIndex)));
+            }
+            return records;
+        }
+
+        boolean hasSameContents(Record other) {
+            return mQuantity == other.mQuantity
+                    && mPrice == other.mPrice
+                    && TextUtils.equals(mAlbumName, other.mAlbumName)
+                    && TextUtils.equals(mBandName, other.mBandName)
+                    && TextUtils.equals(mCover, other.mCover);
+        }
+    }
+
+    /**
+     * Compares two lists of records: rows are the same item when they have the same ID, and
+     * only need to be bound again when one of their columns changed.
+     */
+    private static final class RecordDiffCallback extends DiffUtil.Callback {
+        private final List<Record> mOldRecords;
+        private final List<Record> mNewRecords;
+
+        RecordDiffCallback(List<Record> oldRecords, List<Record> newRecords) {
+            mOldRecords = oldRecords;
+            mNewRecords = newRecords;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRecords.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRecords.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRecords.get(oldItemPosition).mId == mNewRecords.get(newItemPosition).mId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRecords.get(oldItemPosition).hasSameContents(mNewRecords.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.records.data.RecordImporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Imports the records of a CSV or JSON file picked by the user, in the background. Progress and
+ * the outcome are shown in a notification, and the rows that couldn't be imported are logged.
+ * The progress notification has an action that cancels the import, keeping the records
+ * already inserted.
+ */
+public class RecordImportService extends IntentService {
+
+    public static final String LOG_TAG = RecordImportService.class.getSimpleName();
+
+    /** Optional extra with the number of rows inserted in each transaction */
+    public static final String EXTRA_CHUNK_SIZE = "chunkSize";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    /** Number of row errors logged, the rest are only counted */
+    private static final int MAX_LOGGED_ERRORS = 100;
+
+    /** Action of the intent that cancels the import in progress */
+    private static final String ACTION_CANCEL = "com.example.android.records.action.CANCEL_IMPORT";
+
+    /** Import in progress, if any. Set on the worker thread, cancelled from the main thread. */
+    private volatile RecordImporter mImporter;
+
+    public RecordImportService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Start importing the records of the file at the given URI, which the service must be
+     * allowed to read.
+     */
+    public static void start(Context context, Uri uri) {
+        Intent intent = new Intent(context, RecordImportService.class);
+        intent.setData(uri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_CANCEL.equals(intent.getAction())) {
+            // Cancel right away rather than once the import it cancels is over. The intent is
+            // still queued, so the service stops once the import winds down.
+            RecordImporter importer = mImporter;
+            if (importer != null) {
+                importer.cancel();
+            }
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (ACTION_CANCEL.equals(intent.getAction())) {
+            // Already handled in onStartCommand
+            return;
+        }
+        Uri uri = intent.getData();
+        int chunkSize = intent.getIntExtra(EXTRA_CHUNK_SIZE, RecordImporter.DEFAULT_CHUNK_SIZE);
+
+        final NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        final NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_in_progress))
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setProgress(0, 0, true)
+                .addAction(android.R.drawable.ic_menu_close_clear_cancel, getString(R.string.import_cancel),
+                        PendingIntent.getService(this, 0,
+                                new Intent(this, RecordImportService.class).setAction(ACTION_CANCEL),
+                                PendingIntent.FLAG_UPDATE_CURRENT));
+        startForeground(NOTIFICATION_ID, builder.build());
+
+        final int[] rowsFailed = new int[1];
+        RecordImporter importer = new RecordImporter(getContentResolver(), chunkSize);
+        mImporter = importer;
+        int imported;
+        try {
+            // Resolved before the stream is opened, so a failure here can't leak it
+            RecordImporter.Format format = getFormat(uri);
+            InputStream in = getContentResolver().openInputStream(uri);
+            if (in == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            imported = importer.importRecords(in, format, new RecordImporter.Listener() {
+                @Override
+                public void onProgress(int rowsRead, int rowsImported) {
+                    builder.setContentText(getString(R.string.import_progress, rowsImported,
+                            rowsFailed[0]));
+                    notificationManager.notify(NOTIFICATION_ID, builder.build());
+                }
+
+                @Override
+                public void onRowError(int row, String message) {
+                    if (rowsFailed[0]++ < MAX_LOGGED_ERRORS) {
+                        Log.w(LOG_TAG, "Skipped row " + row + ": " + message);
+                    }
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to import " + uri, e);
+            stopForeground(true);
+            notifyDone(notificationManager, getString(R.string.import_failed), e.getMessage());
+            return;
+        } finally {
+            mImporter = null;
+        }
+
+        stopForeground(true);
+        notifyDone(notificationManager, getString(importer.isCancelled()
+                        ? R.string.import_cancelled : R.string.import_finished),
+                getString(R.string.import_progress, imported, rowsFailed[0]));
+    }
+
+    private void notifyDone(NotificationManager notificationManager, String title, String text) {
+        notificationManager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setContentTitle(title)
+                .setContentText(text)
+                .build());
+    }
+
+    /**
+     * Guess the format of the file from its MIME type, or failing that its name. Files that
+     * don't look like JSON are read as CSV.
+     */
+    private RecordImporter.Format getFormat(Uri uri) {
+        String type = getContentResolver().getType(uri);
+        if (type != null && type.endsWith("json")) {
+            return RecordImporter.Format.JSON;
+        }
+        Cursor cursor = getContentResolver().query(uri,
+                new String[] { OpenableColumns.DISPLAY_NAME }, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    String name = cursor.getString(0);
+                    if (name != null && name.toLowerCase(Locale.ROOT).endsWith(".json")) {
+                        return RecordImporter.Format.JSON;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return RecordImporter.Format.CSV;
+    }
+}
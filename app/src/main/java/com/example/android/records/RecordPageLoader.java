@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loader that reads the catalog one page at a time, using the keyset paging of the records
+ * content URI. Pages that were already loaded are kept, so asking for one more page only queries
+ * that page. When the data changes, the pages that were on screen are reloaded from the start.
+ * The sort and filters are taken from the query parameters of the URI it's given. Search
+ * results are paged the same way, in the order of their rank.
+ */
+public class RecordPageLoader extends AsyncTaskLoader<Cursor> {
+
+    /** Observer that reloads the pages when the records change */
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    /** Records URI with the sort and filter parameters, or search URI with the search terms */
+    private final Uri mUri;
+
+    /** Columns to load, including the ones the paging uses */
+    private final String[] mProjection;
+
+    /** Columns holding the sort key of a row, which tells where the next page starts */
+    private final String[] mKeyColumns;
+
+    /** Number of records in each page */
+    private final int mPageSize;
+
+    /** Cursor delivered last, holding all the pages loaded so far. Guarded by this loader's lock. */
+    private PagedCursor mCursor;
+
+    /** Number of pages the catalog wants to show. Guarded by this loader's lock. */
+    private int mPageCount = 1;
+
+    /**
+     * Incremented every time the records change. Pages loaded before the latest change are
+     * stale and can't be reused. Guarded by this loader's lock.
+     */
+    private int mVersion;
+
+    /**
+     * Constructs a new {@link RecordPageLoader}.
+     *
+     * @param context    of the app
+     * @param uri        records URI, which may hold sort and filter parameters, or search URI
+     * @param projection columns to load
+     * @param pageSize   number of records in each page
+     */
+    public RecordPageLoader(Context context, Uri uri, String[] projection, int pageSize) {
+        super(context);
+        mUri = uri;
+        if (uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_SEARCH) != null) {
+            mKeyColumns = RecordEntry.getSearchPageKeyColumns();
+        } else {
+            mKeyColumns = RecordEntry.getPageKeyColumns(uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_SORT));
+        }
+        mProjection = withColumns(projection, mKeyColumns);
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Return the projection with the ID and the given columns added, unless it has them already.
+     */
+    private static String[] withColumns(String[] projection, String[] columns) {
+        List<String> allColumns = new ArrayList<>(Arrays.asList(projection));
+        if (!allColumns.contains(RecordEntry._ID)) {
+            allColumns.add(RecordEntry._ID);
+        }
+        for (String column : columns) {
+            if (!allColumns.contains(column)) {
+                allColumns.add(column);
+            }
+        }
+        return allColumns.toArray(new String[allColumns.size()]);
+    }
+
+    /**
+     * Load one more page, unless a page is already loading or the last page has been reached.
+     * Must be called on the main thread.
+     */
+    public void loadNextPage() {
+        synchronized (this) {
+            if (mCursor == null || !mCursor.mHasMore || mCursor.mPages.size() < mPageCount) {
+                return;
+            }
+            mPageCount++;
+        }
+        forceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        List<Page> pages;
+        int pageCount;
+        int version;
+        synchronized (this) {
+            pageCount = mPageCount;
+            version = mVersion;
+            pages = new ArrayList<>();
+            // Pages loaded since the last change are still good, start after them
+            if (mCursor != null && mCursor.mVersion == version) {
+                pages.addAll(mCursor.mPages);
+            }
+        }
+
+        boolean hasMore = pages.isEmpty() || pages.get(pages.size() - 1).mFull;
+        while (hasMore && pages.size() < pageCount) {
+            // Stop early if canceled, but always return at least one page
+            if (!pages.isEmpty() && isLoadInBackgroundCanceled()) {
+                break;
+            }
+            Page page = loadPage(pages.isEmpty() ? null : pages.get(pages.size() - 1));
+            pages.add(page);
+            hasMore = page.mFull;
+        }
+        return new PagedCursor(pages, version, hasMore);
+    }
+
+    /**
+     * Query the page that comes after the given one, or the first page if it's null.
+     */
+    private Page loadPage(Page previous) {
+        Uri.Builder builder = mUri.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_LIMIT, String.valueOf(mPageSize));
+        if (previous != null) {
+            for (String key : previous.mLastKey) {
+                builder.appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_KEY, key);
+            }
+            builder.appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_ID, String.valueOf(previous.mLastId));
+        }
+
+        Cursor cursor = getContext().getContentResolver().query(builder.build(), mProjection, null, null, null);
+        if (cursor == null) {
+            // The provider is gone, show what was loaded so far and stop there
+            return new Page(new MatrixCursor(mProjection), null, -1, false);
+        }
+        String[] lastKey = null;
+        long lastId = -1;
+        if (cursor.moveToLast()) {
+            // Remember where this page ends, so the next page can be loaded without touching
+            // this cursor again once it has been handed to the adapter
+            lastKey = new String[mKeyColumns.length];
+            for (int i = 0; i < mKeyColumns.length; i++) {
+                lastKey[i] = cursor.getString(cursor.getColumnIndexOrThrow(mKeyColumns[i]));
+            }
+            lastId = cursor.getLong(cursor.getColumnIndexOrThrow(RecordEntry._ID));
+        }
+        cursor.moveToPosition(-1);
+        cursor.registerContentObserver(mObserver);
+        return new Page(cursor, lastKey, lastId, cursor.getCount() == mPageSize);
+    }
+
+    @Override
+    public void onContentChanged() {
+        synchronized (this) {
+            mVersion++;
+        }
+        super.onContentChanged();
+    }
+
+    @Override
+    public void deliverResult(Cursor data) {
+        PagedCursor cursor = (PagedCursor) data;
+        if (isReset()) {
+            // An async query came in while the loader is reset
+            closePagesNotIn(cursor, null);
+            return;
+        }
+        PagedCursor oldCursor;
+        synchronized (this) {
+            oldCursor = mCursor;
+            mCursor = cursor;
+        }
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        // Close the pages that are not part of the new result, after the adapter has moved on
+        if (oldCursor != null && oldCursor != cursor) {
+            closePagesNotIn(oldCursor, cursor);
+        }
+    }
+
+    @Override
+    public void onCanceled(Cursor data) {
+        // Only close the pages the canceled load created, the others are still on screen
+        PagedCursor current;
+        synchronized (this) {
+            current = mCursor;
+        }
+        closePagesNotIn((PagedCursor) data, current);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible.
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        PagedCursor cursor;
+        synchronized (this) {
+            cursor = mCursor;
+            mCursor = null;
+            mPageCount = 1;
+        }
+        if (cursor != null) {
+            closePagesNotIn(cursor, null);
+        }
+    }
+
+    /**
+     * Close every page of the given cursor that isn't also a page of the cursor to keep.
+     */
+    private static void closePagesNotIn(PagedCursor cursor, PagedCursor keep) {
+        if (cursor == null) {
+            return;
+        }
+        for (Page page : cursor.mPages) {
+            if ((keep == null || !keep.mPages.contains(page)) && !page.mCursor.isClosed()) {
+                page.mCursor.close();
+            }
+        }
+    }
+
+    /**
+     * One page of records, with the sort key of its last row.
+     */
+    private static final class Page {
+        final Cursor mCursor;
+        /** Value of each sort key column in the last row */
+        final String[] mLastKey;
+        final long mLastId;
+        /** True if the page is full, which means there may be more records after it */
+        final boolean mFull;
+
+        Page(Cursor cursor, String[] lastKey, long lastId, boolean full) {
+            mCursor = cursor;
+            mLastKey = lastKey;
+            mLastId = lastId;
+            mFull = full;
+        }
+    }
+
+    /**
+     * Cursor that reads through all the loaded pages, one after the other.
+     */
+    private static final class PagedCursor extends MergeCursor {
+        final List<Page> mPages;
+        /** Value of the loader's version when the load started */
+        final int mVersion;
+        /** True if more pages may follow the last one */
+        final boolean mHasMore;
+
+        PagedCursor(List<Page> pages, int version, boolean hasMore) {
+            super(toCursors(pages));
+            mPages = pages;
+            mVersion = version;
+            mHasMore = hasMore;
+        }
+
+        private static Cursor[] toCursors(List<Page> pages) {
+            Cursor[] cursors = new Cursor[pages.size()];
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = pages.get(i).mCursor;
+            }
+            return cursors;
+        }
+    }
+}
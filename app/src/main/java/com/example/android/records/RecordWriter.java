@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs writes to the content provider on a background thread and reports their outcome on the
+ * main thread, so the UI never waits for the database. Writes run one at a time, in the order
+ * they were asked for, so a save followed by a delete can't run the other way round. A write
+ * doesn't depend on the activity that asked for it: the activity may finish straight away, the
+ * write still completes and its callback still runs.
+ */
+final class RecordWriter {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RecordWriter.class.getSimpleName();
+
+    /**
+     * Told on the main thread when a write is done.
+     *
+     * @param <T> type of the result of the write
+     */
+    interface Callback<T> {
+        /**
+         * @param result of the write, or null if the provider threw
+         * @param error  thrown by the provider, or null if the write went through
+         */
+        void onWriteDone(T result, RuntimeException error);
+    }
+
+    /**
+     * One write to the content provider.
+     */
+    private interface Write<T> {
+        T run();
+    }
+
+    private static RecordWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Return the writer shared by the whole app.
+     */
+    static synchronized RecordWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RecordWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private RecordWriter(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Insert a row, see {@link ContentResolver#insert(Uri, ContentValues)}.
+     */
+    void insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        submit(new Write<Uri>() {
+            @Override
+            public Uri run() {
+                return mContentResolver.insert(uri, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update rows, see {@link ContentResolver#update(Uri, ContentValues, String, String[])}.
+     */
+    void update(Uri uri, ContentValues values, Callback<Integer> callback) {
+        update(uri, values, null, null, callback);
+    }
+
+    /**
+     * Update the rows matching the selection, see
+     * {@link ContentResolver#update(Uri, ContentValues, String, String[])}.
+     */
+    void update(final Uri uri, final ContentValues values, final String selection,
+                final String[] selectionArgs, Callback<Integer> callback) {
+        submit(new Write<Integer>() {
+            @Override
+            public Integer run() {
+                return mContentResolver.update(uri, values, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete rows, see {@link ContentResolver#delete(Uri, String, String[])}.
+     */
+    void delete(final Uri uri, Callback<Integer> callback) {
+        submit(new Write<Integer>() {
+            @Override
+            public Integer run() {
+                return mContentResolver.delete(uri, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Call a provider method, see {@link ContentResolver#call(Uri, String, String, Bundle)}.
+     */
+    void call(final Uri uri, final String method, final String arg, final Bundle extras,
+              Callback<Bundle> callback) {
+        submit(new Write<Bundle>() {
+            @Override
+            public Bundle run() {
+                return mContentResolver.call(uri, method, arg, extras);
+            }
+        }, callback);
+    }
+
+    private <T> void submit(final Write<T> write, final Callback<T> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                RuntimeException error = null;
+                try {
+                    result = write.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Write failed", e);
+                    error = e;
+                }
+
+                final T finalResult = result;
+                final RuntimeException finalError = error;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onWriteDone(finalResult, finalError);
+                    }
+                });
+            }
+        });
+    }
+}
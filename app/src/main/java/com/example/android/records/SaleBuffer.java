@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Write-behind buffer for the sales made from the catalog. A tap only adds a copy to the units
+ * pending for the record, and the row shows the new stock right away. The sales tapped within a
+ * short window are then sent together, in a single batch sell call made off the main thread.
+ * When a sale is rejected, or the call fails, its units are dropped and the row shows the stock
+ * it had before. Everything but the provider call happens on the main thread.
+ */
+final class SaleBuffer {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SaleBuffer.class.getSimpleName();
+
+    /** Time during which taps are collected before they are sent */
+    static final long FLUSH_DELAY_MILLIS = 400;
+
+    /**
+     * Listener told when the stock shown for a record changes.
+     */
+    interface Listener {
+        /** The stock shown for the record changed, its row needs to be bound again */
+        void onStockChanged(long recordId);
+
+        /**
+         * Sales of the record were undone, because there wasn't enough stock left or because
+         * they couldn't be sent.
+         */
+        void onSaleFailed(long recordId, boolean soldOut);
+    }
+
+    /** Sends the sales, one batch at a time and in order, shared by all the buffers */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mContentResolver;
+
+    private final Listener mListener;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Copies sold and not sent yet, by record ID */
+    private final Map<Long, Integer> mPending = new HashMap<>();
+
+    /** Copies sent and not answered yet, by record ID */
+    private final Map<Long, Integer> mInFlight = new HashMap<>();
+
+    /**
+     * Stock returned by the provider for the sales it made, by record ID, until the records are
+     * read again from the database
+     */
+    private final Map<Long, Integer> mConfirmed = new HashMap<>();
+
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    SaleBuffer(ContentResolver contentResolver, Listener listener) {
+        mContentResolver = contentResolver;
+        mListener = listener;
+    }
+
+    /**
+     * Return the stock to show for a record, given the quantity read from the database.
+     */
+    int getQuantity(long recordId, int quantity) {
+        Integer confirmed = mConfirmed.get(recordId);
+        int stock = confirmed == null ? quantity : confirmed;
+        return stock - get(mInFlight, recordId) - get(mPending, recordId);
+    }
+
+    /**
+     * Sell one copy of a record, given the quantity read from the database. Return false,
+     * without selling anything, if the stock shown is already 0.
+     */
+    boolean sell(long recordId, int quantity) {
+        if (getQuantity(recordId, quantity) <= 0) {
+            return false;
+        }
+        mPending.put(recordId, get(mPending, recordId) + 1);
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mMainHandler.postDelayed(mFlush, FLUSH_DELAY_MILLIS);
+        }
+        return true;
+    }
+
+    /**
+     * The records were read again from the database, so their quantities include the sales the
+     * provider confirmed.
+     */
+    void onRecordsReloaded() {
+        mConfirmed.clear();
+    }
+
+    /**
+     * Send the pending sales now, without waiting for the window to close.
+     */
+    void flush() {
+        mMainHandler.removeCallbacks(mFlush);
+        mFlushScheduled = false;
+        if (mPending.isEmpty()) {
+            return;
+        }
+
+        final long[] ids = new long[mPending.size()];
+        final int[] amounts = new int[mPending.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : mPending.entrySet()) {
+            ids[i] = entry.getKey();
+            amounts[i] = entry.getValue();
+            mInFlight.put(ids[i], get(mInFlight, ids[i]) + amounts[i]);
+            i++;
+        }
+        mPending.clear();
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle extras = new Bundle();
+                extras.putLongArray(RecordContract.EXTRA_RECORD_IDS, ids);
+                extras.putIntArray(RecordContract.EXTRA_AMOUNTS, amounts);
+                Bundle result = null;
+                try {
+                    result = mContentResolver.call(RecordEntry.CONTENT_URI,
+                            RecordContract.METHOD_SELL_BATCH, null, extras);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to send " + ids.length + " sales", e);
+                }
+
+                final Bundle finalResult = result;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFlushed(ids, amounts, finalResult);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Take the answer of the provider to a batch of sales, or null if the call failed.
+     */
+    private void onFlushed(long[] ids, int[] amounts, Bundle result) {
+        int[] quantities = result == null ? null : result.getIntArray(RecordContract.EXTRA_QUANTITY);
+        boolean[] updated = result == null ? null : result.getBooleanArray(RecordContract.EXTRA_UPDATED);
+
+        for (int i = 0; i < ids.length; i++) {
+            long id = ids[i];
+            int inFlight = get(mInFlight, id) - amounts[i];
+            if (inFlight > 0) {
+                mInFlight.put(id, inFlight);
+            } else {
+                mInFlight.remove(id);
+            }
+
+            if (quantities == null || updated == null) {
+                // Nothing was sold, the row goes back to the stock it had before
+                mListener.onSaleFailed(id, false);
+            } else {
+                if (quantities[i] >= 0) {
+                    mConfirmed.put(id, quantities[i]);
+                }
+                if (!updated[i]) {
+                    mListener.onSaleFailed(id, true);
+                }
+            }
+            mListener.onStockChanged(id);
+        }
+    }
+
+    private static int get(Map<Long, Integer> units, long recordId) {
+        Integer count = units.get(recordId);
+        return count == null ? 0 : count;
+    }
+}
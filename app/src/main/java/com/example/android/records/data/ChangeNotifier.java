@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the change notifications of {@link RecordProvider}, coalescing them so that a burst of
+ * writes reloads the observers once. Notifications requested within the debounce window are
+ * merged and sent together when the window closes. Notifications requested while a batch is
+ * running on the same thread are held back and sent when the batch commits, or dropped if it
+ * rolls back. Notifications are sent for the individual records that changed where possible,
+ * and only fall back to the whole collection when it changed or too many records did.
+ */
+final class ChangeNotifier {
+
+    /** Default length of the window in which notifications are merged */
+    static final long DEFAULT_DEBOUNCE_MILLIS = 50;
+
+    /** Above this many changed records, notify the collection instead of each record */
+    private static final int MAX_ITEM_NOTIFICATIONS = 20;
+
+    private final ContentResolver mContentResolver;
+
+    /** URI of the whole collection, which also notifies the observers of every record */
+    private final Uri mCollectionUri;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ChangeNotifier");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** Batch running on the current thread, if any */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /** URIs waiting for the debounce window to close. Guarded by this notifier's lock. */
+    private final Set<Uri> mPending = new LinkedHashSet<>();
+
+    /** True while a flush of the pending URIs is scheduled. Guarded by this notifier's lock. */
+    private boolean mFlushScheduled;
+
+    private volatile long mDebounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+
+    /** Number of notifications asked for */
+    private final AtomicLong mRequestedCount = new AtomicLong();
+
+    /** Number of notifications actually sent to the content resolver */
+    private final AtomicLong mSentCount = new AtomicLong();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            Set<Uri> uris;
+            synchronized (ChangeNotifier.this) {
+                uris = new LinkedHashSet<>(mPending);
+                mPending.clear();
+                mFlushScheduled = false;
+            }
+            send(uris);
+        }
+    };
+
+    ChangeNotifier(ContentResolver contentResolver, Uri collectionUri) {
+        mContentResolver = contentResolver;
+        mCollectionUri = collectionUri;
+    }
+
+    /**
+     * Set the length of the window in which notifications are merged. With 0 or less every
+     * notification outside a batch is sent right away.
+     */
+    void setDebounceMillis(long debounceMillis) {
+        mDebounceMillis = debounceMillis;
+    }
+
+    long getDebounceMillis() {
+        return mDebounceMillis;
+    }
+
+    /** Number of notifications actually sent to the content resolver */
+    long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /** Number of notifications asked for that were merged into others or dropped */
+    long getSuppressedCount() {
+        return mRequestedCount.get() - mSentCount.get();
+    }
+
+    /**
+     * Notify the observers of the given URI that its data changed, once the current batch
+     * commits or the debounce window closes.
+     */
+    void notifyChange(Uri uri) {
+        mRequestedCount.incrementAndGet();
+
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mUris.add(uri);
+            return;
+        }
+
+        long debounceMillis = mDebounceMillis;
+        if (debounceMillis <= 0) {
+            send(Collections.singleton(uri));
+            return;
+        }
+
+        synchronized (this) {
+            mPending.add(uri);
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        mExecutor.schedule(mFlush, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start holding back the notifications of the current thread. Batches may nest, the
+     * notifications are released when the outermost batch ends.
+     */
+    void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.mDepth++;
+    }
+
+    /**
+     * End a batch started with {@link #beginBatch()}. When the outermost batch ends its
+     * notifications are sent straight away if it committed, or dropped if it didn't.
+     *
+     * @param committed true if the changes made during the batch were committed
+     */
+    void endBatch(boolean committed) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No batch is running");
+        }
+        if (!committed) {
+            batch.mCommitted = false;
+        }
+        if (--batch.mDepth > 0) {
+            return;
+        }
+        mBatch.remove();
+        if (batch.mCommitted) {
+            send(batch.mUris);
+        }
+    }
+
+    /**
+     * Send one notification per URI, or a single one for the collection if it's among them or
+     * there are too many.
+     */
+    private void send(Set<Uri> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+        if (uris.size() > MAX_ITEM_NOTIFICATIONS || uris.contains(mCollectionUri)) {
+            uris = Collections.singleton(mCollectionUri);
+        }
+        for (Uri uri : uris) {
+            mContentResolver.notifyChange(uri, null);
+            mSentCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Notifications held back by the batch running on a thread.
+     */
+    private static final class Batch {
+        final Set<Uri> mUris = new LinkedHashSet<>();
+        int mDepth;
+        boolean mCommitted = true;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values. Values below 4 get a bucket each, larger values
+ * share buckets four to a power of two, so a percentile is off by at most a quarter of its
+ * value. Recording is a few atomic increments and never allocates; reads see a consistent
+ * enough picture without stopping the writers.
+ */
+final class Histogram {
+
+    /** Number of buckets per power of two, as a number of bits */
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Enough buckets for any positive long */
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    private final AtomicLong mSum = new AtomicLong();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Record a value. Negative values count as 0.
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(bucketOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getSum() {
+        return mSum.get();
+    }
+
+    long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Return the value below which the given fraction of the values fall, as the upper bound of
+     * the bucket it's in, or 0 if nothing was recorded.
+     *
+     * @param fraction between 0 and 1, for instance 0.99 for the 99th percentile
+     */
+    long getPercentile(double fraction) {
+        long count = 0;
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /** Clear every value recorded so far. */
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Position of the highest bit, then the bits right after it pick the sub bucket
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -1,8 +1,13 @@
 package com.example.android.records.data;
 
 import android.app.Application;
+import android.content.Context;
 
+import com.example.android.records.CoverLoader;
+import com.example.android.records.CoverStore;
+import com.facebook.stetho.DumperPluginsProvider;
 import com.facebook.stetho.Stetho;
+import com.facebook.stetho.dumpapp.DumperPlugin;
 
 /**
  * Created by Gregorio on 19/07/2017.
@@ -11,6 +16,27 @@ import com.facebook.stetho.Stetho;
 public class MyApplication extends Application {
     public void onCreate() {
         super.onCreate();
-        Stetho.initializeWithDefaults(this);
+        final Context context = this;
+        Stetho.initialize(Stetho.newInitializerBuilder(context)
+                .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(context))
+                .enableDumpapp(new DumperPluginsProvider() {
+                    @Override
+                    public Iterable<DumperPlugin> get() {
+                        // The default plugins, plus the provider's metrics
+                        return new Stetho.DefaultDumperPluginsBuilder(context)
+                                .provide(new RecordsDumperPlugin(context))
+                                .finish();
+                    }
+                })
+                .build());
+
+        // Copy the covers still read from other apps into the app's own files
+        CoverStore.getInstance(this).migrate();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        CoverLoader.getInstance(this).trimMemory(level);
     }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency and row count histograms of the operations of {@link RecordProvider}, one set per
+ * operation and URI matcher code, or per method for calls. Recording an operation takes no lock
+ * and doesn't allocate once its histograms exist, so it can stay on in production.
+ */
+final class ProviderMetrics {
+
+    /** Row count of an operation that threw, or returned nothing */
+    static final long FAILED = -1;
+
+    /** Row count of an operation that doesn't touch rows, such as a call or opening a file */
+    static final long NOT_COUNTED = -2;
+
+    /** URI matcher codes must be below this, larger ones and NO_MATCH share the last slot */
+    private static final int MAX_MATCH = 1024;
+
+    /**
+     * Operations of the provider.
+     */
+    enum Operation {
+        QUERY, INSERT, BULK_INSERT, UPDATE, DELETE, APPLY_BATCH, OPEN_FILE, CALL;
+
+        /** Name shown in the metrics */
+        String getLabel() {
+            return name().toLowerCase(Locale.US);
+        }
+    }
+
+    /**
+     * Metrics of one operation on one target.
+     */
+    static final class OperationMetrics {
+        final Operation mOperation;
+        /** URI path pattern, or method name for calls */
+        final String mTarget;
+        final Histogram mLatencyMicros = new Histogram();
+        /** Rows returned, inserted, updated or deleted, for the operations that count rows */
+        final Histogram mRows = new Histogram();
+        final AtomicLong mErrors = new AtomicLong();
+
+        OperationMetrics(Operation operation, String target) {
+            mOperation = operation;
+            mTarget = target;
+        }
+    }
+
+    /**
+     * Names the URI matcher codes in the metrics.
+     */
+    interface TargetNames {
+        /** Return the URI path pattern of the given matcher code */
+        String getPath(int match);
+    }
+
+    private final TargetNames mTargetNames;
+
+    /** Metrics of the URI operations, by operation and matcher code, created when first used */
+    private final AtomicReferenceArray<OperationMetrics> mUriMetrics =
+            new AtomicReferenceArray<>(Operation.values().length * MAX_MATCH);
+
+    /** Metrics of the calls, by method name */
+    private final ConcurrentHashMap<String, OperationMetrics> mCallMetrics = new ConcurrentHashMap<>();
+
+    ProviderMetrics(TargetNames targetNames) {
+        mTargetNames = targetNames;
+    }
+
+    /**
+     * Record an operation on a URI.
+     *
+     * @param operation  what was done
+     * @param match      URI matcher code of the URI
+     * @param startNanos {@link System#nanoTime()} when the operation started
+     * @param rows       rows touched or returned, {@link #FAILED} or {@link #NOT_COUNTED}
+     */
+    void record(Operation operation, int match, long startNanos, long rows) {
+        record(getUriMetrics(operation, match), startNanos, rows);
+    }
+
+    /**
+     * Record a call of a provider method.
+     *
+     * @param method     name of the method
+     * @param startNanos {@link System#nanoTime()} when the call started
+     * @param failed     true if the call threw
+     */
+    void recordCall(String method, long startNanos, boolean failed) {
+        OperationMetrics metrics = mCallMetrics.get(method);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics(Operation.CALL, method);
+            metrics = mCallMetrics.putIfAbsent(method, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        record(metrics, startNanos, failed ? FAILED : NOT_COUNTED);
+    }
+
+    private static void record(OperationMetrics metrics, long startNanos, long rows) {
+        metrics.mLatencyMicros.record((System.nanoTime() - startNanos) / 1000);
+        if (rows == FAILED) {
+            metrics.mErrors.incrementAndGet();
+        } else if (rows >= 0) {
+            metrics.mRows.record(rows);
+        }
+    }
+
+    private OperationMetrics getUriMetrics(Operation operation, int match) {
+        int slot = match >= 0 && match < MAX_MATCH ? match : MAX_MATCH - 1;
+        int index = operation.ordinal() * MAX_MATCH + slot;
+        OperationMetrics metrics = mUriMetrics.get(index);
+        if (metrics == null) {
+            String target = slot == match ? mTargetNames.getPath(match) : "unknown";
+            mUriMetrics.compareAndSet(index, null, new OperationMetrics(operation, target));
+            metrics = mUriMetrics.get(index);
+        }
+        return metrics;
+    }
+
+    /**
+     * Return the metrics of every operation that ran at least once.
+     */
+    List<OperationMetrics> getAll() {
+        List<OperationMetrics> all = new ArrayList<>();
+        for (int i = 0; i < mUriMetrics.length(); i++) {
+            OperationMetrics metrics = mUriMetrics.get(i);
+            if (metrics != null) {
+                all.add(metrics);
+            }
+        }
+        all.addAll(mCallMetrics.values());
+        return all;
+    }
+
+    /** Clear every metric recorded so far. */
+    void reset() {
+        for (OperationMetrics metrics : getAll()) {
+            metrics.mLatencyMicros.reset();
+            metrics.mRows.reset();
+            metrics.mErrors.set(0);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the queries of {@link RecordProvider} and keeps the slow ones, with the plan SQLite chose
+ * for them, in a bounded log. Callers can pass any selection and sort order, and a bad one
+ * quietly turns a lookup into a scan of the whole table; the log shows which query it was and
+ * why it was slow. Only a clock read is added to fast queries. The query plan is only asked for
+ * once a query turned out to be slow.
+ */
+final class QueryProfiler {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = QueryProfiler.class.getSimpleName();
+
+    /** Queries taking at least this long are logged, unless another threshold is set */
+    static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    /** Alias of the records table in {@link RecordEntry#VIEW_NAME} */
+    private static final String RECORDS_ALIAS = "r";
+
+    /** Number of slow queries kept, the oldest ones are dropped first */
+    private static final int CAPACITY = 32;
+
+    /**
+     * A query that took longer than the threshold.
+     */
+    static final class SlowQuery {
+        /** When the query ran, in milliseconds since the epoch */
+        final long mTimeMillis;
+        final long mDurationMicros;
+        final String mSql;
+        /** Type and length of each argument, never its value */
+        final String mArgumentShapes;
+        /** Output of EXPLAIN QUERY PLAN, one step per line */
+        final String mPlan;
+        /** True if the plan reads the whole records table without an index */
+        final boolean mFullScan;
+
+        SlowQuery(long timeMillis, long durationMicros, String sql, String argumentShapes, String plan,
+                  boolean fullScan) {
+            mTimeMillis = timeMillis;
+            mDurationMicros = durationMicros;
+            mSql = sql;
+            mArgumentShapes = argumentShapes;
+            mPlan = plan;
+            mFullScan = fullScan;
+        }
+    }
+
+    /** Slow queries, oldest first. Guarded by this profiler's lock. */
+    private final ArrayDeque<SlowQuery> mSlowQueries = new ArrayDeque<>(CAPACITY);
+
+    private volatile long mThresholdNanos = DEFAULT_THRESHOLD_MILLIS * 1000000;
+
+    private volatile boolean mWarnOnFullScan = true;
+
+    /**
+     * Set how long a query has to take to be logged, and whether to log a warning when a slow
+     * query reads the whole records table.
+     */
+    void configure(long thresholdMillis, boolean warnOnFullScan) {
+        mThresholdNanos = thresholdMillis * 1000000;
+        mWarnOnFullScan = warnOnFullScan;
+    }
+
+    /**
+     * Query a table or view, see {@link SQLiteDatabase#query(String, String[], String,
+     * String[], String, String, String)}.
+     */
+    Cursor query(SQLiteDatabase database, String table, String[] columns, String selection,
+                 String[] selectionArgs, String groupBy, String having, String orderBy) {
+        return query(database, table, columns, selection, selectionArgs, groupBy, having, orderBy, null);
+    }
+
+    /**
+     * Query a table or view, see {@link SQLiteDatabase#query(String, String[], String,
+     * String[], String, String, String, String)}.
+     */
+    Cursor query(SQLiteDatabase database, String table, String[] columns, String selection,
+                 String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
+        return rawQuery(database, SQLiteQueryBuilder.buildQueryString(false, table, columns, selection,
+                groupBy, having, orderBy, limit), selectionArgs);
+    }
+
+    /**
+     * Run a query, see {@link SQLiteDatabase#rawQuery(String, String[])}. The query is run here,
+     * rather than when the cursor is first read, so that it can be timed.
+     */
+    Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, selectionArgs);
+        try {
+            // Filling the first window runs the query
+            cursor.getCount();
+            long durationNanos = System.nanoTime() - startNanos;
+            if (durationNanos >= mThresholdNanos) {
+                logSlowQuery(database, sql, selectionArgs, durationNanos);
+            }
+        } catch (RuntimeException e) {
+            // The caller never gets the cursor, so close it here
+            cursor.close();
+            throw e;
+        }
+        return cursor;
+    }
+
+    private void logSlowQuery(SQLiteDatabase database, String sql, String[] selectionArgs,
+                              long durationNanos) {
+        String plan;
+        try {
+            plan = explain(database, sql, selectionArgs);
+        } catch (SQLiteException e) {
+            plan = "Failed to explain: " + e.getMessage();
+        }
+        boolean fullScan = isFullScan(plan);
+        SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), durationNanos / 1000, sql,
+                describeArguments(selectionArgs), plan, fullScan);
+        synchronized (this) {
+            if (mSlowQueries.size() == CAPACITY) {
+                mSlowQueries.removeFirst();
+            }
+            mSlowQueries.addLast(slowQuery);
+        }
+        if (fullScan && mWarnOnFullScan) {
+            Log.w(LOG_TAG, "Query scans the whole " + RecordEntry.TABLE_NAME + " table in "
+                    + slowQuery.mDurationMicros + " us: " + sql + "\n" + plan);
+        }
+    }
+
+    /**
+     * Return the slow queries logged so far, oldest first.
+     */
+    synchronized List<SlowQuery> getSlowQueries() {
+        return new ArrayList<>(mSlowQueries);
+    }
+
+    /** Forget the slow queries logged so far. */
+    synchronized void clear() {
+        mSlowQueries.clear();
+    }
+
+    private static String explain(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailColumnIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Return true if a step of the plan reads the records table row by row, without an index.
+     * Scanning an index of the table, for instance to read it in order, doesn't count. Older
+     * versions of SQLite write such a step "SCAN TABLE records AS r", newer ones only name the
+     * alias, "SCAN r" for the records read through the view.
+     */
+    private static boolean isFullScan(String plan) {
+        for (String step : plan.split("\n")) {
+            if (!step.contains(" USING ")
+                    && (step.equals("SCAN TABLE " + RecordEntry.TABLE_NAME)
+                    || step.startsWith("SCAN TABLE " + RecordEntry.TABLE_NAME + " AS ")
+                    || step.equals("SCAN " + RecordEntry.TABLE_NAME)
+                    || step.equals("SCAN " + RECORDS_ALIAS))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describe the arguments of a query without their values, which may be personal: numbers
+     * show as "integer", other values as "text" and their length.
+     */
+    private static String describeArguments(String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return "";
+        }
+        StringBuilder shapes = new StringBuilder();
+        for (String arg : selectionArgs) {
+            if (shapes.length() > 0) {
+                shapes.append(", ");
+            }
+            if (arg == null) {
+                shapes.append("null");
+            } else if (arg.matches("-?\\d{1,18}")) {
+                shapes.append("integer");
+            } else {
+                shapes.append("text(").append(arg.length()).append(')');
+            }
+        }
+        return shapes.toString();
+    }
+}
@@ -44,6 +44,142 @@ public final class RecordContract {
      */
     public static final String PATH_RECORDS = "records";
 
+    /**
+     * Path (appended to the records path) for full-text searches over the records, for instance
+     * content://com.example.android.records/records/search?q=final
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path (appended to the records path) for a dump of the whole catalog, read as a file with
+     * {@link ContentResolver#openInputStream(Uri)}, for instance
+     * content://com.example.android.records/records/export?format=json
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path (appended to the records path) for the inventory totals, for instance
+     * content://com.example.android.records/records/summary?groupBy=band
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path (appended to the records path) for the sales history, for instance
+     * content://com.example.android.records/records/sales?from=1476748800000
+     */
+    public static final String PATH_SALES = "sales";
+
+    /**
+     * Path (appended to the records path) for the records running out of stock, for instance
+     * content://com.example.android.records/records/low_stock?threshold=3
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Path (appended to the records path) for the records to reorder from each supplier, for
+     * instance content://com.example.android.records/records/reorders
+     */
+    public static final String PATH_REORDERS = "reorders";
+
+    /**
+     * Path (appended to the records path) for the provider's own metrics, for instance
+     * content://com.example.android.records/records/_metrics
+     */
+    public static final String PATH_METRICS = "_metrics";
+
+    /**
+     * Path (appended to the records path) for the provider's log of slow queries, for instance
+     * content://com.example.android.records/records/_slow_queries
+     */
+    public static final String PATH_SLOW_QUERIES = "_slow_queries";
+
+    /**
+     * Possible path (appended to base content URI) for the suppliers, for instance
+     * content://com.example.android.records/suppliers for all of them, or
+     * content://com.example.android.records/suppliers/2/records for the records of one supplier.
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Name of the provider method that sells copies of a record, for use with
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)}. The argument is the
+     * ID of the record, the optional {@link #EXTRA_AMOUNT} extra is the number of copies sold.
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /**
+     * Name of the provider method that puts copies of a record back in stock. It takes the same
+     * argument and extras as {@link #METHOD_SELL}.
+     */
+    public static final String METHOD_RESTOCK = "restock";
+
+    /**
+     * Name of the provider method that sells copies of several records in a single transaction.
+     * It takes no argument. The {@link #EXTRA_RECORD_IDS} and {@link #EXTRA_AMOUNTS} extras hold
+     * the records and the number of copies sold of each. Each sale is accepted or rejected on
+     * its own, the {@link #EXTRA_QUANTITY} and {@link #EXTRA_UPDATED} extras of the result hold
+     * arrays with the outcome of each, in the same order. A record that doesn't exist counts as
+     * a rejected sale with a quantity of -1.
+     */
+    public static final String METHOD_SELL_BATCH = "sellBatch";
+
+    /** IDs of the records sold by a batch sell call, as a long array. */
+    public static final String EXTRA_RECORD_IDS = "recordIds";
+
+    /** Number of copies sold of each record by a batch sell call, as an int array. */
+    public static final String EXTRA_AMOUNTS = "amounts";
+
+    /** Number of copies to sell or restock, at least 1. Defaults to 1 when it's not provided. */
+    public static final String EXTRA_AMOUNT = "amount";
+
+    /** Quantity in stock after a sell or restock call. */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Whether a sell or restock call changed the stock. A sale is rejected, leaving the stock
+     * untouched, when there aren't enough copies left.
+     */
+    public static final String EXTRA_UPDATED = "updated";
+
+    /**
+     * Name of the provider method that sets how long, in milliseconds, change notifications are
+     * held back so that bursts of changes are merged. The argument is the delay, 0 sends every
+     * notification right away.
+     */
+    public static final String METHOD_SET_NOTIFICATION_DELAY = "setNotificationDelay";
+
+    /**
+     * Name of the provider method that returns the notification delay and counters, in the
+     * {@link #EXTRA_NOTIFICATION_DELAY}, {@link #EXTRA_NOTIFICATIONS_SENT} and
+     * {@link #EXTRA_NOTIFICATIONS_SUPPRESSED} extras.
+     */
+    public static final String METHOD_GET_NOTIFICATION_STATS = "notificationStats";
+
+    /** Delay, in milliseconds, during which change notifications are merged. */
+    public static final String EXTRA_NOTIFICATION_DELAY = "notificationDelay";
+
+    /** Number of change notifications the provider sent. */
+    public static final String EXTRA_NOTIFICATIONS_SENT = "notificationsSent";
+
+    /** Number of change notifications merged into others, or dropped with a rolled back batch. */
+    public static final String EXTRA_NOTIFICATIONS_SUPPRESSED = "notificationsSuppressed";
+
+    /** Name of the provider method that clears the metrics read from {@link MetricsEntry}. */
+    public static final String METHOD_RESET_METRICS = "resetMetrics";
+
+    /**
+     * Name of the provider method that sets how long, in milliseconds, a query has to take to be
+     * added to {@link SlowQueryEntry}. The argument is the threshold, the optional
+     * {@link #EXTRA_WARN_ON_FULL_SCAN} extra turns the warnings about full scans on or off.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "setSlowQueryThreshold";
+
+    /** True to log a warning when a slow query reads the whole records table, the default. */
+    public static final String EXTRA_WARN_ON_FULL_SCAN = "warnOnFullScan";
+
+    /** Name of the provider method that clears the log read from {@link SlowQueryEntry}. */
+    public static final String METHOD_CLEAR_SLOW_QUERIES = "clearSlowQueries";
+
     // To prevent someone from accidentally instantiating the contract class,
     // give it an empty constructor.
     private RecordContract() {
@@ -58,6 +194,129 @@ public final class RecordContract {
         /** The content URI to access the record data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_RECORDS);
 
+        /**
+         * The content URI to search the records by album, band or supplier name. The search
+         * terms go in the {@link #QUERY_PARAMETER_SEARCH} query parameter, each term matches
+         * any word that starts with it. It pages like {@link #CONTENT_URI}, with
+         * {@link #QUERY_PARAMETER_LIMIT} and the sort key of
+         * {@link #getSearchPageKeyColumns()}, but only in the order of
+         * {@link #COLUMN_SEARCH_RANK}.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /** Query parameter of {@link #CONTENT_SEARCH_URI} holding the search terms. */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} that asks for one page of records, holding the
+         * maximum number of rows to return. A paged query is always sorted as given by
+         * {@link #QUERY_PARAMETER_SORT}, by album name unless it says otherwise, then by ID, so
+         * the last row of a page tells where the next page starts.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter of a paged query holding the sort key of the last row of the previous
+         * page: the value of each of the {@link #getPageKeyColumns(String)} of the sort, in the
+         * same order, one parameter per column. It must be used together with
+         * {@link #QUERY_PARAMETER_AFTER_ID}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "afterKey";
+
+        /** Query parameter of a paged query holding the ID of the last row of the previous page. */
+        public static final String QUERY_PARAMETER_AFTER_ID = "afterId";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding how to sort the records: one of
+         * {@link #SORT_ALBUM}, {@link #SORT_BAND}, {@link #SORT_PRICE} or {@link #SORT_QUANTITY}.
+         * Every sort walks an index, ties are broken by ID. It can't be combined with a sort
+         * order.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /** Sort by album name, ignoring case. */
+        public static final String SORT_ALBUM = "album";
+
+        /** Sort by band name, then by album name, ignoring case. */
+        public static final String SORT_BAND = "band";
+
+        /** Sort by price. */
+        public static final String SORT_PRICE = "price";
+
+        /** Sort by {@link #COLUMN_STOCKED_QUANTITY}. */
+        public static final String SORT_QUANTITY = "quantity";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding the direction of the sort,
+         * {@link #DIRECTION_ASCENDING} by default or {@link #DIRECTION_DESCENDING}.
+         */
+        public static final String QUERY_PARAMETER_DIRECTION = "direction";
+
+        /** Sort from the smallest value to the largest. */
+        public static final String DIRECTION_ASCENDING = "asc";
+
+        /** Sort from the largest value to the smallest. */
+        public static final String DIRECTION_DESCENDING = "desc";
+
+        /** Query parameter of {@link #CONTENT_URI} holding the lowest price to return. */
+        public static final String QUERY_PARAMETER_MIN_PRICE = "minPrice";
+
+        /** Query parameter of {@link #CONTENT_URI} holding the highest price to return. */
+        public static final String QUERY_PARAMETER_MAX_PRICE = "maxPrice";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding the lowest {@link #COLUMN_QUANTITY} to
+         * return, sales included.
+         */
+        public static final String QUERY_PARAMETER_MIN_QUANTITY = "minQty";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding the highest {@link #COLUMN_QUANTITY} to
+         * return, sales included.
+         */
+        public static final String QUERY_PARAMETER_MAX_QUANTITY = "maxQty";
+
+        /** Query parameter of {@link #CONTENT_URI} holding the ID of the supplier to return. */
+        public static final String QUERY_PARAMETER_SUPPLIER = "supplier";
+
+        /**
+         * The content URI to export every record as a file. The format is given in the
+         * {@link #QUERY_PARAMETER_FORMAT} query parameter, CSV by default. The columns have the
+         * same names as in the records table, so an export can be imported again.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The content URI to read the records whose stock, sales included, is at most the
+         * threshold given in the {@link #QUERY_PARAMETER_THRESHOLD} query parameter, lowest stock
+         * first. Only the records running low are read, so this stays cheap as the catalog grows.
+         */
+        public static final Uri CONTENT_LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
+        /**
+         * Query parameter of {@link #CONTENT_LOW_STOCK_URI} holding the highest stock to return,
+         * {@link #DEFAULT_LOW_STOCK_THRESHOLD} by default.
+         */
+        public static final String QUERY_PARAMETER_THRESHOLD = "threshold";
+
+        /** Stock at or below which a record is running low. */
+        public static final int DEFAULT_LOW_STOCK_THRESHOLD = 5;
+
+        /** Query parameter of {@link #CONTENT_EXPORT_URI} holding the format of the file. */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+
+        /** Export format with a header line followed by one line of comma separated values per record */
+        public static final String FORMAT_CSV = "csv";
+
+        /** Export format with a JSON array holding one object per record */
+        public static final String FORMAT_JSON = "json";
+
+        /** The MIME type of a CSV export */
+        public static final String CONTENT_CSV_TYPE = "text/csv";
+
+        /** The MIME type of a JSON export */
+        public static final String CONTENT_JSON_TYPE = "application/json";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of records.
          */
@@ -73,6 +332,12 @@ public final class RecordContract {
         /** Name of database table for records */
         public final static String TABLE_NAME = "records";
 
+        /**
+         * Name of the database view showing each record with the name and email of its
+         * supplier. Records are read through it and written to {@link #TABLE_NAME}.
+         */
+        public final static String VIEW_NAME = "record_details";
+
         /**
          * Unique ID number for the record (only for use in the database table).
          *
@@ -95,12 +360,23 @@ public final class RecordContract {
         public final static String COLUMN_BAND_NAME = "band_name";
 
         /**
-         * Quantity of records.
+         * Quantity of records. Read through the provider, this is the current stock: the
+         * quantity stored on the record minus the sales not folded into it yet.
          *
          * Type: INTEGER
          */
         public final static String COLUMN_QUANTITY = "quantity";
 
+        /**
+         * Quantity stored on the record, without the sales not folded into it yet, so it lags
+         * {@link #COLUMN_QUANTITY} after a sale until the sales are folded in, a few seconds
+         * later, when {@link #CONTENT_URI} is notified. Unlike the current stock it's indexed,
+         * so it's what sorting by quantity uses. Read only.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCKED_QUANTITY = "stocked_quantity";
+
         /**
          * Price of the Record.
          *
@@ -116,20 +392,469 @@ public final class RecordContract {
         public final static String COLUMN_RECORD_COVER = "cover";
 
         /**
-         * Supplier email.
+         * ID of the supplier of the record, in the suppliers table.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Supplier name, read from the suppliers table. A record written with a supplier name
+         * and email is linked to that supplier, which is created if it doesn't exist yet.
          * <p>
          * Type: TEXT
          */
         public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
 
         /**
-         * Supplier email.
+         * Supplier email, read from the suppliers table.
          * <p>
          * Type: TEXT
          */
         public final static String COLUMN_SUPPLIER_EMAIL = "supplier_email";
 
+        /**
+         * How well a search result matches, only in the results of {@link #CONTENT_SEARCH_URI}:
+         * 0 if the album holds every term, 1 if the band does, 2 if the supplier does, and 3 if
+         * the terms are spread over several of them. The results are sorted by rank, then album.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEARCH_RANK = "search_rank";
+
+        /**
+         * Return the columns whose values, in the last row of a page of search results, go in
+         * the {@link #QUERY_PARAMETER_AFTER_KEY} parameters of the query for the next page.
+         */
+        public static String[] getSearchPageKeyColumns() {
+            return new String[] { COLUMN_SEARCH_RANK, COLUMN_ALBUM_NAME };
+        }
+
+        /**
+         * Return the columns whose values, in the last row of a page sorted the given way, go in
+         * the {@link #QUERY_PARAMETER_AFTER_KEY} parameters of the query for the next page.
+         *
+         * @param sort value of {@link #QUERY_PARAMETER_SORT}, or null for the default sort
+         */
+        public static String[] getPageKeyColumns(String sort) {
+            if (sort == null || SORT_ALBUM.equals(sort)) {
+                return new String[] { COLUMN_ALBUM_NAME };
+            }
+            switch (sort) {
+                case SORT_BAND:
+                    return new String[] { COLUMN_BAND_NAME, COLUMN_ALBUM_NAME };
+                case SORT_PRICE:
+                    return new String[] { COLUMN_PRICE };
+                case SORT_QUANTITY:
+                    return new String[] { COLUMN_STOCKED_QUANTITY };
+                default:
+                    throw new IllegalArgumentException("Cannot sort records by " + sort);
+            }
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory totals. The totals are kept
+     * up to date by the database as records change, so reading them doesn't scan the records.
+     * Sales only count towards the totals once they are folded into the stock of their record,
+     * which happens in the background a few seconds after they are made.
+     */
+    public static final class SummaryEntry implements BaseColumns {
+
+        /**
+         * The content URI to read the inventory totals. Without a query parameter it returns a
+         * single row for the whole catalog, with {@link #QUERY_PARAMETER_GROUP_BY} one row per
+         * band or per supplier.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(RecordEntry.CONTENT_URI, PATH_SUMMARY);
+
+        /** Query parameter of {@link #CONTENT_URI} holding how to group the totals. */
+        public static final String QUERY_PARAMETER_GROUP_BY = "groupBy";
+
+        /** Group the totals by band name */
+        public static final String GROUP_BY_BAND = "band";
+
+        /** Group the totals by supplier name */
+        public static final String GROUP_BY_SUPPLIER = "supplier";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the totals.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /** Name of the table holding the totals of the whole catalog, in a single row */
+        public final static String TABLE_TOTALS = "inventory_totals";
+
+        /** Name of the table holding the totals of each band */
+        public final static String TABLE_BAND_TOTALS = "band_totals";
+
+        /** Name of the table holding the totals of each supplier, by supplier ID */
+        public final static String TABLE_SUPPLIER_TOTALS = "supplier_totals";
+
+        /** Name of the view showing the totals of each supplier with the supplier name */
+        public final static String VIEW_SUPPLIER_TOTALS = "supplier_summary";
+
+        /**
+         * Band or supplier name the totals are for. Only in grouped totals.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GROUP_NAME = "group_name";
+
+        /**
+         * Number of records.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TITLE_COUNT = "title_count";
+
+        /**
+         * Number of copies in stock, over all the records.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNIT_COUNT = "unit_count";
+
+        /**
+         * Value of the stock, the sum of quantity times price over all the records.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_VALUE = "stock_value";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales ledger. Every sale appends a row,
+     * and rows only go when their record is deleted, so the ledger is also the sales history.
+     * The stock of a record is the quantity stored on it minus its sales that aren't applied
+     * yet. Applying a sale folds it into that quantity.
+     */
+    public static final class SalesEntry implements BaseColumns {
+
+        /**
+         * The content URI to read the sales history, oldest sale first unless a sort order is
+         * given. The optional {@link #QUERY_PARAMETER_FROM} and {@link #QUERY_PARAMETER_TO}
+         * query parameters restrict it to a time range.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(RecordEntry.CONTENT_URI, PATH_SALES);
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding the start of the time range, in
+         * milliseconds since the epoch. Sales made at that time are included.
+         */
+        public static final String QUERY_PARAMETER_FROM = "from";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding the end of the time range, in
+         * milliseconds since the epoch. Sales made at that time are excluded.
+         */
+        public static final String QUERY_PARAMETER_TO = "to";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sales.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /** Name of database table for sales */
+        public final static String TABLE_NAME = "sales";
+
+        /**
+         * ID of the record sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORD_ID = "record_id";
 
+        /**
+         * Number of copies sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNITS = "units";
+
+        /**
+         * Time of the sale, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SOLD_AT = "sold_at";
+
+        /**
+         * 1 once the sale is folded into the quantity stored on the record, or superseded by a
+         * new quantity written over it, 0 while it still has to be subtracted from the stock.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_APPLIED = "applied";
+    }
+
+    /**
+     * Inner class that defines constant values for the reorder list: the records whose stock
+     * was at most {@link RecordEntry#DEFAULT_LOW_STOCK_THRESHOLD} when the stock was last
+     * checked, grouped by supplier. The stock is checked in the background every few minutes,
+     * and the observers of {@link #CONTENT_URI} are told when the list changes. Suppliers come
+     * in the order of their record with the lowest stock, and so do their records.
+     */
+    public static final class ReorderEntry {
+
+        /** The content URI to read the reorder list. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(RecordEntry.CONTENT_URI, PATH_REORDERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the reorder list.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REORDERS;
+
+        /**
+         * ID of the supplier to reorder from.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Name of the supplier.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
+
+        /**
+         * Email of the supplier, where the order goes.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_EMAIL = "supplier_email";
+
+        /**
+         * ID of the record to reorder.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORD_ID = "record_id";
+
+        /**
+         * Album name of the record.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_ALBUM_NAME = "album_name";
+
+        /**
+         * Band name of the record.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_BAND_NAME = "band_name";
+
+        /**
+         * Stock of the record when it was checked.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * When the stock was checked, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHECKED_AT = "checked_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the metrics of the provider, collected since
+     * the process started or the metrics were last reset. There is one row per operation and
+     * target that ran at least once. Latencies are in microseconds, percentiles are accurate to
+     * within a quarter of their value.
+     */
+    public static final class MetricsEntry {
+
+        /** The content URI to read the metrics. The cursor isn't updated as they change. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(RecordEntry.CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the metrics.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /**
+         * Operation: query, insert, bulk_insert, update, delete, apply_batch, open_file or call.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /**
+         * URI path pattern the operation ran on, such as "records/#", or the method name for
+         * calls.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TARGET = "target";
+
+        /**
+         * Number of times the operation ran.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COUNT = "count";
+
+        /**
+         * Number of times the operation threw, or failed to return a result.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ERRORS = "errors";
+
+        /**
+         * Median latency, in microseconds.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LATENCY_P50 = "latency_p50_us";
+
+        /**
+         * 99th percentile latency, in microseconds.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LATENCY_P99 = "latency_p99_us";
+
+        /**
+         * Highest latency, in microseconds.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LATENCY_MAX = "latency_max_us";
+
+        /**
+         * Median number of rows returned by a query, or written by an insert, update or delete.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ROWS_P50 = "rows_p50";
+
+        /**
+         * 99th percentile number of rows.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ROWS_P99 = "rows_p99";
+
+        /**
+         * Total number of rows over every time the operation ran.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ROWS_TOTAL = "rows_total";
+    }
+
+    /**
+     * Inner class that defines constant values for the log of the provider's slow queries: the
+     * last ones that took longer than the threshold set with
+     * {@link #METHOD_SET_SLOW_QUERY_THRESHOLD}, oldest first. Argument values are left out, only
+     * their type and length are kept.
+     */
+    public static final class SlowQueryEntry {
+
+        /** The content URI to read the log. The cursor isn't updated as queries are added. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(RecordEntry.CONTENT_URI, PATH_SLOW_QUERIES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the slow queries.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        /**
+         * When the query ran, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIME = "time";
+
+        /**
+         * How long the query took, in microseconds.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DURATION = "duration_us";
+
+        /**
+         * SQL of the query, with a "?" for each argument.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SQL = "sql";
+
+        /**
+         * Type of each argument, "integer", "text(length)" or "null", separated by commas.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_ARGUMENTS = "arguments";
+
+        /**
+         * Output of EXPLAIN QUERY PLAN for the query, one step per line.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PLAN = "plan";
+
+        /**
+         * 1 if the plan reads the whole records table without an index, 0 otherwise.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FULL_SCAN = "full_scan";
+    }
+
+    /**
+     * Inner class that defines constant values for the suppliers database table. Suppliers are
+     * created when records are written with a new supplier name and email.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the supplier data in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** Name of database table for suppliers */
+        public final static String TABLE_NAME = "suppliers";
+
+        /**
+         * Name of the supplier.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_NAME = "name";
+
+        /**
+         * Email of the supplier.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_EMAIL = "email";
+
+        /**
+         * Return the content URI of the records of the supplier with the given ID.
+         */
+        public static Uri buildRecordsUri(long supplierId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(supplierId))
+                    .appendPath(PATH_RECORDS)
+                    .build();
+        }
     }
 
 }
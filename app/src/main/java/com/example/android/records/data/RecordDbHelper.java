@@ -16,10 +16,16 @@
 package com.example.android.records.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SummaryEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
+
+import java.util.List;
 
 /**
  * Database helper for Records app. Manages database creation and version management.
@@ -31,47 +37,201 @@ public class RecordDbHelper extends SQLiteOpenHelper {
     /** Name of the database file */
     private static final String DATABASE_NAME = "records.db";
 
+    /** Database version, the version of its schema */
+    private static final int DATABASE_VERSION = RecordSchema.VERSION;
+
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Named presets for how the database is stored and synced to disk.
      */
-    private static final int DATABASE_VERSION = 1;
+    public enum StorageMode {
+        /**
+         * SQLite's default rollback journal with full syncs. Writers block readers and the
+         * other way round.
+         */
+        ROLLBACK_JOURNAL(false, "FULL", 0),
+
+        /**
+         * Write-ahead logging: readers use their own connections from the pool and don't wait
+         * for the writer. Syncing only at checkpoints is safe with WAL, a crash can only lose
+         * the last transactions, never corrupt the database. The primary connection gets a
+         * 2 MiB page cache.
+         */
+        WAL(true, "NORMAL", 2048);
+
+        final boolean mWriteAheadLogging;
+        final String mSynchronous;
+        /**
+         * Page cache size in KiB of the primary connection, or 0 to keep the SQLite default.
+         * The reader connections always keep the default.
+         */
+        final int mCacheSizeKib;
+
+        StorageMode(boolean writeAheadLogging, String synchronous, int cacheSizeKib) {
+            mWriteAheadLogging = writeAheadLogging;
+            mSynchronous = synchronous;
+            mCacheSizeKib = cacheSizeKib;
+        }
+    }
+
+    /** Storage mode used unless another one is asked for. */
+    public static final StorageMode DEFAULT_STORAGE_MODE = StorageMode.WAL;
+
+    private final StorageMode mStorageMode;
 
     /**
-     * Constructs a new instance of {@link RecordDbHelper}.
+     * Constructs a new instance of {@link RecordDbHelper}, using the
+     * {@link #DEFAULT_STORAGE_MODE}.
      *
      * @param context of the app
      */
     public RecordDbHelper(Context context) {
+        this(context, DEFAULT_STORAGE_MODE);
+    }
+
+    /**
+     * Constructs a new instance of {@link RecordDbHelper}.
+     *
+     * @param context     of the app
+     * @param storageMode how the database is stored and synced to disk
+     */
+    public RecordDbHelper(Context context, StorageMode storageMode) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mStorageMode = storageMode;
+        // With write-ahead logging the framework also keeps a pool of reader connections, so
+        // queries on other threads run alongside the writer
+        setWriteAheadLoggingEnabled(storageMode.mWriteAheadLogging);
     }
 
     /**
-     * This is called when the database is created for the first time.
+     * This is called when the database connection is being configured, before it's created or
+     * upgraded. The settings apply to the primary connection, which does all the writes: SQLite
+     * applies a pragma when it compiles it, and the framework compiles statements other than
+     * SELECT on the primary connection. The pool opens its reader connections later on its own,
+     * and they keep the framework's sync mode and SQLite's default page cache.
      */
     @Override
-    public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the records table
-        String SQL_CREATE_RECORDS_TABLE =  "CREATE TABLE " + RecordContract.RecordEntry.TABLE_NAME + " ("
-                + RecordEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + RecordEntry.COLUMN_ALBUM_NAME + " TEXT NOT NULL, "
-                + RecordEntry.COLUMN_BAND_NAME + " TEXT NOT NULL, "
-                + RecordEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
-                + RecordEntry.COLUMN_PRICE + " INTEGER NOT NULL DEFAULT 0, "
-                + RecordEntry.COLUMN_RECORD_COVER + " TEXT NOT NULL, "
-                + RecordEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
-                + RecordEntry.COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL);";
-
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Records may only point to suppliers that exist
+        db.setForeignKeyConstraintsEnabled(true);
+        runPragma(db, "synchronous = " + mStorageMode.mSynchronous);
+        if (mStorageMode.mCacheSizeKib > 0) {
+            // A negative cache size is a size in KiB rather than a number of pages
+            runPragma(db, "cache_size = -" + mStorageMode.mCacheSizeKib);
+        }
+    }
 
+    /**
+     * Run a PRAGMA statement. Some pragmas return the new value as a row, which
+     * {@link SQLiteDatabase#execSQL(String)} doesn't allow, so they go through a query.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
-        // Execute the SQL statement
-        db.execSQL(SQL_CREATE_RECORDS_TABLE);
+    /**
+     * This is called when the database is created for the first time.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        execAll(db, RecordSchema.create());
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. Each step brings the schema up by
+     * one version, so an install can be upgraded from any older version.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        if (oldVersion < 2) {
+            // Version 2 adds the secondary indexes on the records table
+            execAll(db, RecordSchema.recordIndexes());
+        }
+        if (oldVersion < 5) {
+            // Version 5 moves the suppliers into their own table. The search index (added in
+            // version 3) and the inventory totals (added in version 4) read the supplier through
+            // that table, so they are built, or built again, once the records have moved.
+            db.execSQL("DROP TABLE IF EXISTS " + RecordSchema.TABLE_RECORDS_FTS + ";");
+            db.execSQL("DROP TABLE IF EXISTS " + SummaryEntry.TABLE_TOTALS + ";");
+            db.execSQL("DROP TABLE IF EXISTS " + SummaryEntry.TABLE_BAND_TOTALS + ";");
+            db.execSQL("DROP TABLE IF EXISTS " + SummaryEntry.TABLE_SUPPLIER_TOTALS + ";");
+            moveSuppliersToTable(db);
+            execAll(db, RecordSchema.searchIndex());
+            execAll(db, RecordSchema.summaryTables());
+        }
+        if (oldVersion < 6) {
+            // Version 6 adds the sales ledger, and the view subtracts the sales not applied yet
+            // from the quantity of each record
+            execAll(db, RecordSchema.salesTable());
+            db.execSQL("DROP VIEW IF EXISTS " + RecordEntry.VIEW_NAME + ";");
+            db.execSQL(RecordSchema.recordsView());
+        }
+        if (oldVersion < 7) {
+            // Version 7 indexes the price, and the view shows the stored quantity next to the
+            // current stock, so that both can be sorted and filtered through an index
+            execAll(db, RecordSchema.recordIndexes());
+            db.execSQL("DROP VIEW IF EXISTS " + RecordEntry.VIEW_NAME + ";");
+            db.execSQL(RecordSchema.recordsView());
+        }
+    }
+
+    /**
+     * Run the given statements in order.
+     */
+    private static void execAll(SQLiteDatabase db, List<String> statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+    }
+
+    /**
+     * Move the supplier names and emails stored on every record into the suppliers table, one
+     * row per distinct supplier, and link each record to its supplier. SQLite can't drop
+     * columns, so the records are copied into a new table that replaces the old one. Record IDs
+     * are kept, and so is the ID sequence, so deleted IDs aren't handed out again.
+     */
+    private static void moveSuppliersToTable(SQLiteDatabase db) {
+        final String oldSupplierName = "supplier_name";
+        final String oldSupplierEmail = "supplier_email";
+        final String newTable = RecordEntry.TABLE_NAME + "_new";
+
+        db.execSQL(RecordSchema.suppliersTable());
+        // Spelling of the oldest record wins, other spellings of the same supplier are merged
+        db.execSQL("INSERT OR IGNORE INTO " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_NAME + ", " + SupplierEntry.COLUMN_EMAIL + ") "
+                + "SELECT TRIM(" + oldSupplierName + "), TRIM(" + oldSupplierEmail + ") "
+                + "FROM " + RecordEntry.TABLE_NAME + " ORDER BY " + RecordEntry._ID + ";");
+
+        long sequence = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name = ?",
+                new String[] { RecordEntry.TABLE_NAME });
+
+        db.execSQL(RecordSchema.recordsTable(newTable));
+        db.execSQL("INSERT INTO " + newTable + " ("
+                + RecordEntry._ID + ", " + RecordEntry.COLUMN_ALBUM_NAME + ", "
+                + RecordEntry.COLUMN_BAND_NAME + ", " + RecordEntry.COLUMN_QUANTITY + ", "
+                + RecordEntry.COLUMN_PRICE + ", " + RecordEntry.COLUMN_RECORD_COVER + ", "
+                + RecordEntry.COLUMN_SUPPLIER_ID + ") "
+                + "SELECT r." + RecordEntry._ID + ", r." + RecordEntry.COLUMN_ALBUM_NAME + ", "
+                + "r." + RecordEntry.COLUMN_BAND_NAME + ", r." + RecordEntry.COLUMN_QUANTITY + ", "
+                + "r." + RecordEntry.COLUMN_PRICE + ", r." + RecordEntry.COLUMN_RECORD_COVER + ", "
+                + "s." + SupplierEntry._ID + " "
+                + "FROM " + RecordEntry.TABLE_NAME + " AS r JOIN " + SupplierEntry.TABLE_NAME + " AS s "
+                + "ON s." + SupplierEntry.COLUMN_NAME + " = TRIM(r." + oldSupplierName + ") "
+                + "AND s." + SupplierEntry.COLUMN_EMAIL + " = TRIM(r." + oldSupplierEmail + ");");
+
+        // Dropping the old table also drops its indexes and triggers
+        db.execSQL("DROP TABLE " + RecordEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + RecordEntry.TABLE_NAME + ";");
+        db.execSQL("UPDATE sqlite_sequence SET seq = MAX(seq, ?) WHERE name = ?;",
+                new Object[] { sequence, RecordEntry.TABLE_NAME });
+
+        execAll(db, RecordSchema.recordIndexes());
+        db.execSQL(RecordSchema.supplierIndex());
     }
-}
\ No newline at end of file
+}
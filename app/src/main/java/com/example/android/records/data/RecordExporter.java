@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes every record into the pipe of an export, in CSV or JSON. Records are read in chunks
+ * of {@link #CHUNK_SIZE}, each chunk starting after the ID of the last record written, so only
+ * one chunk is ever held in memory and no query has to skip rows. Each chunk is a separate
+ * read, so records changed during a long export may show as they were before or after the
+ * change.
+ */
+final class RecordExporter implements ContentProvider.PipeDataWriter<String> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RecordExporter.class.getSimpleName();
+
+    /** Number of records read by each query */
+    static final int CHUNK_SIZE = 500;
+
+    /** Size of the buffer the file is written through */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Columns exported, in order */
+    private static final String[] COLUMNS = {
+            RecordEntry._ID,
+            RecordEntry.COLUMN_ALBUM_NAME,
+            RecordEntry.COLUMN_BAND_NAME,
+            RecordEntry.COLUMN_QUANTITY,
+            RecordEntry.COLUMN_PRICE,
+            RecordEntry.COLUMN_RECORD_COVER,
+            RecordEntry.COLUMN_SUPPLIER_NAME,
+            RecordEntry.COLUMN_SUPPLIER_EMAIL};
+
+    /** Columns holding integers, written as numbers in JSON */
+    private static final boolean[] INTEGER_COLUMNS = {
+            true, false, false, true, true, false, false, false};
+
+    private final RecordDbHelper mDbHelper;
+
+    RecordExporter(RecordDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts,
+                                String format) {
+        // The pipe itself is closed by the caller once this returns
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            if (RecordEntry.FORMAT_JSON.equals(format)) {
+                writeJson(writer);
+            } else {
+                writeCsv(writer);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe before the end
+            Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+        }
+    }
+
+    private void writeCsv(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        long lastId = -1;
+        int count;
+        do {
+            Cursor cursor = queryChunk(lastId);
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        if (!cursor.isNull(i)) {
+                            writeCsvField(writer, cursor.getString(i));
+                        }
+                    }
+                    writer.write("\r\n");
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == CHUNK_SIZE);
+    }
+
+    /**
+     * Write one field, quoted if it holds a comma, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String field) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        writer.write(field.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private void writeJson(Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+        long lastId = -1;
+        int count;
+        do {
+            Cursor cursor = queryChunk(lastId);
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    json.beginObject();
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        json.name(COLUMNS[i]);
+                        if (cursor.isNull(i)) {
+                            json.nullValue();
+                        } else if (INTEGER_COLUMNS[i]) {
+                            json.value(cursor.getLong(i));
+                        } else {
+                            json.value(cursor.getString(i));
+                        }
+                    }
+                    json.endObject();
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == CHUNK_SIZE);
+        json.endArray();
+        json.flush();
+    }
+
+    /**
+     * Read the chunk of records that follows the given ID, in ID order, which the primary key
+     * answers without sorting.
+     */
+    private Cursor queryChunk(long lastId) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        return database.query(RecordEntry.VIEW_NAME, COLUMNS, RecordEntry._ID + " > ?",
+                new String[] { String.valueOf(lastId) }, null, null, RecordEntry._ID,
+                String.valueOf(CHUNK_SIZE));
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Imports records from a CSV or JSON file into {@link RecordProvider}. The file is parsed one
+ * row at a time and the rows are inserted in chunks, each in its own transaction, so memory use
+ * doesn't depend on the size of the file. Each row is checked with {@link RecordValidator}; an
+ * invalid row is reported and skipped, the rest of the file is still imported.
+ * <p>
+ * A CSV file starts with a header line naming the columns of the records table, in any order.
+ * A JSON file holds an array of objects whose keys are those column names. Columns the records
+ * table doesn't have are ignored.
+ */
+public final class RecordImporter {
+
+    /** Formats of the files that can be imported */
+    public enum Format {
+        CSV, JSON
+    }
+
+    /**
+     * Listener told how the import is going. It's called on the thread running the import.
+     */
+    public interface Listener {
+        /**
+         * Called after each chunk of rows has been inserted.
+         *
+         * @param rowsRead     number of rows read so far, valid or not
+         * @param rowsImported number of records inserted so far
+         */
+        void onProgress(int rowsRead, int rowsImported);
+
+        /**
+         * Called for each row that couldn't be imported.
+         *
+         * @param row     number of the row in the file, starting at 1 for the first record
+         * @param message why the row was skipped
+         */
+        void onRowError(int row, String message);
+    }
+
+    /** Default number of rows inserted in each transaction */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /** Longest field accepted, so that a missing closing quote can't load the whole file */
+    private static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    /** Size of the buffer the file is read through */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Columns that can be imported */
+    private static final Set<String> COLUMNS = new HashSet<>(Arrays.asList(
+            RecordEntry.COLUMN_ALBUM_NAME,
+            RecordEntry.COLUMN_BAND_NAME,
+            RecordEntry.COLUMN_QUANTITY,
+            RecordEntry.COLUMN_PRICE,
+            RecordEntry.COLUMN_RECORD_COVER,
+            RecordEntry.COLUMN_SUPPLIER_NAME,
+            RecordEntry.COLUMN_SUPPLIER_EMAIL));
+
+    private final ContentResolver mContentResolver;
+
+    private final int mChunkSize;
+
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructs a new {@link RecordImporter}.
+     *
+     * @param contentResolver used to insert the records
+     * @param chunkSize       number of rows inserted in each transaction
+     */
+    public RecordImporter(ContentResolver contentResolver, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        mContentResolver = contentResolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Stop the import after the chunk being read. The chunks already inserted are kept.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Return true if {@link #cancel()} was called.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Import the records of the given stream, which is read as UTF-8 and closed at the end.
+     * Return the number of records inserted.
+     *
+     * @throws IOException if the stream can't be read, or isn't a CSV or JSON file at all
+     */
+    public int importRecords(InputStream in, Format format, Listener listener) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), BUFFER_SIZE);
+        RowReader rows = format == Format.JSON ? new JsonRowReader(reader) : new CsvRowReader(reader);
+
+        List<ContentValues> chunk = new ArrayList<>(mChunkSize);
+        // Number in the file of each row of the chunk, as invalid rows leave gaps
+        List<Integer> chunkRows = new ArrayList<>(mChunkSize);
+        int rowsRead = 0;
+        int rowsImported = 0;
+        try {
+            while (!mCancelled) {
+                Map<String, Object> values;
+                try {
+                    values = rows.next();
+                    if (values != null) {
+                        RecordValidator.checkRecord(values);
+                    }
+                } catch (IllegalArgumentException e) {
+                    rowsRead++;
+                    listener.onRowError(rows.getRowNumber(), e.getMessage());
+                    continue;
+                }
+                if (values == null) {
+                    break;
+                }
+                rowsRead++;
+
+                chunk.add(SQLiteRecordStore.toContentValues(values));
+                chunkRows.add(rows.getRowNumber());
+                if (chunk.size() == mChunkSize) {
+                    rowsImported += insertChunk(chunk, chunkRows, listener);
+                    listener.onProgress(rowsRead, rowsImported);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                rowsImported += insertChunk(chunk, chunkRows, listener);
+            }
+            listener.onProgress(rowsRead, rowsImported);
+        } finally {
+            reader.close();
+        }
+        return rowsImported;
+    }
+
+    /**
+     * Insert a chunk of records in one transaction, and empty it and the list of its row
+     * numbers. If the database refuses the chunk, every row of it is reported. Return the number
+     * of records inserted.
+     */
+    private int insertChunk(List<ContentValues> chunk, List<Integer> rows, Listener listener) {
+        int rowsInserted;
+        try {
+            rowsInserted = mContentResolver.bulkInsert(RecordEntry.CONTENT_URI,
+                    chunk.toArray(new ContentValues[chunk.size()]));
+        } catch (SQLException e) {
+            String message = "Chunk ending at row " + rows.get(rows.size() - 1) + " failed: "
+                    + e.getMessage();
+            for (int row : rows) {
+                listener.onRowError(row, message);
+            }
+            rowsInserted = 0;
+        }
+        chunk.clear();
+        rows.clear();
+        return rowsInserted;
+    }
+
+    /**
+     * Source of the rows of a file, read one at a time.
+     */
+    private interface RowReader {
+        /**
+         * Return the next row as a map from column name to value, or null at the end of the
+         * file. Throw an {@link IllegalArgumentException} if the row can't be read, the next
+         * call then moves on to the following row.
+         */
+        Map<String, Object> next() throws IOException;
+
+        /** Number of the row last returned by {@link #next()} */
+        int getRowNumber();
+    }
+
+    /**
+     * Reads a CSV file as described in RFC 4180: fields are separated by commas, and fields
+     * holding commas, quotes or line breaks are quoted, with quotes inside doubled. An empty
+     * field is treated as a missing value.
+     */
+    private static final class CsvRowReader implements RowReader {
+        private final Reader mReader;
+
+        /** Import column of each field, or null for the fields that are ignored */
+        private String[] mColumns;
+
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+
+        /** Character read ahead and given back, or -2 if there is none */
+        private int mPushedBack = -2;
+
+        private int mRowNumber;
+
+        CsvRowReader(Reader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public Map<String, Object> next() throws IOException {
+            if (mColumns == null) {
+                readHeader();
+            }
+            List<String> fields;
+            do {
+                fields = readLine();
+                if (fields == null) {
+                    return null;
+                }
+                // Skip blank lines
+            } while (fields.size() == 1 && fields.get(0).isEmpty());
+
+            mRowNumber++;
+            if (fields.size() != mColumns.length) {
+                throw new IllegalArgumentException("Expected " + mColumns.length + " fields but found "
+                        + fields.size());
+            }
+            Map<String, Object> values = new HashMap<>();
+            for (int i = 0; i < mColumns.length; i++) {
+                String field = fields.get(i);
+                if (mColumns[i] != null && !field.isEmpty()) {
+                    values.put(mColumns[i], field);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public int getRowNumber() {
+            return mRowNumber;
+        }
+
+        private void readHeader() throws IOException {
+            List<String> header = readLine();
+            if (header == null) {
+                throw new IOException("The file is empty");
+            }
+            mColumns = new String[header.size()];
+            boolean anyColumn = false;
+            for (int i = 0; i < mColumns.length; i++) {
+                String name = header.get(i).trim();
+                if (i == 0 && name.startsWith("\uFEFF")) {
+                    // Byte order mark written by some spreadsheets
+                    name = name.substring(1);
+                }
+                if (COLUMNS.contains(name)) {
+                    mColumns[i] = name;
+                    anyColumn = true;
+                }
+            }
+            if (!anyColumn) {
+                throw new IOException("The header line doesn't name any record column");
+            }
+        }
+
+        /**
+         * Read the fields of the next line, or return null at the end of the file. The list is
+         * reused by the next call.
+         */
+        private List<String> readLine() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            boolean quoted = false;
+            while (c != -1) {
+                if (quoted) {
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            append(c);
+                        } else {
+                            quoted = false;
+                            unread(next);
+                        }
+                    } else {
+                        append(c);
+                    }
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        unread(next);
+                    }
+                    break;
+                } else {
+                    append(c);
+                }
+                c = read();
+            }
+            mFields.add(mField.toString());
+            return mFields;
+        }
+
+        private void append(int c) throws IOException {
+            if (mField.length() == MAX_FIELD_LENGTH) {
+                throw new IOException("Field longer than " + MAX_FIELD_LENGTH
+                        + " characters after row " + mRowNumber);
+            }
+            mField.append((char) c);
+        }
+
+        private int read() throws IOException {
+            if (mPushedBack != -2) {
+                int c = mPushedBack;
+                mPushedBack = -2;
+                return c;
+            }
+            return mReader.read();
+        }
+
+        private void unread(int c) {
+            mPushedBack = c;
+        }
+    }
+
+    /**
+     * Reads a JSON array of objects, one object at a time. Numbers and booleans are kept as
+     * text, they are converted when the row is stored.
+     */
+    private static final class JsonRowReader implements RowReader {
+        private final JsonReader mReader;
+
+        private boolean mStarted;
+
+        private int mRowNumber;
+
+        JsonRowReader(Reader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        public Map<String, Object> next() throws IOException {
+            if (!mStarted) {
+                mReader.beginArray();
+                mStarted = true;
+            }
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                return null;
+            }
+
+            mRowNumber++;
+            if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+                mReader.skipValue();
+                throw new IllegalArgumentException("Record must be a JSON object");
+            }
+
+            Map<String, Object> values = new HashMap<>();
+            String invalidColumn = null;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                if (!COLUMNS.contains(name)) {
+                    mReader.skipValue();
+                    continue;
+                }
+                switch (mReader.peek()) {
+                    case NULL:
+                        mReader.nextNull();
+                        values.put(name, null);
+                        break;
+                    case STRING:
+                    case NUMBER:
+                        values.put(name, mReader.nextString());
+                        break;
+                    case BOOLEAN:
+                        values.put(name, String.valueOf(mReader.nextBoolean()));
+                        break;
+                    default:
+                        // Arrays and objects can't be stored in a column
+                        mReader.skipValue();
+                        invalidColumn = name;
+                        break;
+                }
+            }
+            mReader.endObject();
+
+            if (invalidColumn != null) {
+                throw new IllegalArgumentException("Invalid value for " + invalidColumn);
+            }
+            return values;
+        }
+
+        @Override
+        public int getRowNumber() {
+            return mRowNumber;
+        }
+    }
+}
@@ -16,17 +16,33 @@
 package com.example.android.records.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
-import android.widget.Toast;
 
-import com.example.android.records.R;
+import com.example.android.records.data.RecordContract.MetricsEntry;
 import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.ReorderEntry;
+import com.example.android.records.data.RecordContract.SalesEntry;
+import com.example.android.records.data.RecordContract.SlowQueryEntry;
+import com.example.android.records.data.RecordContract.SummaryEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * {@link ContentProvider} for Records app.
@@ -42,6 +58,36 @@ public class RecordProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single record in the records table */
     private static final int RECORD_ID = 101;
 
+    /** URI matcher code for the content URI for a full-text search over the records table */
+    private static final int RECORD_SEARCH = 102;
+
+    /** URI matcher code for the content URI for an export of the records table */
+    private static final int RECORD_EXPORT = 103;
+
+    /** URI matcher code for the content URI for the inventory totals */
+    private static final int RECORD_SUMMARY = 104;
+
+    /** URI matcher code for the content URI for the sales history */
+    private static final int RECORD_SALES = 105;
+
+    /** URI matcher code for the content URI for the provider's metrics */
+    private static final int RECORD_METRICS = 106;
+
+    /** URI matcher code for the log of slow queries */
+    private static final int RECORD_SLOW_QUERIES = 107;
+
+    /** URI matcher code for the records running out of stock */
+    private static final int RECORD_LOW_STOCK = 108;
+
+    /** URI matcher code for the reorder list */
+    private static final int RECORD_REORDERS = 109;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 200;
+
+    /** URI matcher code for the content URI for the records of a single supplier */
+    private static final int SUPPLIER_RECORDS = 201;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -68,20 +114,110 @@ public class RecordProvider extends ContentProvider {
         // For example, "content://com.example.android.records/records/3" matches, but
         // "content://com.example.android.records/records" (without a number at the end) doesn't match.
         sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY, RecordContract.PATH_RECORDS + "/#", RECORD_ID);
+
+        // The content URI of the form "content://com.example.android.records/records/search" will map
+        // to the integer code {@link #RECORD_SEARCH}. The search terms are passed in the "q" query
+        // parameter.
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_SEARCH, RECORD_SEARCH);
+
+        // The content URI of the form "content://com.example.android.records/records/export" will
+        // map to the integer code {@link #RECORD_EXPORT}. It can only be opened as a file.
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_EXPORT, RECORD_EXPORT);
+
+        // The content URI of the form "content://com.example.android.records/records/summary" will
+        // map to the integer code {@link #RECORD_SUMMARY}. The optional "groupBy" query parameter
+        // asks for the totals per band or per supplier.
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_SUMMARY, RECORD_SUMMARY);
+
+        // The content URI of the form "content://com.example.android.records/records/sales" will
+        // map to the integer code {@link #RECORD_SALES}. The optional "from" and "to" query
+        // parameters restrict it to a time range.
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_SALES, RECORD_SALES);
+
+        // The content URI of the form "content://com.example.android.records/records/_metrics"
+        // will map to the integer code {@link #RECORD_METRICS}.
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_METRICS, RECORD_METRICS);
+
+        // The log of slow queries, with their plan
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_SLOW_QUERIES, RECORD_SLOW_QUERIES);
+
+        // The records running out of stock, and the reorder list built from them
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_LOW_STOCK, RECORD_LOW_STOCK);
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_RECORDS + "/" + RecordContract.PATH_REORDERS, RECORD_REORDERS);
+
+        // The content URIs of the form "content://com.example.android.records/suppliers" and
+        // "content://com.example.android.records/suppliers/#/records" will map to the integer
+        // codes {@link #SUPPLIERS} and {@link #SUPPLIER_RECORDS}.
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY, RecordContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY,
+                RecordContract.PATH_SUPPLIERS + "/#/" + RecordContract.PATH_RECORDS, SUPPLIER_RECORDS);
     }
 
     /** Database helper object */
     private RecordDbHelper mDbHelper;
 
+    /** Stores the records, the provider only routes URIs to it and sends the notifications */
+    private RecordStore mStore;
+
+    /** Sends the change notifications, coalescing the ones that come in bursts */
+    private ChangeNotifier mNotifier;
+
+    /** Folds the sales ledger into the stored quantities in the background */
+    private SalesCompactor mCompactor;
+
+    /** Checks the stock periodically and keeps the reorder list */
+    private ReorderScanner mReorderScanner;
+
+    /** Runs the queries and logs the slow ones with their plan */
+    private final QueryProfiler mQueries = new QueryProfiler();
+
+    /** Latency and row count of every operation, by URI matcher code */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(new ProviderMetrics.TargetNames() {
+        @Override
+        public String getPath(int match) {
+            return describe(match);
+        }
+    });
+
     @Override
     public boolean onCreate() {
         mDbHelper = new RecordDbHelper(getContext());
+        mStore = new SQLiteRecordStore(mDbHelper);
+        mNotifier = new ChangeNotifier(getContext().getContentResolver(), RecordEntry.CONTENT_URI);
+        mCompactor = new SalesCompactor(mStore, mNotifier);
+        // Fold in the sales left over from the last run
+        mCompactor.schedule();
+        mReorderScanner = new ReorderScanner(mStore, mNotifier);
+        mReorderScanner.start();
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startNanos = System.nanoTime();
+        Cursor cursor = null;
+        try {
+            cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+            return cursor;
+        } finally {
+            // Counting the rows runs the query here rather than at the first read of the
+            // cursor, so the latency includes it
+            mMetrics.record(ProviderMetrics.Operation.QUERY, sUriMatcher.match(uri), startNanos,
+                    cursor == null ? ProviderMetrics.FAILED : cursor.getCount());
+        }
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -92,11 +228,13 @@ public class RecordProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case RECORDS:
-                // For the RECORDS code, query the records table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the records table.
-                cursor = database.query(RecordContract.RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // For the RECORDS code, query the records with the given projection, selection,
+                // selection arguments, and sort order, narrowed by the sort, filter and paging
+                // parameters of the URI. The records are read through the view that adds the
+                // supplier of each one. The cursor could contain multiple rows.
+                RecordQuery query = RecordQuery.fromUri(uri, selection, selectionArgs, sortOrder);
+                cursor = mQueries.query(database, RecordEntry.VIEW_NAME, projection, query.mSelection,
+                        query.mSelectionArgs, null, null, query.mSortOrder, query.mLimit);
                 break;
             case RECORD_ID:
                 // For the RECORD_ID code, extract out the ID from the URI.
@@ -110,10 +248,65 @@ public class RecordProvider extends ContentProvider {
                 selection = RecordContract.RecordEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
 
-                // This will perform a query on the records table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(RecordContract.RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // This will perform a query on the records where the _id equals 3 to return a
+                // Cursor containing that row.
+                cursor = mQueries.query(database, RecordEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case RECORD_SEARCH:
+                cursor = searchRecords(database, uri, projection, selection, selectionArgs, sortOrder);
+                // Search results change whenever any record changes
+                uri = RecordEntry.CONTENT_URI;
+                break;
+            case RECORD_SUMMARY:
+                cursor = querySummary(database, uri, projection, selection, selectionArgs, sortOrder);
+                // The totals change whenever any record changes
+                uri = RecordEntry.CONTENT_URI;
+                break;
+            case RECORD_SALES:
+                cursor = querySales(database, uri, projection, selection, selectionArgs, sortOrder);
+                // Sales are made through the records
+                uri = RecordEntry.CONTENT_URI;
+                break;
+            case RECORD_METRICS:
+                cursor = queryMetrics();
+                break;
+            case RECORD_SLOW_QUERIES:
+                cursor = querySlowQueries();
+                break;
+            case RECORD_LOW_STOCK:
+                cursor = queryLowStock(database, uri, projection, selection, selectionArgs, sortOrder);
+                // The stock changes whenever any record changes
+                uri = RecordEntry.CONTENT_URI;
+                break;
+            case RECORD_REORDERS:
+                cursor = queryReorders();
+                break;
+            case SUPPLIERS:
+                if (TextUtils.isEmpty(sortOrder)) {
+                    // Walks the unique index on the name, so no sorting is needed
+                    sortOrder = SupplierEntry.COLUMN_NAME;
+                }
+                cursor = mQueries.query(database, SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                // Suppliers are only added when records are written
+                uri = RecordEntry.CONTENT_URI;
+                break;
+            case SUPPLIER_RECORDS:
+                // The supplier ID is the second segment of "suppliers/#/records", and the
+                // records are found through the index on their supplier ID
+                String supplierSelection = RecordEntry.COLUMN_SUPPLIER_ID + "=?";
+                String[] supplierArgs = { uri.getPathSegments().get(1) };
+                if (TextUtils.isEmpty(selection)) {
+                    selection = supplierSelection;
+                    selectionArgs = supplierArgs;
+                } else {
+                    selection = supplierSelection + " AND (" + selection + ")";
+                    selectionArgs = concat(supplierArgs, selectionArgs);
+                }
+                cursor = mQueries.query(database, RecordEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                uri = RecordEntry.CONTENT_URI;
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -128,183 +321,569 @@ public class RecordProvider extends ContentProvider {
         return cursor;
     }
 
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case RECORDS:
-                return insertRecord(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    /**
+     * Read the inventory totals, for the whole catalog or for each band or supplier. The totals
+     * are kept up to date by triggers, so this reads one row per group and never the records.
+     */
+    private Cursor querySummary(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        String groupBy = uri.getQueryParameter(SummaryEntry.QUERY_PARAMETER_GROUP_BY);
+        String table;
+        if (groupBy == null) {
+            table = SummaryEntry.TABLE_TOTALS;
+        } else if (SummaryEntry.GROUP_BY_BAND.equals(groupBy)) {
+            table = SummaryEntry.TABLE_BAND_TOTALS;
+        } else if (SummaryEntry.GROUP_BY_SUPPLIER.equals(groupBy)) {
+            table = SummaryEntry.VIEW_SUPPLIER_TOTALS;
+        } else {
+            throw new IllegalArgumentException("Cannot group totals by " + groupBy);
+        }
+        if (groupBy != null && TextUtils.isEmpty(sortOrder)) {
+            // Walks the index on the band or supplier name, so no sorting is needed
+            sortOrder = SummaryEntry.COLUMN_GROUP_NAME;
         }
+        return mQueries.query(database, table, projection, selection, selectionArgs, null, null,
+                sortOrder);
     }
 
     /**
-     * Insert a record into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Read the sales history, restricted to the time range given in the URI if any. The range is
+     * a scan of the index on the time of sale, and so is the default order, oldest first.
      */
-    private Uri insertRecord(Uri uri, ContentValues values) {
+    private Cursor querySales(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        List<String> range = new ArrayList<>(2);
+        List<String> rangeArgs = new ArrayList<>(2);
+        String from = uri.getQueryParameter(SalesEntry.QUERY_PARAMETER_FROM);
+        if (from != null) {
+            range.add(SalesEntry.COLUMN_SOLD_AT + " >= ?");
+            rangeArgs.add(String.valueOf(parseTime(uri, from)));
+        }
+        String to = uri.getQueryParameter(SalesEntry.QUERY_PARAMETER_TO);
+        if (to != null) {
+            range.add(SalesEntry.COLUMN_SOLD_AT + " < ?");
+            rangeArgs.add(String.valueOf(parseTime(uri, to)));
+        }
 
-        if (values == null) {
-            Toast.makeText(getContext(), "Record cannot be empty", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record cannot be empty");
+        if (!range.isEmpty()) {
+            String rangeSelection = TextUtils.join(" AND ", range);
+            String[] rangeArray = rangeArgs.toArray(new String[rangeArgs.size()]);
+            if (TextUtils.isEmpty(selection)) {
+                selection = rangeSelection;
+                selectionArgs = rangeArray;
+            } else {
+                selection = rangeSelection + " AND (" + selection + ")";
+                selectionArgs = concat(rangeArray, selectionArgs);
+            }
         }
-        // Check that the album name is not null
-        String albumName = values.getAsString(RecordEntry.COLUMN_ALBUM_NAME);
-        if (albumName == null) {
-            Toast.makeText(getContext(), "Record requires an album name", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires an album name");
+        if (TextUtils.isEmpty(sortOrder)) {
+            sortOrder = SalesEntry.COLUMN_SOLD_AT;
         }
+        return mQueries.query(database, SalesEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder);
+    }
 
-        // Check that the album name is not null
-        String bandName = values.getAsString(RecordEntry.COLUMN_BAND_NAME);
-        if (bandName == null) {
-            Toast.makeText(getContext(), "Record requires a band name", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a band name");
+    /**
+     * Read the records whose stock is at most the threshold given in the URI, lowest stock first
+     * unless another order is given. Only the records running low are read, see
+     * {@link RecordSchema#LOW_STOCK_SELECTION}, and only they are sorted.
+     */
+    private Cursor queryLowStock(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        String threshold = uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_THRESHOLD);
+        if (threshold == null) {
+            threshold = String.valueOf(RecordEntry.DEFAULT_LOW_STOCK_THRESHOLD);
+        } else {
+            try {
+                Integer.parseInt(threshold);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid threshold: " + uri);
+            }
+        }
+
+        String[] thresholdArgs = {threshold, threshold};
+        if (TextUtils.isEmpty(selection)) {
+            selection = RecordSchema.LOW_STOCK_SELECTION;
+            selectionArgs = thresholdArgs;
+        } else {
+            selection = RecordSchema.LOW_STOCK_SELECTION + " AND (" + selection + ")";
+            selectionArgs = concat(thresholdArgs, selectionArgs);
+        }
+        if (TextUtils.isEmpty(sortOrder)) {
+            sortOrder = RecordEntry.COLUMN_QUANTITY + ", " + RecordEntry.COLUMN_ALBUM_NAME + " COLLATE NOCASE";
+        }
+        return mQueries.query(database, RecordEntry.VIEW_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder);
+    }
+
+    /**
+     * Return the reorder list of the last stock check, one row per record, grouped by supplier.
+     */
+    private Cursor queryReorders() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                ReorderEntry.COLUMN_SUPPLIER_ID, ReorderEntry.COLUMN_SUPPLIER_NAME,
+                ReorderEntry.COLUMN_SUPPLIER_EMAIL, ReorderEntry.COLUMN_RECORD_ID,
+                ReorderEntry.COLUMN_ALBUM_NAME, ReorderEntry.COLUMN_BAND_NAME,
+                ReorderEntry.COLUMN_QUANTITY, ReorderEntry.COLUMN_CHECKED_AT});
+        long checkedAt = mReorderScanner.getCheckedAt();
+        for (ReorderScanner.SupplierReorder reorder : mReorderScanner.getReorders()) {
+            for (Map<String, Object> record : reorder.mRecords) {
+                cursor.addRow(new Object[] {
+                        reorder.mSupplierId, reorder.mSupplierName, reorder.mSupplierEmail,
+                        record.get(RecordEntry._ID), record.get(RecordEntry.COLUMN_ALBUM_NAME),
+                        record.get(RecordEntry.COLUMN_BAND_NAME), record.get(RecordEntry.COLUMN_QUANTITY),
+                        checkedAt});
+            }
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), ReorderEntry.CONTENT_URI);
+        return cursor;
+    }
+
+    /**
+     * Parse a time query parameter, in milliseconds since the epoch.
+     */
+    private static long parseTime(Uri uri, String time) {
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time " + time + ": " + uri);
         }
+    }
 
-        // Check that the quantity is not null
-        Integer quantity = values.getAsInteger(RecordEntry.COLUMN_QUANTITY);
-        if (quantity == null && quantity < 0) {
-            Toast.makeText(getContext(), "Record requires a quantity", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a quantity");
+    /**
+     * Return the metrics of every operation that ran, one row per operation and target.
+     */
+    private Cursor queryMetrics() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                MetricsEntry.COLUMN_OPERATION, MetricsEntry.COLUMN_TARGET,
+                MetricsEntry.COLUMN_COUNT, MetricsEntry.COLUMN_ERRORS,
+                MetricsEntry.COLUMN_LATENCY_P50, MetricsEntry.COLUMN_LATENCY_P99,
+                MetricsEntry.COLUMN_LATENCY_MAX, MetricsEntry.COLUMN_ROWS_P50,
+                MetricsEntry.COLUMN_ROWS_P99, MetricsEntry.COLUMN_ROWS_TOTAL});
+        for (ProviderMetrics.OperationMetrics metrics : mMetrics.getAll()) {
+            Histogram latency = metrics.mLatencyMicros;
+            Histogram rows = metrics.mRows;
+            cursor.addRow(new Object[] {
+                    metrics.mOperation.getLabel(), metrics.mTarget,
+                    latency.getCount(), metrics.mErrors.get(),
+                    latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getMax(),
+                    rows.getPercentile(0.5), rows.getPercentile(0.99), rows.getSum()});
         }
+        return cursor;
+    }
 
-        // If the price is provided, check that it's greater than or equal to 0 £
-        Integer price = values.getAsInteger(RecordEntry.COLUMN_PRICE);
-        if (price != null && price < 0) {
-            Toast.makeText(getContext(), "Record requires a valid price", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires valid price");
+    /**
+     * Return the slow queries logged so far, oldest first.
+     */
+    private Cursor querySlowQueries() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                SlowQueryEntry.COLUMN_TIME, SlowQueryEntry.COLUMN_DURATION, SlowQueryEntry.COLUMN_SQL,
+                SlowQueryEntry.COLUMN_ARGUMENTS, SlowQueryEntry.COLUMN_PLAN,
+                SlowQueryEntry.COLUMN_FULL_SCAN});
+        for (QueryProfiler.SlowQuery slowQuery : mQueries.getSlowQueries()) {
+            cursor.addRow(new Object[] {
+                    slowQuery.mTimeMillis, slowQuery.mDurationMicros, slowQuery.mSql,
+                    slowQuery.mArgumentShapes, slowQuery.mPlan, slowQuery.mFullScan ? 1 : 0});
         }
+        return cursor;
+    }
 
-        // Check that the record image is not null
-        String recordCover = values.getAsString(RecordEntry.COLUMN_RECORD_COVER);
-        if (recordCover == null) {
-            Toast.makeText(getContext(), "Record requires an image", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires an image");
+    /**
+     * Return the URI path pattern of the given URI matcher code, as shown in the metrics.
+     */
+    private static String describe(int match) {
+        String records = RecordContract.PATH_RECORDS;
+        switch (match) {
+            case RECORDS:
+                return records;
+            case RECORD_ID:
+                return records + "/#";
+            case RECORD_SEARCH:
+                return records + "/" + RecordContract.PATH_SEARCH;
+            case RECORD_EXPORT:
+                return records + "/" + RecordContract.PATH_EXPORT;
+            case RECORD_SUMMARY:
+                return records + "/" + RecordContract.PATH_SUMMARY;
+            case RECORD_SALES:
+                return records + "/" + RecordContract.PATH_SALES;
+            case RECORD_METRICS:
+                return records + "/" + RecordContract.PATH_METRICS;
+            case RECORD_SLOW_QUERIES:
+                return records + "/" + RecordContract.PATH_SLOW_QUERIES;
+            case RECORD_LOW_STOCK:
+                return records + "/" + RecordContract.PATH_LOW_STOCK;
+            case RECORD_REORDERS:
+                return records + "/" + RecordContract.PATH_REORDERS;
+            case SUPPLIERS:
+                return RecordContract.PATH_SUPPLIERS;
+            case SUPPLIER_RECORDS:
+                return RecordContract.PATH_SUPPLIERS + "/#/" + records;
+            default:
+                return "unknown";
         }
+    }
 
-        // Check that the record contact supplier name is not null
-        String supplierName = values.getAsString(RecordEntry.COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
-            Toast.makeText(getContext(), "Record requires a supplier contact name", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a supplier contact name");
+    /**
+     * Return the arguments of the first array followed by the arguments of the second one.
+     * Either array may be null.
+     */
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null || first.length == 0) {
+            return second;
         }
+        if (second == null || second.length == 0) {
+            return first;
+        }
+        String[] args = new String[first.length + second.length];
+        System.arraycopy(first, 0, args, 0, first.length);
+        System.arraycopy(second, 0, args, first.length, second.length);
+        return args;
+    }
 
-        // Check that the record contact supplier email is not null
-        String supplierEmail = values.getAsString(RecordEntry.COLUMN_SUPPLIER_EMAIL);
-        if (supplierEmail == null) {
-            Toast.makeText(getContext(), "Record requires a supplier contact email", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a supplier contact email");
+    /**
+     * Search the records through the full-text index, see {@link RecordSearch}.
+     */
+    private Cursor searchRecords(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        RecordSearch search = RecordSearch.build(uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_SEARCH),
+                projection, selection, selectionArgs, sortOrder,
+                uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_LIMIT),
+                uri.getQueryParameters(RecordEntry.QUERY_PARAMETER_AFTER_KEY),
+                uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_ID));
+        if (search == null) {
+            // Nothing to search for, so nothing matches
+            return mQueries.query(database, RecordEntry.VIEW_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder, "0");
         }
+        return mQueries.rawQuery(database, search.mSql, search.mArgs);
+    }
 
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
+        Uri newUri = null;
+        try {
+            newUri = insertUri(uri, contentValues);
+            return newUri;
+        } finally {
+            mMetrics.record(ProviderMetrics.Operation.INSERT, sUriMatcher.match(uri), startNanos,
+                    newUri == null ? ProviderMetrics.FAILED : 1);
+        }
+    }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case RECORDS:
+                return insertRecord(uri, contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
 
-        // Insert the new RECORD with the given values
-        long id = database.insert(RecordContract.RecordEntry.TABLE_NAME, null, values);
+    /**
+     * Insert a record into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertRecord(Uri uri, ContentValues values) {
+        // Insert the new RECORD with the given values. An invalid record throws, which reaches
+        // the caller with the reason, for it to show: the provider may run on any thread.
+        long id = mStore.insertRecord(SQLiteRecordStore.toMap(values));
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
-
         // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+        Uri recordUri = ContentUris.withAppendedId(uri, id);
+
+        // Notify all listeners that a record was added, through the URI of the new record, so
+        // that observers of other single records are left alone
+        notifyChange(recordUri);
+        return recordUri;
     }
 
     @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        long rowsInserted = ProviderMetrics.FAILED;
+        try {
+            int rows = bulkInsertUri(uri, values);
+            rowsInserted = rows;
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.Operation.BULK_INSERT, sUriMatcher.match(uri), startNanos,
+                    rowsInserted);
+        }
+    }
+
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case RECORDS:
-                return updateRecord(uri, contentValues, selection, selectionArgs);
-            case RECORD_ID:
-                // For the RECORD_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = RecordContract.RecordEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateRecord(uri, contentValues, selection, selectionArgs);
+                return bulkInsertRecords(uri, values);
             default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
     }
 
     /**
-     * Update records in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more records).
-     * Return the number of rows that were successfully updated.
+     * Insert all of the given records inside a single transaction, so the whole batch costs one
+     * journal commit and one change notification. If any record is invalid nothing is inserted.
+     * Return the number of rows inserted.
      */
-    private int updateRecord(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    private int bulkInsertRecords(Uri uri, ContentValues[] values) {
+        List<Map<String, Object>> records = new ArrayList<>(values.length);
+        for (ContentValues recordValues : values) {
+            records.add(SQLiteRecordStore.toMap(recordValues));
+        }
+        int rowsInserted = mStore.insertRecords(records);
 
-        //if there are no changes
-        if (contentValues == null) {
+        // One notification for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
 
-            // Check that the album name is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_ALBUM_NAME)) {
-            Toast.makeText(getContext(), R.string.field_required, Toast.LENGTH_SHORT).show();
-            throw new IllegalArgumentException("Record requires an album name");
+    /**
+     * Apply all of the given operations inside a single transaction. The notifications of the
+     * single-row operations are held back while the batch is running, and sent together once
+     * the batch has been committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long startNanos = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results = null;
+        boolean committed = false;
+        mNotifier.beginBatch();
+        try {
+            database.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            // Ending the transaction commits it, and throws if the commit fails
+            committed = true;
+        } finally {
+            mNotifier.endBatch(committed);
+            // The operations of the batch are also counted on their own
+            mMetrics.record(ProviderMetrics.Operation.APPLY_BATCH, RECORDS, startNanos,
+                    committed ? results.length : ProviderMetrics.FAILED);
+        }
+        return results;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Notifications are
+     * coalesced, see {@link ChangeNotifier}.
+     */
+    private void notifyChange(Uri uri) {
+        mNotifier.notifyChange(uri);
+    }
 
-            }  // Check that the album name is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_BAND_NAME)) {
-            throw new IllegalArgumentException("Record requires a band name");
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            failed = false;
+            return result;
+        } finally {
+            mMetrics.recordCall(method, startNanos, failed);
         }
-        // Check that the quantity is not null
-        Integer quantity = contentValues.getAsInteger(RecordEntry.COLUMN_QUANTITY);
-        if (quantity == null && quantity < 0) {
-            throw new IllegalArgumentException("Record requires a quantity");
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case RecordContract.METHOD_SELL:
+                return changeQuantity(Long.parseLong(arg), -getAmount(extras));
+            case RecordContract.METHOD_RESTOCK:
+                return changeQuantity(Long.parseLong(arg), getAmount(extras));
+            case RecordContract.METHOD_SELL_BATCH:
+                return sellBatch(extras.getLongArray(RecordContract.EXTRA_RECORD_IDS),
+                        extras.getIntArray(RecordContract.EXTRA_AMOUNTS));
+            case RecordContract.METHOD_SET_NOTIFICATION_DELAY:
+                mNotifier.setDebounceMillis(Long.parseLong(arg));
+                return null;
+            case RecordContract.METHOD_GET_NOTIFICATION_STATS:
+                Bundle stats = new Bundle();
+                stats.putLong(RecordContract.EXTRA_NOTIFICATION_DELAY, mNotifier.getDebounceMillis());
+                stats.putLong(RecordContract.EXTRA_NOTIFICATIONS_SENT, mNotifier.getSentCount());
+                stats.putLong(RecordContract.EXTRA_NOTIFICATIONS_SUPPRESSED, mNotifier.getSuppressedCount());
+                return stats;
+            case RecordContract.METHOD_RESET_METRICS:
+                mMetrics.reset();
+                return null;
+            case RecordContract.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                mQueries.configure(Long.parseLong(arg), extras == null
+                        || extras.getBoolean(RecordContract.EXTRA_WARN_ON_FULL_SCAN, true));
+                return null;
+            case RecordContract.METHOD_CLEAR_SLOW_QUERIES:
+                mQueries.clear();
+                return null;
+            default:
+                return super.call(method, arg, extras);
         }
-        // If the price is provided, check that it's greater than or equal to 0 £
-        Integer price = contentValues.getAsInteger(RecordEntry.COLUMN_PRICE);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException("Record requires valid price");
+    }
+
+    /**
+     * Return the number of copies to sell or restock, 1 unless the extras say otherwise.
+     *
+     * @throws IllegalArgumentException if the amount isn't at least 1
+     */
+    private static int getAmount(Bundle extras) {
+        int amount = extras == null ? 1 : extras.getInt(RecordContract.EXTRA_AMOUNT, 1);
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive: " + amount);
         }
-        //Check that the record image is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_RECORD_COVER)) {
-            throw new IllegalArgumentException("Record requires an image");
+        return amount;
+    }
+
+    /**
+     * Atomically add the given delta to the stock of a record, refusing to take it below 0. Sales
+     * are appended to the ledger, and the compactor is scheduled to fold them into the record.
+     * Return a bundle holding the resulting quantity and whether the stock changed, or null if
+     * there is no record with the given ID.
+     */
+    private Bundle changeQuantity(long id, int delta) {
+        RecordStore.QuantityChange change = mStore.changeQuantity(id, delta);
+        if (change == null) {
+            // There is no record with this ID
+            return null;
         }
-        // Check that the record contact supplier  is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_SUPPLIER_NAME)) {
-            throw new IllegalArgumentException("Record requires a supplier contact");
+
+        if (change.isUpdated()) {
+            notifyChange(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, id));
+            if (delta < 0) {
+                // The sale went to the ledger
+                mCompactor.schedule();
+            }
         }
-        // Check that the record contact supplier  is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_SUPPLIER_EMAIL)) {
-            throw new IllegalArgumentException("Record requires a supplier email");
+
+        Bundle result = new Bundle();
+        result.putInt(RecordContract.EXTRA_QUANTITY, change.getQuantity());
+        result.putBoolean(RecordContract.EXTRA_UPDATED, change.isUpdated());
+        return result;
+    }
+
+    /**
+     * Sell copies of several records in a single transaction, so a burst of sales costs one
+     * commit and one round of change notifications. Each sale is checked against the stock on
+     * its own, a rejected sale doesn't stop the others.
+     */
+    private Bundle sellBatch(long[] ids, int[] amounts) {
+        if (ids == null || amounts == null || ids.length != amounts.length) {
+            throw new IllegalArgumentException("Each record sold needs an amount");
         }
-        // If there are no values to update, then don't try to update the database
-        if (contentValues.size() == 0) {
-            return 0;
+        for (int amount : amounts) {
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount must be positive: " + amount);
+            }
+        }
+
+        int[] quantities = new int[ids.length];
+        boolean[] updated = new boolean[ids.length];
+        boolean anySold = false;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean committed = false;
+        mNotifier.beginBatch();
+        try {
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    RecordStore.QuantityChange change = mStore.changeQuantity(ids[i], -amounts[i]);
+                    if (change == null) {
+                        // There is no record with this ID
+                        quantities[i] = -1;
+                        continue;
+                    }
+                    quantities[i] = change.getQuantity();
+                    updated[i] = change.isUpdated();
+                    if (updated[i]) {
+                        anySold = true;
+                        notifyChange(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, ids[i]));
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            // Ending the transaction commits it, and throws if the commit fails
+            committed = true;
+        } finally {
+            mNotifier.endBatch(committed);
         }
+        if (anySold) {
+            // The sales went to the ledger
+            mCompactor.schedule();
         }
 
+        Bundle result = new Bundle();
+        result.putIntArray(RecordContract.EXTRA_QUANTITY, quantities);
+        result.putBooleanArray(RecordContract.EXTRA_UPDATED, updated);
+        return result;
+    }
 
-        // Otherwise, get writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        long rowsUpdated = ProviderMetrics.FAILED;
+        try {
+            int rows = updateUri(uri, contentValues, selection, selectionArgs);
+            rowsUpdated = rows;
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.Operation.UPDATE, sUriMatcher.match(uri), startNanos, rowsUpdated);
+        }
+    }
+
+    private int updateUri(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        Map<String, Object> values = SQLiteRecordStore.toMap(contentValues);
+        int rowsUpdated;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case RECORDS:
+                rowsUpdated = mStore.updateRecords(values, selection, selectionArgs);
+                break;
+            case RECORD_ID:
+                // For the RECORD_ID code, extract out the ID from the URI,
+                // so we know which row to update.
+                rowsUpdated = mStore.updateRecord(ContentUris.parseId(uri), values);
+                break;
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(RecordEntry.TABLE_NAME, contentValues, selection, selectionArgs);
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         // Return the number of rows updated
         return rowsUpdated;
-
-
     }
 
-
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startNanos = System.nanoTime();
+        long rowsDeleted = ProviderMetrics.FAILED;
+        try {
+            int rows = deleteUri(uri, selection, selectionArgs);
+            rowsDeleted = rows;
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.Operation.DELETE, sUriMatcher.match(uri), startNanos, rowsDeleted);
+        }
+    }
 
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
         // Track the number of rows that were deleted
         int rowsDeleted;
 
@@ -312,13 +891,11 @@ public class RecordProvider extends ContentProvider {
         switch (match) {
             case RECORDS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(RecordEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = mStore.deleteRecords(selection, selectionArgs);
                 break;
             case RECORD_ID:
                 // Delete a single row given by the ID in the URI
-                selection = RecordContract.RecordEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(RecordContract.RecordEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = mStore.deleteRecord(ContentUris.parseId(uri));
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -327,12 +904,57 @@ public class RecordProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Open an export of the records for reading. The file is a pipe, written by a background
+     * thread as the records are read, so the whole catalog is never held in memory.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        long startNanos = System.nanoTime();
+        ParcelFileDescriptor pipe = null;
+        try {
+            pipe = openExport(uri, mode);
+            return pipe;
+        } finally {
+            // Only opening the pipe is timed, the export is written in the background
+            mMetrics.record(ProviderMetrics.Operation.OPEN_FILE, sUriMatcher.match(uri), startNanos,
+                    pipe == null ? ProviderMetrics.FAILED : ProviderMetrics.NOT_COUNTED);
+        }
+    }
+
+    private ParcelFileDescriptor openExport(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != RECORD_EXPORT) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports are read only: " + uri);
+        }
+        String format = getExportFormat(uri);
+        String mimeType = RecordEntry.FORMAT_JSON.equals(format)
+                ? RecordEntry.CONTENT_JSON_TYPE : RecordEntry.CONTENT_CSV_TYPE;
+        return openPipeHelper(uri, mimeType, null, format, new RecordExporter(mDbHelper));
+    }
+
+    /**
+     * Return the format asked for by an export URI, CSV unless it says otherwise.
+     */
+    private static String getExportFormat(Uri uri) {
+        String format = uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || RecordEntry.FORMAT_CSV.equals(format)) {
+            return RecordEntry.FORMAT_CSV;
+        }
+        if (RecordEntry.FORMAT_JSON.equals(format)) {
+            return RecordEntry.FORMAT_JSON;
+        }
+        throw new IllegalArgumentException("Unknown export format: " + uri);
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -341,6 +963,27 @@ public class RecordProvider extends ContentProvider {
                 return RecordContract.RecordEntry.CONTENT_LIST_TYPE;
             case RECORD_ID:
                 return RecordContract.RecordEntry.CONTENT_ITEM_TYPE;
+            case RECORD_SEARCH:
+                return RecordContract.RecordEntry.CONTENT_LIST_TYPE;
+            case RECORD_SUMMARY:
+                return SummaryEntry.CONTENT_LIST_TYPE;
+            case RECORD_SALES:
+                return SalesEntry.CONTENT_LIST_TYPE;
+            case RECORD_METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case RECORD_SLOW_QUERIES:
+                return SlowQueryEntry.CONTENT_LIST_TYPE;
+            case RECORD_LOW_STOCK:
+                return RecordEntry.CONTENT_LIST_TYPE;
+            case RECORD_REORDERS:
+                return ReorderEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_RECORDS:
+                return RecordEntry.CONTENT_LIST_TYPE;
+            case RECORD_EXPORT:
+                return RecordEntry.FORMAT_JSON.equals(getExportFormat(uri))
+                        ? RecordEntry.CONTENT_JSON_TYPE : RecordEntry.CONTENT_CSV_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
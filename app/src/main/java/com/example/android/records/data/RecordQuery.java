@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selection, sort order and limit of a query of the records, built from the sort, filter and
+ * paging parameters of its URI. Only whitelisted columns can be sorted or filtered by, and the
+ * values are always bound as arguments.
+ * <p>
+ * Every sort walks an index of the records table: the range filters on the sorted column
+ * narrow that walk, and the other filters are checked on the rows it reaches. The other filters
+ * are written with a unary "+" so that SQLite doesn't pick their index instead and then have to
+ * sort the rows, so no combination of parameters scans the table or sorts in a temporary B-tree.
+ */
+final class RecordQuery {
+
+    /**
+     * The ways the records can be sorted, each backed by an index whose order ends with the
+     * record ID.
+     */
+    private enum Sort {
+        ALBUM(RecordEntry.SORT_ALBUM, true),
+        BAND(RecordEntry.SORT_BAND, true),
+        PRICE(RecordEntry.SORT_PRICE, false),
+        QUANTITY(RecordEntry.SORT_QUANTITY, false);
+
+        final String mName;
+        /** Columns of the sort key, before the record ID */
+        final String[] mKeyColumns;
+        /** True if the key columns are text, compared without case */
+        final boolean mText;
+
+        Sort(String name, boolean text) {
+            mName = name;
+            mKeyColumns = RecordEntry.getPageKeyColumns(name);
+            mText = text;
+        }
+
+        /** Expression of a key column, as it appears in the sort order and the comparisons */
+        String key(String column) {
+            return mText ? column + " COLLATE NOCASE" : column;
+        }
+
+        /** Placeholder for a value of a key column, which arguments bind as text */
+        String placeholder() {
+            return mText ? "?" : INTEGER_ARGUMENT;
+        }
+
+        static Sort fromName(String name) {
+            for (Sort sort : values()) {
+                if (sort.mName.equals(name)) {
+                    return sort;
+                }
+            }
+            throw new IllegalArgumentException("Cannot sort records by " + name);
+        }
+    }
+
+    /**
+     * Placeholder for an integer argument. Arguments are bound as text, which a comparison with
+     * a column written with a unary "+" would not turn into a number.
+     */
+    private static final String INTEGER_ARGUMENT = "CAST(? AS INTEGER)";
+
+    final String mSelection;
+    final String[] mSelectionArgs;
+    final String mSortOrder;
+    /** Maximum number of rows to return, or null for all of them */
+    final String mLimit;
+
+    private RecordQuery(String selection, String[] selectionArgs, String sortOrder, String limit) {
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mLimit = limit;
+    }
+
+    /**
+     * Build the query of the records URI, adding its parameters to the selection given by the
+     * caller. A sort order given by the caller is only kept if the URI doesn't ask for a sort,
+     * a direction or a page, and then the filters are left for SQLite to plan.
+     */
+    static RecordQuery fromUri(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        String sortName = uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_SORT);
+        String direction = uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_DIRECTION);
+        String limit = uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_LIMIT);
+        String afterId = uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_ID);
+
+        Sort sort = null;
+        boolean descending = false;
+        if (sortName != null || direction != null || limit != null || afterId != null) {
+            if (!TextUtils.isEmpty(sortOrder)) {
+                throw new IllegalArgumentException("Cannot combine a sort order with sorting or paging: " + uri);
+            }
+            sort = sortName == null ? Sort.ALBUM : Sort.fromName(sortName);
+            if (RecordEntry.DIRECTION_DESCENDING.equals(direction)) {
+                descending = true;
+            } else if (direction != null && !RecordEntry.DIRECTION_ASCENDING.equals(direction)) {
+                throw new IllegalArgumentException("Invalid sort direction: " + uri);
+            }
+        }
+        if (limit != null) {
+            try {
+                if (Integer.parseInt(limit) <= 0) {
+                    throw new IllegalArgumentException("Page limit must be positive: " + uri);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page limit: " + uri);
+            }
+        }
+
+        List<String> terms = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        if (!TextUtils.isEmpty(selection)) {
+            terms.add("(" + selection + ")");
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+
+        addRange(uri, sort, RecordEntry.COLUMN_PRICE, RecordEntry.QUERY_PARAMETER_MIN_PRICE, ">=", terms, args);
+        addRange(uri, sort, RecordEntry.COLUMN_PRICE, RecordEntry.QUERY_PARAMETER_MAX_PRICE, "<=", terms, args);
+        // The quantity filters keep the stock the list shows, sales included. It's never above
+        // the stored quantity, so the lowest quantity also narrows the walk of the stored one
+        addRange(uri, sort, RecordEntry.COLUMN_STOCKED_QUANTITY, RecordEntry.QUERY_PARAMETER_MIN_QUANTITY,
+                ">=", terms, args);
+        addRange(uri, null, RecordEntry.COLUMN_QUANTITY, RecordEntry.QUERY_PARAMETER_MIN_QUANTITY,
+                ">=", terms, args);
+        addRange(uri, null, RecordEntry.COLUMN_QUANTITY, RecordEntry.QUERY_PARAMETER_MAX_QUANTITY,
+                "<=", terms, args);
+        addRange(uri, sort, RecordEntry.COLUMN_SUPPLIER_ID, RecordEntry.QUERY_PARAMETER_SUPPLIER,
+                "=", terms, args);
+
+        if (afterId != null) {
+            addPageStart(uri, sort, descending, afterId, terms, args);
+        }
+
+        if (sort != null) {
+            String order = descending ? " DESC" : "";
+            StringBuilder builder = new StringBuilder();
+            for (String column : sort.mKeyColumns) {
+                builder.append(sort.key(column)).append(order).append(", ");
+            }
+            sortOrder = builder.append(RecordEntry._ID).append(order).toString();
+        }
+
+        String where = terms.isEmpty() ? null : TextUtils.join(" AND ", terms);
+        String[] whereArgs = args.isEmpty() ? null : args.toArray(new String[args.size()]);
+        return new RecordQuery(where, whereArgs, sortOrder, limit);
+    }
+
+    /**
+     * Add the comparison of an integer column with the value of a query parameter, if the URI
+     * has it. A column other than the first one of the sort is only checked on the rows the sort
+     * reaches. Without a sort, the column is left for SQLite to plan, which makes no difference
+     * to a column that is computed by the view.
+     */
+    private static void addRange(Uri uri, Sort sort, String column, String parameter, String operator,
+                                 List<String> terms, List<String> args) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return;
+        }
+        try {
+            Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + parameter + ": " + uri);
+        }
+        boolean indexed = sort == null || column.equals(sort.mKeyColumns[0]);
+        terms.add((indexed ? "" : "+") + column + " " + operator + " " + INTEGER_ARGUMENT);
+        args.add(value);
+    }
+
+    /**
+     * Add the condition that only keeps the rows after the given sort key and ID, for instance
+     * "key > afterKey OR (key = afterKey AND _id > afterId)", written so that the first key
+     * can be answered by a range scan of the index.
+     */
+    private static void addPageStart(Uri uri, Sort sort, boolean descending, String afterId,
+                                     List<String> terms, List<String> args) {
+        List<String> afterKeys = uri.getQueryParameters(RecordEntry.QUERY_PARAMETER_AFTER_KEY);
+        if (afterKeys.size() != sort.mKeyColumns.length) {
+            throw new IllegalArgumentException("Page start requires a key per sort column and an ID: " + uri);
+        }
+        try {
+            Long.parseLong(afterId);
+            if (!sort.mText) {
+                for (String afterKey : afterKeys) {
+                    Long.parseLong(afterKey);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page start: " + uri);
+        }
+
+        String after = descending ? " < " : " > ";
+        String placeholder = sort.placeholder();
+        String first = sort.key(sort.mKeyColumns[0]);
+        StringBuilder keyset = new StringBuilder(first).append(descending ? " <= " : " >= ").append(placeholder);
+        args.add(afterKeys.get(0));
+
+        // Past the first key, the rows left either have a later first key, or the same first
+        // key and a later rest of the key
+        keyset.append(" AND (").append(first).append(after).append(placeholder);
+        args.add(afterKeys.get(0));
+        int open = 1;
+        for (int i = 1; i < sort.mKeyColumns.length; i++) {
+            String key = sort.key(sort.mKeyColumns[i]);
+            keyset.append(" OR (").append(key).append(after).append(placeholder)
+                    .append(" OR (").append(key).append(" = ").append(placeholder).append(" AND ");
+            args.add(afterKeys.get(i));
+            args.add(afterKeys.get(i));
+            open += 2;
+        }
+        keyset.append(sort.mKeyColumns.length == 1 ? " OR " : "")
+                .append(RecordEntry._ID).append(after).append("?");
+        args.add(afterId);
+        for (int i = 0; i < open; i++) {
+            keyset.append(')');
+        }
+        terms.add(keyset.toString());
+    }
+}
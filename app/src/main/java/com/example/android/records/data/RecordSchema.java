@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SalesEntry;
+import com.example.android.records.data.RecordContract.SummaryEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQL of the records database: the statements that create its tables, indexes, views and
+ * triggers, and the selections that depend on them. It uses no Android class, so every
+ * {@link RecordStore} builds the same schema, {@link RecordDbHelper} on the device and the JDBC
+ * store on a build host.
+ */
+final class RecordSchema {
+
+    /**
+     * Version of the schema. If you change the schema, you must increment the version and
+     * upgrade older databases in {@link RecordDbHelper}.
+     */
+    static final int VERSION = 7;
+
+    /**
+     * Full-text index over the searchable columns of the records table. It's an external content
+     * table, so it only stores the index and reads the text back from the records table.
+     */
+    static final String TABLE_RECORDS_FTS = "records_fts";
+
+    /** Columns of {@link #TABLE_RECORDS_FTS}, in the order of the index */
+    static final String[] SEARCH_COLUMNS = {
+            RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME, RecordEntry.COLUMN_SUPPLIER_NAME};
+
+    /** Index for sorting and looking up records alphabetically by band, then album. */
+    private static final String INDEX_BAND_ALBUM = "records_band_album_idx";
+
+    /** Index for sorting and looking up records alphabetically by album. */
+    private static final String INDEX_ALBUM = "records_album_idx";
+
+    /** Index for looking up all the records of a supplier, by supplier ID. */
+    private static final String INDEX_SUPPLIER = "records_supplier_idx";
+
+    /** Index for sorting and filtering records by the quantity in stock. */
+    private static final String INDEX_QUANTITY = "records_quantity_idx";
+
+    /** Index for sorting and filtering records by price. */
+    private static final String INDEX_PRICE = "records_price_idx";
+
+    /**
+     * Index of the sales of each record, which also holds the number of units, so the sales not
+     * applied yet are summed from the index alone. It also serves the deletion of the sales of
+     * a deleted record.
+     */
+    private static final String INDEX_SALES_RECORD = "sales_record_idx";
+
+    /** Index for finding the sales not applied yet, oldest first. */
+    private static final String INDEX_SALES_PENDING = "sales_pending_idx";
+
+    /** Index for reading the sales made in a time range. */
+    private static final String INDEX_SALES_SOLD_AT = "sales_sold_at_idx";
+
+    /**
+     * Number of units of the sales of the record "r" not applied yet, summed from
+     * {@link #INDEX_SALES_RECORD} alone.
+     */
+    private static final String PENDING_UNITS = "IFNULL((SELECT SUM(" + SalesEntry.COLUMN_UNITS + ") FROM "
+            + SalesEntry.TABLE_NAME + " WHERE " + SalesEntry.COLUMN_RECORD_ID + " = r." + RecordEntry._ID
+            + " AND " + SalesEntry.COLUMN_APPLIED + " = 0), 0)";
+
+    /**
+     * Selection of the records of {@link RecordEntry#VIEW_NAME} whose stock, sales included, is
+     * at most a threshold given twice as an argument. The stock is never above the stored
+     * quantity, so a record running low either has a low stored quantity, found through
+     * {@link #INDEX_QUANTITY}, or sales not applied yet, found through
+     * {@link #INDEX_SALES_PENDING}. SQLite reads both lists from their index and only checks the
+     * stock of the records on them, so the cost follows the number of records running low and
+     * not the size of the catalog.
+     */
+    static final String LOW_STOCK_SELECTION = RecordEntry.COLUMN_QUANTITY + " <= CAST(? AS INTEGER) AND ("
+            + RecordEntry.COLUMN_STOCKED_QUANTITY + " <= CAST(? AS INTEGER) OR " + RecordEntry._ID + " IN (SELECT "
+            + SalesEntry.COLUMN_RECORD_ID + " FROM " + SalesEntry.TABLE_NAME + " WHERE "
+            + SalesEntry.COLUMN_APPLIED + " = 0))";
+
+    /**
+     * Temporary table of the records picked by an update, before anything is written. It lives
+     * on the connection that writes, is filled and emptied inside the update's transaction, and
+     * lets the statements of the update select the records without their IDs being pasted into
+     * the SQL, whose length SQLite limits.
+     */
+    private static final String TABLE_PICKED_RECORDS = "picked_records";
+
+    /** Statement creating {@link #TABLE_PICKED_RECORDS} on the connection, unless it has it */
+    static final String CREATE_PICKED_RECORDS = "CREATE TEMP TABLE IF NOT EXISTS "
+            + TABLE_PICKED_RECORDS + " (" + RecordEntry._ID + " INTEGER PRIMARY KEY)";
+
+    /** Statement emptying {@link #TABLE_PICKED_RECORDS} */
+    static final String CLEAR_PICKED_RECORDS = "DELETE FROM temp." + TABLE_PICKED_RECORDS;
+
+    /** Query of the IDs held by {@link #TABLE_PICKED_RECORDS} */
+    static final String PICKED_RECORD_IDS = "SELECT " + RecordEntry._ID + " FROM temp."
+            + TABLE_PICKED_RECORDS;
+
+    // Only static members
+    private RecordSchema() {
+    }
+
+    /**
+     * Return the statements that create the schema of a new database, in order.
+     */
+    static List<String> create() {
+        List<String> statements = new ArrayList<>();
+        statements.add(suppliersTable());
+        statements.add(recordsTable(RecordEntry.TABLE_NAME));
+        statements.addAll(recordIndexes());
+        statements.add(supplierIndex());
+        statements.addAll(salesTable());
+        statements.add(recordsView());
+        statements.addAll(searchIndex());
+        statements.addAll(summaryTables());
+        return statements;
+    }
+
+    /**
+     * Return the statement adding the records of {@link RecordEntry#VIEW_NAME} matching the
+     * given selection to {@link #TABLE_PICKED_RECORDS}. The selection arguments are bound to it.
+     */
+    static String pickRecords(String selection) {
+        return "INSERT INTO temp." + TABLE_PICKED_RECORDS + " SELECT " + RecordEntry._ID + " FROM "
+                + RecordEntry.VIEW_NAME + " WHERE " + selection;
+    }
+
+    /**
+     * Return the statement creating the suppliers table. A supplier is identified by its name
+     * and email, compared without case, so the same supplier typed twice is only stored once.
+     */
+    static String suppliersTable() {
+        return "CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SupplierEntry.COLUMN_NAME + " TEXT NOT NULL COLLATE NOCASE, "
+                + SupplierEntry.COLUMN_EMAIL + " TEXT NOT NULL COLLATE NOCASE, "
+                + "UNIQUE (" + SupplierEntry.COLUMN_NAME + ", " + SupplierEntry.COLUMN_EMAIL + "));";
+    }
+
+    /**
+     * Return the statement creating the records table, or a copy of it under another name.
+     */
+    static String recordsTable(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
+                + RecordEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + RecordEntry.COLUMN_ALBUM_NAME + " TEXT NOT NULL, "
+                + RecordEntry.COLUMN_BAND_NAME + " TEXT NOT NULL, "
+                + RecordEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + RecordEntry.COLUMN_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                + RecordEntry.COLUMN_RECORD_COVER + " TEXT NOT NULL, "
+                + RecordEntry.COLUMN_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "));";
+    }
+
+    /**
+     * Return the statements creating the secondary indexes of the records table, unless they
+     * exist. The name indexes use the NOCASE collation so that "ORDER BY ... COLLATE NOCASE" can
+     * walk the index instead of sorting.
+     */
+    static List<String> recordIndexes() {
+        return Arrays.asList(
+                "CREATE INDEX IF NOT EXISTS " + INDEX_BAND_ALBUM + " ON " + RecordEntry.TABLE_NAME + " ("
+                        + RecordEntry.COLUMN_BAND_NAME + " COLLATE NOCASE, "
+                        + RecordEntry.COLUMN_ALBUM_NAME + " COLLATE NOCASE);",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_ALBUM + " ON " + RecordEntry.TABLE_NAME + " ("
+                        + RecordEntry.COLUMN_ALBUM_NAME + " COLLATE NOCASE);",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_QUANTITY + " ON " + RecordEntry.TABLE_NAME + " ("
+                        + RecordEntry.COLUMN_QUANTITY + ");",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_PRICE + " ON " + RecordEntry.TABLE_NAME + " ("
+                        + RecordEntry.COLUMN_PRICE + ");");
+    }
+
+    /**
+     * Return the statement creating the index from suppliers to their records, unless it exists.
+     */
+    static String supplierIndex() {
+        return "CREATE INDEX IF NOT EXISTS " + INDEX_SUPPLIER + " ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_SUPPLIER_ID + ");";
+    }
+
+    /**
+     * Return the statements creating the sales ledger. A sale only appends a row here, the
+     * compactor later subtracts it from the quantity of its record in bulk. The sales of a
+     * record go when the record does. Android 4.4 ships an SQLite without partial indexes, so
+     * the sales not applied yet are found through indexes that start with the applied flag.
+     */
+    static List<String> salesTable() {
+        return Arrays.asList(
+                "CREATE TABLE " + SalesEntry.TABLE_NAME + " ("
+                        + SalesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + SalesEntry.COLUMN_RECORD_ID + " INTEGER NOT NULL REFERENCES "
+                        + RecordEntry.TABLE_NAME + " (" + RecordEntry._ID + ") ON DELETE CASCADE, "
+                        + SalesEntry.COLUMN_UNITS + " INTEGER NOT NULL, "
+                        + SalesEntry.COLUMN_SOLD_AT + " INTEGER NOT NULL, "
+                        + SalesEntry.COLUMN_APPLIED + " INTEGER NOT NULL DEFAULT 0);",
+                "CREATE INDEX " + INDEX_SALES_RECORD + " ON " + SalesEntry.TABLE_NAME + " ("
+                        + SalesEntry.COLUMN_RECORD_ID + ", " + SalesEntry.COLUMN_APPLIED + ", "
+                        + SalesEntry.COLUMN_UNITS + ");",
+                "CREATE INDEX " + INDEX_SALES_PENDING + " ON " + SalesEntry.TABLE_NAME + " ("
+                        + SalesEntry.COLUMN_APPLIED + ", " + SalesEntry._ID + ");",
+                "CREATE INDEX " + INDEX_SALES_SOLD_AT + " ON " + SalesEntry.TABLE_NAME + " ("
+                        + SalesEntry.COLUMN_SOLD_AT + ");");
+    }
+
+    /**
+     * Return the statement creating the view that shows each record with the name and email of
+     * its supplier, as the records table used to, and its current stock: the stored quantity
+     * minus the sales not applied yet. The view is what the provider reads, so callers see
+     * neither the suppliers table nor the sales ledger. The stored quantity is shown as well:
+     * the current stock is computed for each row, so only the stored quantity can be sorted or
+     * filtered by index.
+     */
+    static String recordsView() {
+        return "CREATE VIEW " + RecordEntry.VIEW_NAME + " AS SELECT "
+                + "r." + RecordEntry._ID + " AS " + RecordEntry._ID + ", "
+                + "r." + RecordEntry.COLUMN_ALBUM_NAME + " AS " + RecordEntry.COLUMN_ALBUM_NAME + ", "
+                + "r." + RecordEntry.COLUMN_BAND_NAME + " AS " + RecordEntry.COLUMN_BAND_NAME + ", "
+                + "r." + RecordEntry.COLUMN_QUANTITY + " - " + PENDING_UNITS + " AS " + RecordEntry.COLUMN_QUANTITY + ", "
+                + "r." + RecordEntry.COLUMN_QUANTITY + " AS " + RecordEntry.COLUMN_STOCKED_QUANTITY + ", "
+                + "r." + RecordEntry.COLUMN_PRICE + " AS " + RecordEntry.COLUMN_PRICE + ", "
+                + "r." + RecordEntry.COLUMN_RECORD_COVER + " AS " + RecordEntry.COLUMN_RECORD_COVER + ", "
+                + "r." + RecordEntry.COLUMN_SUPPLIER_ID + " AS " + RecordEntry.COLUMN_SUPPLIER_ID + ", "
+                + "s." + SupplierEntry.COLUMN_NAME + " AS " + RecordEntry.COLUMN_SUPPLIER_NAME + ", "
+                + "s." + SupplierEntry.COLUMN_EMAIL + " AS " + RecordEntry.COLUMN_SUPPLIER_EMAIL + " "
+                + "FROM " + RecordEntry.TABLE_NAME + " AS r JOIN " + SupplierEntry.TABLE_NAME + " AS s "
+                + "ON s." + SupplierEntry._ID + " = r." + RecordEntry.COLUMN_SUPPLIER_ID + ";";
+    }
+
+    /**
+     * Return the statements creating the full-text index of the records, filling it, and
+     * adding the triggers that keep it in sync with the records and suppliers tables. The index
+     * keeps its own copy of the text, since the supplier name isn't in the records table any
+     * more. The update triggers only fire when a searchable column changes, so stock changes
+     * don't touch the index.
+     */
+    static List<String> searchIndex() {
+        String columns = SEARCH_COLUMNS[0] + ", " + SEARCH_COLUMNS[1] + ", " + SEARCH_COLUMNS[2];
+        String newSupplierName = "(SELECT " + SupplierEntry.COLUMN_NAME + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = new." + RecordEntry.COLUMN_SUPPLIER_ID + ")";
+
+        return Arrays.asList(
+                "CREATE VIRTUAL TABLE " + TABLE_RECORDS_FTS + " USING fts4("
+                        + "prefix=\"2,3\", "
+                        + columns + ");",
+                // Filled from the tables rather than the view, which doesn't exist yet when
+                // upgrading from a version older than 5
+                "INSERT INTO " + TABLE_RECORDS_FTS + " (docid, " + columns + ") SELECT "
+                        + "r." + RecordEntry._ID + ", r." + RecordEntry.COLUMN_ALBUM_NAME + ", "
+                        + "r." + RecordEntry.COLUMN_BAND_NAME + ", s." + SupplierEntry.COLUMN_NAME + " "
+                        + "FROM " + RecordEntry.TABLE_NAME + " AS r JOIN " + SupplierEntry.TABLE_NAME + " AS s "
+                        + "ON s." + SupplierEntry._ID + " = r." + RecordEntry.COLUMN_SUPPLIER_ID + ";",
+                "CREATE TRIGGER " + TABLE_RECORDS_FTS + "_ai AFTER INSERT ON " + RecordEntry.TABLE_NAME
+                        + " BEGIN INSERT INTO " + TABLE_RECORDS_FTS + " (docid, " + columns + ") VALUES ("
+                        + "new." + RecordEntry._ID + ", "
+                        + "new." + RecordEntry.COLUMN_ALBUM_NAME + ", "
+                        + "new." + RecordEntry.COLUMN_BAND_NAME + ", "
+                        + newSupplierName + "); END;",
+                "CREATE TRIGGER " + TABLE_RECORDS_FTS + "_au AFTER UPDATE OF "
+                        + RecordEntry.COLUMN_ALBUM_NAME + ", " + RecordEntry.COLUMN_BAND_NAME + ", "
+                        + RecordEntry.COLUMN_SUPPLIER_ID + " ON " + RecordEntry.TABLE_NAME
+                        + " BEGIN UPDATE " + TABLE_RECORDS_FTS + " SET "
+                        + RecordEntry.COLUMN_ALBUM_NAME + " = new." + RecordEntry.COLUMN_ALBUM_NAME + ", "
+                        + RecordEntry.COLUMN_BAND_NAME + " = new." + RecordEntry.COLUMN_BAND_NAME + ", "
+                        + RecordEntry.COLUMN_SUPPLIER_NAME + " = " + newSupplierName
+                        + " WHERE docid = new." + RecordEntry._ID + "; END;",
+                "CREATE TRIGGER " + TABLE_RECORDS_FTS + "_ad AFTER DELETE ON " + RecordEntry.TABLE_NAME
+                        + " BEGIN DELETE FROM " + TABLE_RECORDS_FTS + " WHERE docid = old." + RecordEntry._ID + "; END;",
+                "CREATE TRIGGER " + TABLE_RECORDS_FTS + "_supplier_au AFTER UPDATE OF "
+                        + SupplierEntry.COLUMN_NAME + " ON " + SupplierEntry.TABLE_NAME
+                        + " BEGIN UPDATE " + TABLE_RECORDS_FTS + " SET "
+                        + RecordEntry.COLUMN_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_NAME
+                        + " WHERE docid IN (SELECT " + RecordEntry._ID + " FROM " + RecordEntry.TABLE_NAME
+                        + " WHERE " + RecordEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID + "); END;");
+    }
+
+    /**
+     * Return the statements creating the tables of inventory totals, filling them from the
+     * records, and adding the triggers that keep them up to date. Each trigger only adjusts the
+     * totals the changed record counts towards, so keeping them costs a few row updates per
+     * write and reading them never scans the records table. The update trigger only fires when
+     * a column the totals depend on changes.
+     */
+    static List<String> summaryTables() {
+        String totalsColumns = SummaryEntry.COLUMN_TITLE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_UNIT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0";
+        return Arrays.asList(
+                "CREATE TABLE " + SummaryEntry.TABLE_TOTALS + " ("
+                        + SummaryEntry._ID + " INTEGER PRIMARY KEY, " + totalsColumns + ");",
+                "CREATE TABLE " + SummaryEntry.TABLE_BAND_TOTALS + " ("
+                        + SummaryEntry.COLUMN_GROUP_NAME + " TEXT PRIMARY KEY, " + totalsColumns + ");",
+                "CREATE TABLE " + SummaryEntry.TABLE_SUPPLIER_TOTALS + " ("
+                        + RecordEntry.COLUMN_SUPPLIER_ID + " INTEGER PRIMARY KEY, " + totalsColumns + ");",
+                "CREATE VIEW " + SummaryEntry.VIEW_SUPPLIER_TOTALS + " AS SELECT "
+                        + "s." + SupplierEntry.COLUMN_NAME + " AS " + SummaryEntry.COLUMN_GROUP_NAME + ", "
+                        + "t." + RecordEntry.COLUMN_SUPPLIER_ID + " AS " + RecordEntry.COLUMN_SUPPLIER_ID + ", "
+                        + "t." + SummaryEntry.COLUMN_TITLE_COUNT + " AS " + SummaryEntry.COLUMN_TITLE_COUNT + ", "
+                        + "t." + SummaryEntry.COLUMN_UNIT_COUNT + " AS " + SummaryEntry.COLUMN_UNIT_COUNT + ", "
+                        + "t." + SummaryEntry.COLUMN_STOCK_VALUE + " AS " + SummaryEntry.COLUMN_STOCK_VALUE + " "
+                        + "FROM " + SummaryEntry.TABLE_SUPPLIER_TOTALS + " AS t JOIN " + SupplierEntry.TABLE_NAME + " AS s "
+                        + "ON s." + SupplierEntry._ID + " = t." + RecordEntry.COLUMN_SUPPLIER_ID + ";",
+
+                "INSERT INTO " + SummaryEntry.TABLE_TOTALS + " (" + SummaryEntry._ID + ", "
+                        + SummaryEntry.COLUMN_TITLE_COUNT + ", " + SummaryEntry.COLUMN_UNIT_COUNT + ", "
+                        + SummaryEntry.COLUMN_STOCK_VALUE + ") SELECT 1, COUNT(*), "
+                        + "IFNULL(SUM(" + RecordEntry.COLUMN_QUANTITY + "), 0), "
+                        + "IFNULL(SUM(" + RecordEntry.COLUMN_QUANTITY + " * " + RecordEntry.COLUMN_PRICE + "), 0) "
+                        + "FROM " + RecordEntry.TABLE_NAME + ";",
+                fillGroupTotals(SummaryEntry.TABLE_BAND_TOTALS, SummaryEntry.COLUMN_GROUP_NAME,
+                        RecordEntry.COLUMN_BAND_NAME),
+                fillGroupTotals(SummaryEntry.TABLE_SUPPLIER_TOTALS, RecordEntry.COLUMN_SUPPLIER_ID,
+                        RecordEntry.COLUMN_SUPPLIER_ID),
+
+                "CREATE TRIGGER summary_ai AFTER INSERT ON " + RecordEntry.TABLE_NAME
+                        + " BEGIN " + addToTotals("new") + "END;",
+                "CREATE TRIGGER summary_au AFTER UPDATE OF "
+                        + RecordEntry.COLUMN_BAND_NAME + ", " + RecordEntry.COLUMN_QUANTITY + ", "
+                        + RecordEntry.COLUMN_PRICE + ", " + RecordEntry.COLUMN_SUPPLIER_ID
+                        + " ON " + RecordEntry.TABLE_NAME
+                        + " BEGIN " + removeFromTotals("old") + addToTotals("new") + "END;",
+                "CREATE TRIGGER summary_ad AFTER DELETE ON " + RecordEntry.TABLE_NAME
+                        + " BEGIN " + removeFromTotals("old") + "END;");
+    }
+
+    private static String fillGroupTotals(String table, String keyColumn, String groupColumn) {
+        return "INSERT INTO " + table + " (" + keyColumn + ", "
+                + SummaryEntry.COLUMN_TITLE_COUNT + ", " + SummaryEntry.COLUMN_UNIT_COUNT + ", "
+                + SummaryEntry.COLUMN_STOCK_VALUE + ") SELECT " + groupColumn + ", COUNT(*), "
+                + "SUM(" + RecordEntry.COLUMN_QUANTITY + "), "
+                + "SUM(" + RecordEntry.COLUMN_QUANTITY + " * " + RecordEntry.COLUMN_PRICE + ") "
+                + "FROM " + RecordEntry.TABLE_NAME + " GROUP BY " + groupColumn + ";";
+    }
+
+    /**
+     * Return the trigger statements that count the given row ("new" or "old") in the totals,
+     * creating the band and supplier rows it needs.
+     */
+    private static String addToTotals(String row) {
+        String add = adjustTotals(row, "+");
+        return "UPDATE " + SummaryEntry.TABLE_TOTALS + " SET " + add + " WHERE " + SummaryEntry._ID + " = 1; "
+                + addToGroup(SummaryEntry.TABLE_BAND_TOTALS, SummaryEntry.COLUMN_GROUP_NAME,
+                        row + "." + RecordEntry.COLUMN_BAND_NAME, add)
+                + addToGroup(SummaryEntry.TABLE_SUPPLIER_TOTALS, RecordEntry.COLUMN_SUPPLIER_ID,
+                        row + "." + RecordEntry.COLUMN_SUPPLIER_ID, add);
+    }
+
+    private static String addToGroup(String table, String keyColumn, String key, String add) {
+        return "INSERT OR IGNORE INTO " + table + " (" + keyColumn + ") VALUES (" + key + "); "
+                + "UPDATE " + table + " SET " + add + " WHERE " + keyColumn + " = " + key + "; ";
+    }
+
+    /**
+     * Return the trigger statements that stop counting the given row ("new" or "old") in the
+     * totals, dropping the band and supplier rows that no longer have any record.
+     */
+    private static String removeFromTotals(String row) {
+        String remove = adjustTotals(row, "-");
+        return "UPDATE " + SummaryEntry.TABLE_TOTALS + " SET " + remove + " WHERE " + SummaryEntry._ID + " = 1; "
+                + removeFromGroup(SummaryEntry.TABLE_BAND_TOTALS, SummaryEntry.COLUMN_GROUP_NAME,
+                        row + "." + RecordEntry.COLUMN_BAND_NAME, remove)
+                + removeFromGroup(SummaryEntry.TABLE_SUPPLIER_TOTALS, RecordEntry.COLUMN_SUPPLIER_ID,
+                        row + "." + RecordEntry.COLUMN_SUPPLIER_ID, remove);
+    }
+
+    private static String removeFromGroup(String table, String keyColumn, String key, String remove) {
+        return "UPDATE " + table + " SET " + remove + " WHERE " + keyColumn + " = " + key + "; "
+                + "DELETE FROM " + table + " WHERE " + keyColumn + " = " + key
+                + " AND " + SummaryEntry.COLUMN_TITLE_COUNT + " = 0; ";
+    }
+
+    /**
+     * Return the SET clause that adds or subtracts (sign "+" or "-") the given row to totals.
+     */
+    private static String adjustTotals(String row, String sign) {
+        return SummaryEntry.COLUMN_TITLE_COUNT + " = " + SummaryEntry.COLUMN_TITLE_COUNT + " " + sign + " 1, "
+                + SummaryEntry.COLUMN_UNIT_COUNT + " = " + SummaryEntry.COLUMN_UNIT_COUNT + " " + sign + " "
+                + row + "." + RecordEntry.COLUMN_QUANTITY + ", "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE + " " + sign + " "
+                + row + "." + RecordEntry.COLUMN_QUANTITY + " * " + row + "." + RecordEntry.COLUMN_PRICE;
+    }
+}
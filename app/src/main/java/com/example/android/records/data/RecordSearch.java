@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * SQL of a full-text search of the records. Every term has to match the start of a word in the
+ * album, band or supplier name. Unless a sort order is given, records whose album matches every
+ * term come first, then band matches, then supplier matches, then records that only match
+ * across several columns, each group sorted by album.
+ * <p>
+ * The index is matched once, and the group of each match is read from its {@code matchinfo},
+ * which tells in which columns each term was found. With a limit, the matches are sorted and
+ * cut to the page before they are joined to {@link RecordEntry#VIEW_NAME}, so the stock and
+ * supplier of a record are only read for the rows that are returned. It uses no Android class,
+ * so the JDBC store runs the same search as the provider.
+ */
+final class RecordSearch {
+
+    /**
+     * Sort order of the results unless the caller gives one. It reads the same inside the page
+     * query, where the record columns come from the view joined to the matches, and outside it.
+     */
+    private static final String RANK_ORDER = RecordEntry.COLUMN_SEARCH_RANK + ", "
+            + RecordEntry.COLUMN_ALBUM_NAME + " COLLATE NOCASE, " + RecordEntry._ID;
+
+    /** Bytes of a value of {@code matchinfo} */
+    private static final int MATCHINFO_INT_SIZE = 4;
+
+    /** Values of the "x" format of {@code matchinfo} for each term and column */
+    private static final int MATCHINFO_X_VALUES = 3;
+
+    final String mSql;
+    final String[] mArgs;
+
+    private RecordSearch(String sql, String[] args) {
+        mSql = sql;
+        mArgs = args;
+    }
+
+    /**
+     * Build the search of the given text, or return null if the text has no searchable terms.
+     * With a limit, the results are paged as the records URI pages them: the page starts after
+     * the given sort key, which is the {@link RecordEntry#getSearchPageKeyColumns()} of the last
+     * row of the previous page, and the given ID.
+     *
+     * @param text          typed by the user
+     * @param projection    columns of {@link RecordEntry#VIEW_NAME} and
+     *                      {@link RecordEntry#COLUMN_SEARCH_RANK} to return, or null for every
+     *                      column of the view
+     * @param selection     on the view, or null
+     * @param selectionArgs replacing the "?" placeholders of the selection
+     * @param sortOrder     ORDER BY clause, or null to sort by rank
+     * @param limit         maximum number of rows to return, or null for all of them
+     * @param afterKeys     sort key after which the page starts, or empty for the first page
+     * @param afterId       ID after which the page starts, or null for the first page
+     * @throws IllegalArgumentException if the limit or page start are invalid
+     */
+    static RecordSearch build(String text, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder, String limit,
+                              List<String> afterKeys, String afterId) {
+        boolean ranked = sortOrder == null || sortOrder.isEmpty();
+        if (limit != null) {
+            try {
+                if (Integer.parseInt(limit) <= 0) {
+                    throw new IllegalArgumentException("Page limit must be positive: " + limit);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page limit: " + limit);
+            }
+        }
+        if (afterId != null && (!ranked || limit == null)) {
+            throw new IllegalArgumentException("A page start requires a limit and the rank order");
+        }
+
+        List<String> terms = getTerms(text);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        List<String> args = new ArrayList<>();
+        args.add(buildMatchExpression(terms));
+
+        // The matches with their rank. The OFFSET keeps SQLite from merging the subquery into
+        // the one ranking it, which would compute matchinfo once for each use of it
+        StringBuilder page = new StringBuilder("SELECT m.docid AS docid, m.")
+                .append(RecordEntry.COLUMN_SEARCH_RANK).append(" AS ").append(RecordEntry.COLUMN_SEARCH_RANK)
+                .append(" FROM (SELECT docid, ").append(buildRank(terms.size())).append(" AS ")
+                .append(RecordEntry.COLUMN_SEARCH_RANK).append(" FROM (SELECT docid, matchinfo(")
+                .append(RecordSchema.TABLE_RECORDS_FTS).append(", 'x') AS mi FROM ")
+                .append(RecordSchema.TABLE_RECORDS_FTS).append(" WHERE ")
+                .append(RecordSchema.TABLE_RECORDS_FTS).append(" MATCH ? LIMIT -1 OFFSET 0)) AS m")
+                .append(" JOIN ").append(RecordEntry.VIEW_NAME).append(" AS p ON p.")
+                .append(RecordEntry._ID).append(" = m.docid");
+
+        List<String> where = new ArrayList<>();
+        if (selection != null && !selection.isEmpty()) {
+            where.add("(" + selection + ")");
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+        if (afterId != null) {
+            where.add(buildPageStart(afterKeys, afterId, args));
+        }
+        for (int i = 0; i < where.size(); i++) {
+            page.append(i == 0 ? " WHERE " : " AND ").append(where.get(i));
+        }
+        String order = ranked ? RANK_ORDER : sortOrder;
+        if (limit != null) {
+            page.append(" ORDER BY ").append(order).append(" LIMIT ").append(limit);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (projection == null) {
+            sql.append("v.*");
+        } else {
+            for (int i = 0; i < projection.length; i++) {
+                sql.append(i == 0 ? "" : ", ").append(projection[i]);
+            }
+        }
+        sql.append(" FROM ").append(RecordEntry.VIEW_NAME).append(" AS v JOIN (").append(page)
+                .append(") AS matches ON v.").append(RecordEntry._ID).append(" = matches.docid")
+                .append(" ORDER BY ").append(order);
+        return new RecordSearch(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Return the terms of free text typed by the user, lower-cased and without punctuation, so
+     * the user can't write FTS operators.
+     */
+    private static List<String> getTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Turn the terms into an FTS prefix query, for instance "final* count*".
+     */
+    private static String buildMatchExpression(List<String> terms) {
+        StringBuilder expression = new StringBuilder();
+        for (String term : terms) {
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append(term).append('*');
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Return the expression of the rank of a match, from its {@code matchinfo(..., 'x')} named
+     * "mi": the index of the first searchable column holding every term, or the number of
+     * columns if no column holds them all. The first value for a term and column is the number
+     * of hits in the row, so the column holds the term unless those bytes are all zero.
+     */
+    private static String buildRank(int termCount) {
+        int columnCount = RecordSchema.SEARCH_COLUMNS.length;
+        StringBuilder rank = new StringBuilder("CASE");
+        for (int column = 0; column < columnCount; column++) {
+            rank.append(" WHEN ");
+            for (int term = 0; term < termCount; term++) {
+                int offset = (term * columnCount + column) * MATCHINFO_X_VALUES * MATCHINFO_INT_SIZE;
+                rank.append(term == 0 ? "" : " AND ").append("substr(mi, ").append(offset + 1)
+                        .append(", ").append(MATCHINFO_INT_SIZE).append(") <> x'00000000'");
+            }
+            rank.append(" THEN ").append(column);
+        }
+        return rank.append(" ELSE ").append(columnCount).append(" END").toString();
+    }
+
+    /**
+     * Return the condition that only keeps the matches after the given rank, album and ID.
+     */
+    private static String buildPageStart(List<String> afterKeys, String afterId, List<String> args) {
+        if (afterKeys.size() != RecordEntry.getSearchPageKeyColumns().length) {
+            throw new IllegalArgumentException("Page start requires a rank, an album and an ID");
+        }
+        try {
+            Integer.parseInt(afterKeys.get(0));
+            Long.parseLong(afterId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page start: " + afterKeys + ", " + afterId);
+        }
+        String rank = RecordEntry.COLUMN_SEARCH_RANK;
+        String album = RecordEntry.COLUMN_ALBUM_NAME + " COLLATE NOCASE";
+        Collections.addAll(args, afterKeys.get(0), afterKeys.get(0), afterKeys.get(1), afterKeys.get(1), afterId);
+        return "(" + rank + " > CAST(? AS INTEGER) OR (" + rank + " = CAST(? AS INTEGER) AND ("
+                + album + " > ? OR (" + album + " = ? AND " + RecordEntry._ID + " > ?))))";
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of the records, independent of how the provider is reached. Values are passed as maps
+ * from column name to value, as in {@link android.content.ContentValues}, and selections are
+ * plain SQL with "?" placeholders, so an implementation doesn't need any Android class.
+ * Implementations check every record they are given with {@link RecordValidator}, and don't
+ * send change notifications, that is left to the caller.
+ */
+public interface RecordStore {
+
+    /**
+     * Insert a record. Return the ID of the new row, or -1 if the insertion failed.
+     *
+     * @throws IllegalArgumentException if the record isn't valid
+     */
+    long insertRecord(Map<String, ?> values);
+
+    /**
+     * Insert all of the given records in a single transaction. If any record is invalid nothing
+     * is inserted. Return the number of rows inserted.
+     *
+     * @throws IllegalArgumentException if one of the records isn't valid
+     */
+    int insertRecords(List<? extends Map<String, ?>> records);
+
+    /**
+     * Update the columns given in the values for the record with the given ID. Return the number
+     * of rows updated, 0 or 1.
+     *
+     * @throws IllegalArgumentException if one of the values isn't valid
+     */
+    int updateRecord(long id, Map<String, ?> values);
+
+    /**
+     * Update the columns given in the values for every record matching the selection. Return
+     * the number of rows updated.
+     *
+     * @throws IllegalArgumentException if one of the values isn't valid, or only one of the
+     *                                  supplier name and email is given
+     */
+    int updateRecords(Map<String, ?> values, String selection, String[] selectionArgs);
+
+    /**
+     * Delete the record with the given ID. Return the number of rows deleted, 0 or 1.
+     */
+    int deleteRecord(long id);
+
+    /**
+     * Delete every record matching the selection, or all of them if the selection is null.
+     * Return the number of rows deleted.
+     */
+    int deleteRecords(String selection, String[] selectionArgs);
+
+    /**
+     * Atomically add the given delta to the quantity of a record, unless that would take the
+     * stock below 0. A negative delta is a sale, which is appended to the sales ledger and only
+     * folded into the quantity stored on the record by {@link #compactSales(int)}. Return the
+     * outcome, or null if there is no record with the given ID.
+     */
+    QuantityChange changeQuantity(long id, int delta);
+
+    /**
+     * Return the quantity in stock of the record with the given ID, sales included, or -1 if
+     * there is none.
+     */
+    long getQuantity(long id);
+
+    /**
+     * Fold the oldest sales not applied yet into the quantities of their records, at most the
+     * given number of them, in a single transaction. The stock doesn't change, only where it's
+     * kept. Return the number of sales applied, less than the maximum once none are left.
+     */
+    int compactSales(int maxSales);
+
+    /**
+     * Return the records whose stock, sales included, is at most the given threshold, lowest
+     * stock first. Each record is a map from column name to value, holding its ID, album name,
+     * band name, stock, and the ID, name and email of its supplier. Only the records running
+     * low are read, not the whole catalog.
+     */
+    List<Map<String, Object>> findLowStock(int threshold);
+
+    /**
+     * Release the resources held by the store.
+     */
+    void close();
+
+    /**
+     * Outcome of {@link #changeQuantity(long, int)}.
+     */
+    final class QuantityChange {
+        private final int mQuantity;
+        private final boolean mUpdated;
+
+        public QuantityChange(int quantity, boolean updated) {
+            mQuantity = quantity;
+            mUpdated = updated;
+        }
+
+        /** Quantity in stock after the change */
+        public int getQuantity() {
+            return mQuantity;
+        }
+
+        /** False if the change was refused because there wasn't enough stock */
+        public boolean isUpdated() {
+            return mUpdated;
+        }
+    }
+}
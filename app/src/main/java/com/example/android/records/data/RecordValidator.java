@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.Map;
+
+/**
+ * Rules a record has to follow to be stored, shared by every {@link RecordStore} and by the
+ * importers. Values are read the way {@link android.content.ContentValues} reads them, so a
+ * number given as a string is accepted.
+ */
+public final class RecordValidator {
+
+    // Only static methods
+    private RecordValidator() {
+    }
+
+    /**
+     * Check that the given values describe a valid new record, throwing an
+     * {@link IllegalArgumentException} that names the first missing or invalid attribute.
+     */
+    public static void checkRecord(Map<String, ?> values) {
+        if (values == null) {
+            throw new IllegalArgumentException("Record cannot be empty");
+        }
+        // Check that the album name is not null
+        if (values.get(RecordEntry.COLUMN_ALBUM_NAME) == null) {
+            throw new IllegalArgumentException("Record requires an album name");
+        }
+
+        // Check that the band name is not null
+        if (values.get(RecordEntry.COLUMN_BAND_NAME) == null) {
+            throw new IllegalArgumentException("Record requires a band name");
+        }
+
+        // Check that the quantity is provided and not negative
+        Integer quantity = getAsInteger(values, RecordEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity < 0) {
+            throw new IllegalArgumentException("Record requires a quantity");
+        }
+
+        // If the price is provided, check that it's greater than or equal to 0 £
+        Integer price = getAsInteger(values, RecordEntry.COLUMN_PRICE);
+        if (price != null && price < 0) {
+            throw new IllegalArgumentException("Record requires valid price");
+        }
+
+        // Check that the record image is not null
+        if (values.get(RecordEntry.COLUMN_RECORD_COVER) == null) {
+            throw new IllegalArgumentException("Record requires an image");
+        }
+
+        // Check that the record contact supplier name is not null
+        if (values.get(RecordEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Record requires a supplier contact name");
+        }
+
+        // Check that the record contact supplier email is not null
+        if (values.get(RecordEntry.COLUMN_SUPPLIER_EMAIL) == null) {
+            throw new IllegalArgumentException("Record requires a supplier contact email");
+        }
+    }
+
+    /**
+     * Check the values of an update, which only has to hold the columns that change. Each
+     * column that is given has to follow the same rule as for a new record.
+     */
+    public static void checkUpdate(Map<String, ?> values) {
+        if (values == null) {
+            return;
+        }
+        checkNotNull(values, RecordEntry.COLUMN_ALBUM_NAME, "Record requires an album name");
+        checkNotNull(values, RecordEntry.COLUMN_BAND_NAME, "Record requires a band name");
+        if (values.containsKey(RecordEntry.COLUMN_QUANTITY)) {
+            Integer quantity = getAsInteger(values, RecordEntry.COLUMN_QUANTITY);
+            if (quantity == null || quantity < 0) {
+                throw new IllegalArgumentException("Record requires a quantity");
+            }
+        }
+        Integer price = getAsInteger(values, RecordEntry.COLUMN_PRICE);
+        if (price != null && price < 0) {
+            throw new IllegalArgumentException("Record requires valid price");
+        }
+        checkNotNull(values, RecordEntry.COLUMN_RECORD_COVER, "Record requires an image");
+        checkNotNull(values, RecordEntry.COLUMN_SUPPLIER_NAME, "Record requires a supplier contact");
+        checkNotNull(values, RecordEntry.COLUMN_SUPPLIER_EMAIL, "Record requires a supplier email");
+    }
+
+    private static void checkNotNull(Map<String, ?> values, String column, String message) {
+        if (values.containsKey(column) && values.get(column) == null) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * Read a value as an integer, parsing it if it's a string. Return null if it's missing or
+     * isn't a number.
+     */
+    static Integer getAsInteger(Map<String, ?> values, String column) {
+        Object value = values.get(column);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value != null) {
+            try {
+                return Integer.valueOf(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
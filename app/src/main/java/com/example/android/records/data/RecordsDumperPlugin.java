@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.records.data.RecordContract.MetricsEntry;
+import com.example.android.records.data.RecordContract.ReorderEntry;
+import com.example.android.records.data.RecordContract.SlowQueryEntry;
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stetho dumpapp plugin printing the metrics of {@link RecordProvider}, read from
+ * {@link MetricsEntry#CONTENT_URI}. Run "dumpapp records" to print them, and
+ * "dumpapp records reset" to clear them. "dumpapp records slow" prints the slow queries read from
+ * {@link SlowQueryEntry#CONTENT_URI} with their plan, "dumpapp records slow clear" clears them
+ * and "dumpapp records slow threshold 20 nowarn" logs queries slower than 20 ms without warning
+ * about full scans. "dumpapp records reorders" prints the reorder list of the last stock check,
+ * read from {@link ReorderEntry#CONTENT_URI}.
+ */
+public class RecordsDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "records";
+
+    private static final String COMMAND_METRICS = "metrics";
+
+    private static final String COMMAND_RESET = "reset";
+
+    private static final String COMMAND_SLOW = "slow";
+
+    private static final String COMMAND_REORDERS = "reorders";
+
+    private static final String SLOW_CLEAR = "clear";
+
+    private static final String SLOW_THRESHOLD = "threshold";
+
+    private static final String SLOW_NO_WARN = "nowarn";
+
+    private static final String USAGE = "Usage: dumpapp " + NAME + " [" + COMMAND_METRICS + "|"
+            + COMMAND_RESET + "|" + COMMAND_SLOW + " [" + SLOW_CLEAR + "|" + SLOW_THRESHOLD
+            + " <millis> [" + SLOW_NO_WARN + "]]|" + COMMAND_REORDERS + "]";
+
+    private final ContentResolver mContentResolver;
+
+    public RecordsDumperPlugin(Context context) {
+        mContentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) throws DumpException {
+        PrintStream out = dumpContext.getStdout();
+        List<String> args = dumpContext.getArgsAsList();
+        String command = args.isEmpty() ? COMMAND_METRICS : args.get(0);
+        switch (command) {
+            case COMMAND_METRICS:
+                dumpMetrics(out);
+                break;
+            case COMMAND_RESET:
+                mContentResolver.call(MetricsEntry.CONTENT_URI, RecordContract.METHOD_RESET_METRICS, null, null);
+                out.println("Metrics cleared");
+                break;
+            case COMMAND_SLOW:
+                dumpSlow(out, args.subList(1, args.size()));
+                break;
+            case COMMAND_REORDERS:
+                dumpReorders(out);
+                break;
+            default:
+                throw new DumpUsageException(USAGE);
+        }
+    }
+
+    private void dumpSlow(PrintStream out, List<String> args) throws DumpUsageException {
+        if (args.isEmpty()) {
+            dumpSlowQueries(out);
+        } else if (SLOW_CLEAR.equals(args.get(0)) && args.size() == 1) {
+            mContentResolver.call(SlowQueryEntry.CONTENT_URI, RecordContract.METHOD_CLEAR_SLOW_QUERIES,
+                    null, null);
+            out.println("Slow queries cleared");
+        } else if (SLOW_THRESHOLD.equals(args.get(0)) && (args.size() == 2
+                || (args.size() == 3 && SLOW_NO_WARN.equals(args.get(2))))) {
+            long thresholdMillis;
+            try {
+                thresholdMillis = Long.parseLong(args.get(1));
+            } catch (NumberFormatException e) {
+                throw new DumpUsageException(USAGE);
+            }
+            Bundle extras = new Bundle();
+            extras.putBoolean(RecordContract.EXTRA_WARN_ON_FULL_SCAN, args.size() == 2);
+            mContentResolver.call(SlowQueryEntry.CONTENT_URI,
+                    RecordContract.METHOD_SET_SLOW_QUERY_THRESHOLD, String.valueOf(thresholdMillis), extras);
+            out.println("Logging queries slower than " + thresholdMillis + " ms");
+        } else {
+            throw new DumpUsageException(USAGE);
+        }
+    }
+
+    private void dumpSlowQueries(PrintStream out) {
+        Cursor cursor = mContentResolver.query(SlowQueryEntry.CONTENT_URI, null, null, null, null);
+        if (cursor == null) {
+            out.println("Provider unavailable");
+            return;
+        }
+        try {
+            if (cursor.getCount() == 0) {
+                out.println("No slow queries");
+                return;
+            }
+            SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+            while (cursor.moveToNext()) {
+                out.println(String.format(Locale.US, "%s %d us%s",
+                        timeFormat.format(new Date(getLong(cursor, SlowQueryEntry.COLUMN_TIME))),
+                        getLong(cursor, SlowQueryEntry.COLUMN_DURATION),
+                        getLong(cursor, SlowQueryEntry.COLUMN_FULL_SCAN) != 0 ? " FULL SCAN" : ""));
+                out.println("  " + getString(cursor, SlowQueryEntry.COLUMN_SQL));
+                String arguments = getString(cursor, SlowQueryEntry.COLUMN_ARGUMENTS);
+                if (!arguments.isEmpty()) {
+                    out.println("  args: " + arguments);
+                }
+                for (String step : getString(cursor, SlowQueryEntry.COLUMN_PLAN).split("\n")) {
+                    out.println("    " + step);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void dumpReorders(PrintStream out) {
+        Cursor cursor = mContentResolver.query(ReorderEntry.CONTENT_URI, null, null, null, null);
+        if (cursor == null) {
+            out.println("Provider unavailable");
+            return;
+        }
+        try {
+            if (cursor.getCount() == 0) {
+                out.println("Nothing to reorder");
+                return;
+            }
+            // Rows come grouped by supplier
+            long supplierId = 0;
+            boolean first = true;
+            while (cursor.moveToNext()) {
+                if (first || getLong(cursor, ReorderEntry.COLUMN_SUPPLIER_ID) != supplierId) {
+                    first = false;
+                    supplierId = getLong(cursor, ReorderEntry.COLUMN_SUPPLIER_ID);
+                    out.println(getString(cursor, ReorderEntry.COLUMN_SUPPLIER_NAME)
+                            + " <" + getString(cursor, ReorderEntry.COLUMN_SUPPLIER_EMAIL) + ">");
+                }
+                out.println(String.format(Locale.US, "  %4d  %s - %s",
+                        getLong(cursor, ReorderEntry.COLUMN_QUANTITY),
+                        getString(cursor, ReorderEntry.COLUMN_ALBUM_NAME),
+                        getString(cursor, ReorderEntry.COLUMN_BAND_NAME)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void dumpMetrics(PrintStream out) {
+        Cursor cursor = mContentResolver.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        if (cursor == null) {
+            out.println("Provider unavailable");
+            return;
+        }
+        try {
+            out.println(String.format(Locale.US, "%-12s %-22s %8s %6s %9s %9s %9s %8s %8s",
+                    "operation", "target", "count", "errors", "p50 us", "p99 us", "max us", "rows p50", "rows p99"));
+            while (cursor.moveToNext()) {
+                out.println(String.format(Locale.US, "%-12s %-22s %8d %6d %9d %9d %9d %8d %8d",
+                        getString(cursor, MetricsEntry.COLUMN_OPERATION),
+                        getString(cursor, MetricsEntry.COLUMN_TARGET),
+                        getLong(cursor, MetricsEntry.COLUMN_COUNT),
+                        getLong(cursor, MetricsEntry.COLUMN_ERRORS),
+                        getLong(cursor, MetricsEntry.COLUMN_LATENCY_P50),
+                        getLong(cursor, MetricsEntry.COLUMN_LATENCY_P99),
+                        getLong(cursor, MetricsEntry.COLUMN_LATENCY_MAX),
+                        getLong(cursor, MetricsEntry.COLUMN_ROWS_P50),
+                        getLong(cursor, MetricsEntry.COLUMN_ROWS_P99)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+}
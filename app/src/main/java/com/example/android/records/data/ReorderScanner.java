@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.ReorderEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the stock in the background every few minutes, and keeps the records running low
+ * grouped by supplier, so that each supplier can be sent one order for all of its records. Only
+ * the records running low are read, through {@link RecordStore#findLowStock(int)}, so a check
+ * costs the same however big the catalog grows.
+ */
+final class ReorderScanner {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ReorderScanner.class.getSimpleName();
+
+    /** Time between the start of the provider and the first check */
+    private static final long INITIAL_DELAY_MILLIS = 30 * 1000;
+
+    /** Time between two checks */
+    static final long DEFAULT_PERIOD_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * The records to reorder from one supplier, lowest stock first. Each record is a map from
+     * column name to value, as returned by {@link RecordStore#findLowStock(int)}.
+     */
+    static final class SupplierReorder {
+        final long mSupplierId;
+        final String mSupplierName;
+        final String mSupplierEmail;
+        final List<Map<String, Object>> mRecords = new ArrayList<>();
+
+        SupplierReorder(long supplierId, String supplierName, String supplierEmail) {
+            mSupplierId = supplierId;
+            mSupplierName = supplierName;
+            mSupplierEmail = supplierEmail;
+        }
+    }
+
+    private final RecordStore mStore;
+
+    private final ChangeNotifier mNotifier;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ReorderScanner");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** Reorder list of the last check, which is never changed once published */
+    private volatile List<SupplierReorder> mReorders = Collections.emptyList();
+
+    /** Records running low at the last check. Only used on the scanner thread. */
+    private List<Map<String, Object>> mLowStock = Collections.emptyList();
+
+    /** When the last check ran, in milliseconds since the epoch, or 0 if none did yet */
+    private volatile long mCheckedAt;
+
+    private final Runnable mScan = new Runnable() {
+        @Override
+        public void run() {
+            List<Map<String, Object>> lowStock;
+            try {
+                lowStock = mStore.findLowStock(RecordEntry.DEFAULT_LOW_STOCK_THRESHOLD);
+            } catch (RuntimeException e) {
+                // Keep the last list, and try again at the next check. Throwing would cancel
+                // the checks to come.
+                Log.e(LOG_TAG, "Failed to check the stock", e);
+                return;
+            }
+
+            Map<Long, SupplierReorder> reorders = new LinkedHashMap<>();
+            for (Map<String, Object> record : lowStock) {
+                Long supplierId = (Long) record.get(RecordEntry.COLUMN_SUPPLIER_ID);
+                SupplierReorder reorder = reorders.get(supplierId);
+                if (reorder == null) {
+                    reorder = new SupplierReorder(supplierId,
+                            (String) record.get(RecordEntry.COLUMN_SUPPLIER_NAME),
+                            (String) record.get(RecordEntry.COLUMN_SUPPLIER_EMAIL));
+                    reorders.put(supplierId, reorder);
+                }
+                reorder.mRecords.add(record);
+            }
+
+            boolean changed = !lowStock.equals(mLowStock);
+            mLowStock = lowStock;
+            mReorders = Collections.unmodifiableList(new ArrayList<>(reorders.values()));
+            mCheckedAt = System.currentTimeMillis();
+            if (changed) {
+                mNotifier.notifyChange(ReorderEntry.CONTENT_URI);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ReorderScanner}.
+     *
+     * @param store    holding the records
+     * @param notifier told when the reorder list changes
+     */
+    ReorderScanner(RecordStore store, ChangeNotifier notifier) {
+        mStore = store;
+        mNotifier = notifier;
+    }
+
+    /**
+     * Start checking the stock periodically.
+     */
+    void start() {
+        mExecutor.scheduleWithFixedDelay(mScan, INITIAL_DELAY_MILLIS, DEFAULT_PERIOD_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return the reorder list of the last check, suppliers in the order of their record with
+     * the lowest stock.
+     */
+    List<SupplierReorder> getReorders() {
+        return mReorders;
+    }
+
+    /**
+     * Return when the last check ran, in milliseconds since the epoch, or 0 if none did yet.
+     */
+    long getCheckedAt() {
+        return mCheckedAt;
+    }
+}
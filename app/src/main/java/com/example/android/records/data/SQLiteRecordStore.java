@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SalesEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link RecordStore} backed by the app's SQLite database, through {@link RecordDbHelper}.
+ */
+public class SQLiteRecordStore implements RecordStore {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = SQLiteRecordStore.class.getSimpleName();
+
+    /** Selection of one record by ID, in the records table or the view */
+    private static final String SELECTION_ID = RecordEntry._ID + "=?";
+
+    /** Database helper object */
+    private final RecordDbHelper mDbHelper;
+
+    /** Maximum number of compiled statements kept, one per set of columns updated by ID */
+    private static final int MAX_CACHED_STATEMENTS = 16;
+
+    /** SQL adding copies to the quantity stored on one record */
+    private static final String SQL_RESTOCK = "UPDATE " + RecordEntry.TABLE_NAME
+            + " SET " + RecordEntry.COLUMN_QUANTITY + " = " + RecordEntry.COLUMN_QUANTITY + " + ?"
+            + " WHERE " + RecordEntry._ID + " = ?";
+
+    /** SQL reading the stock of one record, the view subtracts the sales not applied yet */
+    private static final String SQL_QUANTITY = "SELECT " + RecordEntry.COLUMN_QUANTITY
+            + " FROM " + RecordEntry.VIEW_NAME + " WHERE " + RecordEntry._ID + " = ?";
+
+    /** SQL appending a sale to the ledger */
+    private static final String SQL_INSERT_SALE = "INSERT INTO " + SalesEntry.TABLE_NAME
+            + " (" + SalesEntry.COLUMN_RECORD_ID + ", " + SalesEntry.COLUMN_UNITS + ", "
+            + SalesEntry.COLUMN_SOLD_AT + ") VALUES (?, ?, ?)";
+
+    /**
+     * SQL marking the sales of one record as applied without changing its quantity, for when a
+     * new quantity is written over the stock they were subtracted from
+     */
+    private static final String SQL_SUPERSEDE_SALES = "UPDATE " + SalesEntry.TABLE_NAME
+            + " SET " + SalesEntry.COLUMN_APPLIED + " = 1"
+            + " WHERE " + SalesEntry.COLUMN_RECORD_ID + " = ? AND " + SalesEntry.COLUMN_APPLIED + " = 0";
+
+    /** SQL deleting one record */
+    private static final String SQL_DELETE = "DELETE FROM " + RecordEntry.TABLE_NAME
+            + " WHERE " + RecordEntry._ID + " = ?";
+
+    /** SQL looking up a supplier */
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID
+            + " FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_NAME + " = ?"
+            + " AND " + SupplierEntry.COLUMN_EMAIL + " = ?";
+
+    /** SQL adding a supplier */
+    private static final String SQL_INSERT_SUPPLIER = "INSERT INTO " + SupplierEntry.TABLE_NAME
+            + " (" + SupplierEntry.COLUMN_NAME + ", " + SupplierEntry.COLUMN_EMAIL + ") VALUES (?, ?)";
+
+    /**
+     * Compiled statements of the single-record paths. Only used inside a transaction, and
+     * guarded by this store's lock.
+     */
+    private final StatementCache mStatements = new StatementCache(MAX_CACHED_STATEMENTS);
+
+    public SQLiteRecordStore(RecordDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public long insertRecord(Map<String, ?> values) {
+        RecordValidator.checkRecord(values);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            long id = database.insert(RecordEntry.TABLE_NAME, null, toRecordValues(database, values, -1));
+            database.setTransactionSuccessful();
+            return id;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int insertRecords(List<? extends Map<String, ?>> records) {
+        // Validate the whole batch up front, so a bad row doesn't leave a half open transaction
+        for (Map<String, ?> values : records) {
+            RecordValidator.checkRecord(values);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            for (Map<String, ?> values : records) {
+                if (database.insert(RecordEntry.TABLE_NAME, null,
+                        toRecordValues(database, values, -1)) == -1) {
+                    Log.e(LOG_TAG, "Failed to insert record " + values);
+                } else {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    @Override
+    public int updateRecord(long id, Map<String, ?> values) {
+        RecordValidator.checkUpdate(values);
+        // If there are no values to update, then don't try to update the database
+        if (values == null || values.isEmpty()) {
+            return 0;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ContentValues recordValues = toRecordValues(database, values, id);
+            String[] columns = recordValues.keySet().toArray(new String[recordValues.size()]);
+            // Sorted, so the same set of columns always gives the same SQL and statement
+            Arrays.sort(columns);
+
+            int rowsUpdated;
+            synchronized (this) {
+                if (recordValues.containsKey(RecordEntry.COLUMN_QUANTITY)) {
+                    SQLiteStatement supersede = mStatements.get(database, SQL_SUPERSEDE_SALES);
+                    supersede.bindLong(1, id);
+                    supersede.executeUpdateDelete();
+                }
+                SQLiteStatement statement = mStatements.get(database, buildUpdateSql(columns));
+                for (int i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, recordValues.get(columns[i]));
+                }
+                statement.bindLong(columns.length + 1, id);
+                rowsUpdated = statement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Return the SQL updating the given columns of one record, whose ID is the last argument.
+     */
+    private static String buildUpdateSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(RecordEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]).append(" = ?");
+        }
+        return sql.append(" WHERE ").append(RecordEntry._ID).append(" = ?").toString();
+    }
+
+    @Override
+    public int updateRecords(Map<String, ?> values, String selection, String[] selectionArgs) {
+        RecordValidator.checkUpdate(values);
+        // If there are no values to update, then don't try to update the database
+        if (values == null || values.isEmpty()) {
+            return 0;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ContentValues recordValues = toRecordValues(database, values, -1);
+            String recordSelection = selectDetails(selection);
+            boolean picked = false;
+            if (recordValues.containsKey(RecordEntry.COLUMN_QUANTITY)) {
+                // The new quantity replaces the stock the pending sales were subtracted from.
+                // The selection may be on the stock, which changes as soon as the sales are
+                // marked, so the matching records are picked before anything is written.
+                String pendingSales = SalesEntry.COLUMN_APPLIED + " = 0";
+                picked = pickRecords(database, selection, selectionArgs);
+                if (picked) {
+                    recordSelection = RecordEntry._ID + " IN (" + RecordSchema.PICKED_RECORD_IDS + ")";
+                    pendingSales += " AND " + SalesEntry.COLUMN_RECORD_ID + " IN ("
+                            + RecordSchema.PICKED_RECORD_IDS + ")";
+                    selectionArgs = null;
+                }
+                ContentValues applied = new ContentValues(1);
+                applied.put(SalesEntry.COLUMN_APPLIED, 1);
+                database.update(SalesEntry.TABLE_NAME, applied, pendingSales, null);
+            }
+            int rowsUpdated = database.update(RecordEntry.TABLE_NAME, recordValues, recordSelection,
+                    selectionArgs);
+            if (picked) {
+                database.execSQL(RecordSchema.CLEAR_PICKED_RECORDS);
+            }
+            database.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int deleteRecord(long id) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            int rowsDeleted;
+            synchronized (this) {
+                SQLiteStatement statement = mStatements.get(database, SQL_DELETE);
+                statement.bindLong(1, id);
+                rowsDeleted = statement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int deleteRecords(String selection, String[] selectionArgs) {
+        return mDbHelper.getWritableDatabase().delete(RecordEntry.TABLE_NAME, selectDetails(selection),
+                selectionArgs);
+    }
+
+    /**
+     * Turn a selection written against the records as callers see them, which may use the
+     * supplier name and email, into a selection of the records table.
+     */
+    private static String selectDetails(String selection) {
+        if (selection == null || selection.isEmpty()) {
+            return selection;
+        }
+        return RecordEntry._ID + " IN (SELECT " + RecordEntry._ID + " FROM " + RecordEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Put the IDs of the records matching the given selection in the picked records table of
+     * {@link RecordSchema}, which stay there until the caller empties it. Return false, and pick
+     * nothing, if the selection is empty and so matches every record. Must be called inside a
+     * transaction.
+     */
+    private static boolean pickRecords(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        if (selection == null || selection.isEmpty()) {
+            return false;
+        }
+        database.execSQL(RecordSchema.CREATE_PICKED_RECORDS);
+        database.execSQL(RecordSchema.pickRecords(selection),
+                selectionArgs == null ? new Object[0] : selectionArgs);
+        return true;
+    }
+
+    /**
+     * Return the values to write to the records table. A supplier name and email are replaced
+     * by the ID of that supplier, which is created if needed. When only one of them changes,
+     * the other is taken from the current supplier of the record, so a record ID must be given.
+     * Must be called inside a transaction.
+     */
+    private ContentValues toRecordValues(SQLiteDatabase database, Map<String, ?> values, long recordId) {
+        ContentValues recordValues = toContentValues(values);
+        boolean hasName = recordValues.containsKey(RecordEntry.COLUMN_SUPPLIER_NAME);
+        boolean hasEmail = recordValues.containsKey(RecordEntry.COLUMN_SUPPLIER_EMAIL);
+        if (!hasName && !hasEmail) {
+            return recordValues;
+        }
+
+        String name = recordValues.getAsString(RecordEntry.COLUMN_SUPPLIER_NAME);
+        String email = recordValues.getAsString(RecordEntry.COLUMN_SUPPLIER_EMAIL);
+        recordValues.remove(RecordEntry.COLUMN_SUPPLIER_NAME);
+        recordValues.remove(RecordEntry.COLUMN_SUPPLIER_EMAIL);
+
+        if (!hasName || !hasEmail) {
+            if (recordId == -1) {
+                throw new IllegalArgumentException("Supplier name and email must be changed together");
+            }
+            Cursor cursor = database.query(RecordEntry.VIEW_NAME,
+                    new String[] { RecordEntry.COLUMN_SUPPLIER_NAME, RecordEntry.COLUMN_SUPPLIER_EMAIL },
+                    SELECTION_ID, new String[] { String.valueOf(recordId) }, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    // No such record, the update won't change anything
+                    return recordValues;
+                }
+                if (!hasName) {
+                    name = cursor.getString(0);
+                } else {
+                    email = cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        recordValues.put(RecordEntry.COLUMN_SUPPLIER_ID, getSupplierId(database, name, email));
+        return recordValues;
+    }
+
+    /**
+     * Return the ID of the supplier with the given name and email, ignoring case and the
+     * surrounding spaces, adding the supplier if there is none yet. Must be called inside a
+     * transaction.
+     */
+    private synchronized long getSupplierId(SQLiteDatabase database, String name, String email) {
+        SQLiteStatement find = mStatements.get(database, SQL_FIND_SUPPLIER);
+        find.bindString(1, name.trim());
+        find.bindString(2, email.trim());
+        try {
+            return find.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            SQLiteStatement insert = mStatements.get(database, SQL_INSERT_SUPPLIER);
+            insert.bindString(1, name.trim());
+            insert.bindString(2, email.trim());
+            return insert.executeInsert();
+        }
+    }
+
+    @Override
+    public QuantityChange changeQuantity(long id, int delta) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        QuantityChange change;
+        database.beginTransaction();
+        try {
+            synchronized (this) {
+                change = delta < 0 ? sell(database, id, -delta) : restock(database, id, delta);
+            }
+            // Also when there is no record with this ID: nothing was written, and when this
+            // runs inside the transaction of a batch, failing it would roll back the whole batch
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return change;
+    }
+
+    /**
+     * Append a sale of the given number of copies to the ledger, if there are enough in stock.
+     * The record itself isn't written, which keeps its row, indexes and the inventory totals out
+     * of the hottest write path. Return null if there is no record with the given ID. Must be
+     * called inside a transaction, holding this store's lock.
+     */
+    private QuantityChange sell(SQLiteDatabase database, long id, int units) {
+        SQLiteStatement readQuantity = mStatements.get(database, SQL_QUANTITY);
+        readQuantity.bindLong(1, id);
+        long quantity;
+        try {
+            quantity = readQuantity.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // There is no record with this ID
+            return null;
+        }
+        if (quantity < units) {
+            return new QuantityChange((int) quantity, false);
+        }
+
+        SQLiteStatement insertSale = mStatements.get(database, SQL_INSERT_SALE);
+        insertSale.bindLong(1, id);
+        insertSale.bindLong(2, units);
+        insertSale.bindLong(3, System.currentTimeMillis());
+        insertSale.executeInsert();
+        return new QuantityChange((int) (quantity - units), true);
+    }
+
+    /**
+     * Add the given number of copies to the quantity stored on the record. Return null if there
+     * is no record with the given ID. Must be called inside a transaction, holding this store's
+     * lock.
+     */
+    private QuantityChange restock(SQLiteDatabase database, long id, int units) {
+        SQLiteStatement restock = mStatements.get(database, SQL_RESTOCK);
+        restock.bindLong(1, units);
+        restock.bindLong(2, id);
+        if (restock.executeUpdateDelete() == 0) {
+            // There is no record with this ID
+            return null;
+        }
+
+        SQLiteStatement readQuantity = mStatements.get(database, SQL_QUANTITY);
+        readQuantity.bindLong(1, id);
+        return new QuantityChange((int) readQuantity.simpleQueryForLong(), true);
+    }
+
+    @Override
+    public long getQuantity(long id) {
+        try {
+            return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(), SQL_QUANTITY,
+                    new String[] { String.valueOf(id) });
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int compactSales(int maxSales) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            long lastSaleId = DatabaseUtils.longForQuery(database,
+                    "SELECT IFNULL(MAX(" + SalesEntry._ID + "), 0) FROM (SELECT " + SalesEntry._ID
+                            + " FROM " + SalesEntry.TABLE_NAME + " WHERE " + SalesEntry.COLUMN_APPLIED + " = 0"
+                            + " ORDER BY " + SalesEntry._ID + " LIMIT " + maxSales + ")", null);
+            if (lastSaleId == 0) {
+                return 0;
+            }
+
+            // Sales up to the last one of the batch, not applied yet
+            String pending = SalesEntry.COLUMN_APPLIED + " = 0 AND " + SalesEntry._ID + " <= " + lastSaleId;
+            database.execSQL("UPDATE " + RecordEntry.TABLE_NAME + " SET " + RecordEntry.COLUMN_QUANTITY
+                    + " = " + RecordEntry.COLUMN_QUANTITY + " - (SELECT SUM(" + SalesEntry.COLUMN_UNITS + ")"
+                    + " FROM " + SalesEntry.TABLE_NAME + " WHERE " + SalesEntry.COLUMN_RECORD_ID + " = "
+                    + RecordEntry.TABLE_NAME + "." + RecordEntry._ID + " AND " + pending + ")"
+                    + " WHERE " + RecordEntry._ID + " IN (SELECT " + SalesEntry.COLUMN_RECORD_ID
+                    + " FROM " + SalesEntry.TABLE_NAME + " WHERE " + pending + ");");
+
+            ContentValues applied = new ContentValues(1);
+            applied.put(SalesEntry.COLUMN_APPLIED, 1);
+            int salesApplied = database.update(SalesEntry.TABLE_NAME, applied, pending, null);
+            database.setTransactionSuccessful();
+            return salesApplied;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> findLowStock(int threshold) {
+        String[] columns = {
+                RecordEntry._ID, RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME,
+                RecordEntry.COLUMN_QUANTITY, RecordEntry.COLUMN_SUPPLIER_ID,
+                RecordEntry.COLUMN_SUPPLIER_NAME, RecordEntry.COLUMN_SUPPLIER_EMAIL};
+        String thresholdArg = String.valueOf(threshold);
+        Cursor cursor = mDbHelper.getReadableDatabase().query(RecordEntry.VIEW_NAME, columns,
+                RecordSchema.LOW_STOCK_SELECTION, new String[] { thresholdArg, thresholdArg },
+                null, null, RecordEntry.COLUMN_QUANTITY + ", " + RecordEntry._ID);
+        try {
+            List<Map<String, Object>> records = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Map<String, Object> record = new HashMap<>(columns.length);
+                record.put(RecordEntry._ID, cursor.getLong(0));
+                record.put(RecordEntry.COLUMN_ALBUM_NAME, cursor.getString(1));
+                record.put(RecordEntry.COLUMN_BAND_NAME, cursor.getString(2));
+                record.put(RecordEntry.COLUMN_QUANTITY, cursor.getInt(3));
+                record.put(RecordEntry.COLUMN_SUPPLIER_ID, cursor.getLong(4));
+                record.put(RecordEntry.COLUMN_SUPPLIER_NAME, cursor.getString(5));
+                record.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, cursor.getString(6));
+                records.add(record);
+            }
+            return records;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        mStatements.clear();
+        mDbHelper.close();
+    }
+
+    /**
+     * Return the given content values as a map from column name to value.
+     */
+    public static Map<String, Object> toMap(ContentValues values) {
+        if (values == null) {
+            return null;
+        }
+        Map<String, Object> map = new HashMap<>(values.size());
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    /**
+     * Return the given map from column name to value as content values.
+     */
+    static ContentValues toContentValues(Map<String, ?> values) {
+        ContentValues contentValues = new ContentValues(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String column = entry.getKey();
+            Object value = entry.getValue();
+            if (value == null) {
+                contentValues.putNull(column);
+            } else if (value instanceof String) {
+                contentValues.put(column, (String) value);
+            } else if (value instanceof Integer) {
+                contentValues.put(column, (Integer) value);
+            } else if (value instanceof Long) {
+                contentValues.put(column, (Long) value);
+            } else if (value instanceof Double) {
+                contentValues.put(column, (Double) value);
+            } else if (value instanceof Float) {
+                contentValues.put(column, (Float) value);
+            } else if (value instanceof Boolean) {
+                contentValues.put(column, (Boolean) value);
+            } else if (value instanceof byte[]) {
+                contentValues.put(column, (byte[]) value);
+            } else {
+                contentValues.put(column, value.toString());
+            }
+        }
+        return contentValues;
+    }
+}
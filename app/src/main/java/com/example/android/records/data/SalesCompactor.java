@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Folds the sales ledger into the quantities stored on the records, in the background. A sale
+ * schedules a compaction a few seconds later, so a burst of sales is folded in a handful of
+ * transactions instead of rewriting each record once per sale. Sales are applied in batches,
+ * each in its own transaction, so new sales never wait long behind the compactor.
+ */
+final class SalesCompactor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SalesCompactor.class.getSimpleName();
+
+    /** Time between a sale and the compaction that folds it in */
+    static final long DEFAULT_DELAY_MILLIS = 5000;
+
+    /** Maximum number of sales applied in one transaction */
+    private static final int BATCH_SIZE = 200;
+
+    private final RecordStore mStore;
+
+    private final ChangeNotifier mNotifier;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SalesCompactor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** True while a compaction is scheduled and hasn't started yet */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    private final Runnable mCompact = new Runnable() {
+        @Override
+        public void run() {
+            // Sales made from now on need another compaction
+            mScheduled.set(false);
+            int salesApplied = 0;
+            try {
+                int batch;
+                do {
+                    batch = mStore.compactSales(BATCH_SIZE);
+                    salesApplied += batch;
+                } while (batch == BATCH_SIZE);
+            } catch (RuntimeException e) {
+                // The sales stay in the ledger and still count towards the stock, the next
+                // sale tries again
+                Log.e(LOG_TAG, "Failed to apply the sales", e);
+            }
+            if (salesApplied > 0) {
+                // The stock of every record is the same, but the stored quantities the catalog
+                // sorts by and the inventory totals moved. The totals are read under the
+                // records URI, so its observers are told too
+                mNotifier.notifyChange(RecordEntry.CONTENT_URI);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link SalesCompactor}.
+     *
+     * @param store    holding the records and their sales
+     * @param notifier told when the stored quantities change
+     */
+    SalesCompactor(RecordStore store, ChangeNotifier notifier) {
+        mStore = store;
+        mNotifier = notifier;
+    }
+
+    /**
+     * Schedule a compaction, unless one is already waiting to run.
+     */
+    void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            mExecutor.schedule(mCompact, DEFAULT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
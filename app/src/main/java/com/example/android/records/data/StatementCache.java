@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the compiled statements of the provider's hot write paths, keyed by their SQL, so a
+ * statement is compiled once and only has its arguments bound on later calls. The least
+ * recently used statement is closed when the cache is full. Statements belong to one database;
+ * when the helper opens a new one, the statements of the old one are dropped.
+ * <p>
+ * The cache isn't thread safe, and bound statements can't be shared while they run. Callers
+ * must hold the database connection, by being in a transaction, and then the lock guarding the
+ * cache. Taking them in that order means a thread waiting for the lock never holds it back from
+ * the thread holding the connection.
+ */
+final class StatementCache {
+
+    private final int mMaxSize;
+
+    private final LinkedHashMap<String, SQLiteStatement> mStatements;
+
+    /** Database the cached statements were compiled for */
+    private SQLiteDatabase mDatabase;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    /**
+     * Constructs a new {@link StatementCache}.
+     *
+     * @param maxSize maximum number of statements kept compiled
+     */
+    StatementCache(int maxSize) {
+        mMaxSize = maxSize;
+        // Access order, so the eldest entry is the least recently used statement
+        mStatements = new LinkedHashMap<>(maxSize, 0.75f, true);
+    }
+
+    /**
+     * Return the compiled statement for the given SQL, with no arguments bound, compiling it
+     * if it isn't cached yet.
+     */
+    SQLiteStatement get(SQLiteDatabase database, String sql) {
+        if (database != mDatabase) {
+            clear();
+            mDatabase = database;
+        }
+
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement != null) {
+            mHitCount++;
+            statement.clearBindings();
+            return statement;
+        }
+
+        mMissCount++;
+        statement = database.compileStatement(sql);
+        mStatements.put(sql, statement);
+        if (mStatements.size() > mMaxSize) {
+            Iterator<Map.Entry<String, SQLiteStatement>> eldest = mStatements.entrySet().iterator();
+            eldest.next().getValue().close();
+            eldest.remove();
+        }
+        return statement;
+    }
+
+    /** Close every cached statement. */
+    void clear() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mDatabase = null;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache[" + mStatements.size() + "/" + mMaxSize + " statements, "
+                + mHitCount + " hits, " + mMissCount + " misses]";
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the hash naming, the deduplication and the clean up of {@link CoverFiles}, in a
+ * directory that is created for each test.
+ */
+public class CoverFilesTest {
+
+    /** SHA-256 of "abc", from FIPS 180-2 */
+    private static final String ABC_SHA256 =
+            "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    /** Accepts every copy */
+    private static final CoverFiles.Check ACCEPT = new CoverFiles.Check() {
+        @Override
+        public void check(File file) {
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    private CoverFiles mFiles;
+
+    @Before
+    public void setUp() {
+        // Not created yet, as on the first import
+        mDirectory = new File(mFolder.getRoot(), "covers");
+        mFiles = new CoverFiles(mDirectory);
+    }
+
+    @Test
+    public void add_namesTheFileAfterItsHash() throws IOException {
+        File file = mFiles.add(input("abc"), ACCEPT);
+
+        assertEquals(new File(mDirectory, ABC_SHA256), file);
+        assertArrayEquals(bytes("abc"), read(file));
+        assertEquals(Collections.singletonList(ABC_SHA256), Arrays.asList(mDirectory.list()));
+    }
+
+    @Test
+    public void add_sameContent_isStoredOnce() throws IOException {
+        File first = mFiles.add(input("abc"), ACCEPT);
+        File second = mFiles.add(input("abc"), ACCEPT);
+
+        assertEquals(first, second);
+        assertEquals(1, mDirectory.list().length);
+    }
+
+    @Test
+    public void add_otherContent_isStoredApart() throws IOException {
+        File first = mFiles.add(input("abc"), ACCEPT);
+        File second = mFiles.add(input("abd"), ACCEPT);
+
+        assertNotEquals(first, second);
+        assertArrayEquals(bytes("abc"), read(first));
+        assertArrayEquals(bytes("abd"), read(second));
+        assertEquals(2, mDirectory.list().length);
+    }
+
+    @Test
+    public void add_largeContent_isCopiedWhole() throws IOException {
+        // Spans several buffers, with a partial one at the end
+        byte[] content = new byte[100 * 1024 + 7];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        File file = mFiles.add(new ByteArrayInputStream(content), ACCEPT);
+
+        assertArrayEquals(content, read(file));
+    }
+
+    @Test
+    public void add_rejected_keepsNothing() throws IOException {
+        CoverFiles.Check reject = new CoverFiles.Check() {
+            @Override
+            public void check(File file) throws IOException {
+                throw new IOException("Not an image");
+            }
+        };
+
+        try {
+            mFiles.add(input("abc"), reject);
+            fail("The copy was kept");
+        } catch (IOException expected) {
+            // Rejected by the check
+        }
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void add_duplicate_keepsTheStoredCoverNew() throws IOException {
+        File file = mFiles.add(input("abc"), ACCEPT);
+        assertTrue(file.setLastModified(0));
+
+        mFiles.add(input("abc"), ACCEPT);
+
+        assertTrue(file.lastModified() > 0);
+    }
+
+    @Test
+    public void deleteIncomplete_deletesOnlyTheCopiesInProgress() throws IOException {
+        File cover = mFiles.add(input("abc"), ACCEPT);
+        File tmp = File.createTempFile("cover", CoverFiles.TMP_SUFFIX, mDirectory);
+
+        mFiles.deleteIncomplete();
+
+        assertTrue(cover.exists());
+        assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void deleteUnused_keepsUsedAndRecentCovers() throws IOException {
+        File used = mFiles.add(input("abc"), ACCEPT);
+        File unused = mFiles.add(input("abd"), ACCEPT);
+        File recent = mFiles.add(input("abe"), ACCEPT);
+        File tmp = File.createTempFile("cover", CoverFiles.TMP_SUFFIX, mDirectory);
+        assertTrue(used.setLastModified(1000));
+        assertTrue(unused.setLastModified(1000));
+        assertTrue(tmp.setLastModified(1000));
+
+        int deleted = mFiles.deleteUnused(new HashSet<>(Collections.singleton(used.getName())),
+                recent.lastModified() - 1);
+
+        assertEquals(1, deleted);
+        assertTrue(used.exists());
+        assertFalse(unused.exists());
+        assertTrue(recent.exists());
+        // Left to deleteIncomplete, as a copy may still be in progress
+        assertTrue(tmp.exists());
+    }
+
+    @Test
+    public void deleteUnused_noDirectory_deletesNothing() {
+        assertEquals(0, mFiles.deleteUnused(Collections.<String>emptySet(), Long.MAX_VALUE));
+    }
+
+    private static InputStream input(String content) {
+        return new ByteArrayInputStream(bytes(content));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < content.length
+                    && (read = input.read(content, offset, content.length - offset)) != -1) {
+                offset += read;
+            }
+        } finally {
+            input.close();
+        }
+        return content;
+    }
+}
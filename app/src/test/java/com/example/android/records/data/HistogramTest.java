@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the percentiles of {@link Histogram}.
+ */
+public class HistogramTest {
+
+    @Test
+    public void empty_percentileIsZero() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        Histogram histogram = new Histogram();
+        for (long value = 0; value < 4; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(0, histogram.getPercentile(0.25));
+        assertEquals(1, histogram.getPercentile(0.5));
+        assertEquals(2, histogram.getPercentile(0.75));
+        assertEquals(3, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void percentile_isWithinAQuarterOfTheValue() {
+        Histogram histogram = new Histogram();
+        int count = 10000;
+        for (long value = 1; value <= count; value++) {
+            histogram.record(value);
+        }
+
+        double[] fractions = { 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999 };
+        for (double fraction : fractions) {
+            long exact = (long) Math.ceil(fraction * count);
+            long percentile = histogram.getPercentile(fraction);
+            assertTrue(fraction + ": " + percentile + " is below " + exact, percentile >= exact);
+            assertTrue(fraction + ": " + percentile + " is too far above " + exact,
+                    percentile <= exact + exact / 4);
+        }
+    }
+
+    @Test
+    public void percentile_neverExceedsTheMax() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+
+        // The bucket of 1000 goes up to 1023
+        assertEquals(1000, histogram.getPercentile(0.99));
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @Test
+    public void largestValue_isRecorded() {
+        Histogram histogram = new Histogram();
+        histogram.record(1);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(1, histogram.getPercentile(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void negativeValue_countsAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        Histogram histogram = new Histogram();
+        histogram.record(10);
+        histogram.record(20);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final int perThread = 10000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final long offset = i * perThread;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (long value = 1; value <= perThread; value++) {
+                        histogram.record(offset + value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long count = threads.length * perThread;
+        assertEquals(count, histogram.getCount());
+        assertEquals(count * (count + 1) / 2, histogram.getSum());
+        assertEquals(count, histogram.getMax());
+        assertEquals(count, histogram.getPercentile(1));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the lookups and sorts of the records go through their
+ * index, on a new database and on one upgraded from the first version of the schema, and that
+ * every sort, filter and page of the catalog walks the index of its sort.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RecordDbHelperTest {
+
+    private static final String DATABASE_NAME = "records.db";
+
+    private RecordDbHelper mDbHelper;
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void newDatabase_lookupsUseTheirIndex() {
+        checkLookups(openDatabase());
+    }
+
+    @Test
+    public void upgradedDatabase_lookupsUseTheirIndex() {
+        // The records table of version 1, which kept the supplier on each record
+        File path = RuntimeEnvironment.application.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(path, null);
+        old.execSQL("CREATE TABLE records (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "album_name TEXT NOT NULL, band_name TEXT NOT NULL, "
+                + "quantity INTEGER NOT NULL DEFAULT 0, price INTEGER NOT NULL DEFAULT 0, "
+                + "cover TEXT NOT NULL, supplier_name TEXT NOT NULL, supplier_email TEXT NOT NULL);");
+        old.execSQL("INSERT INTO records (album_name, band_name, quantity, price, cover, "
+                + "supplier_name, supplier_email) VALUES ('Kid A', 'Radiohead', 3, 20, 'cover', "
+                + "'Rough Trade', 'orders@roughtrade.com');");
+        old.setVersion(1);
+        old.close();
+
+        checkLookups(openDatabase());
+    }
+
+    @Test
+    public void catalogQueries_walkTheIndexOfTheirSort() {
+        SQLiteDatabase db = openDatabase();
+        String[][] sorts = {
+                { RecordEntry.SORT_ALBUM, "records_album_idx" },
+                { RecordEntry.SORT_BAND, "records_band_album_idx" },
+                { RecordEntry.SORT_PRICE, "records_price_idx" },
+                { RecordEntry.SORT_QUANTITY, "records_quantity_idx" }};
+        String[] directions = { RecordEntry.DIRECTION_ASCENDING, RecordEntry.DIRECTION_DESCENDING };
+        for (String[] sort : sorts) {
+            for (String direction : directions) {
+                Uri.Builder page = RecordEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_SORT, sort[0])
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_DIRECTION, direction)
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_LIMIT, "50");
+                assertWalksIndex(db, sort[1], page.build());
+
+                Uri.Builder filtered = page.build().buildUpon()
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_MIN_PRICE, "5")
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_MAX_PRICE, "30")
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_MIN_QUANTITY, "1")
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_MAX_QUANTITY, "10")
+                        .appendQueryParameter(RecordEntry.QUERY_PARAMETER_SUPPLIER, "1");
+                assertWalksIndex(db, sort[1], filtered.build());
+
+                // The next page, after the key of the last row of the previous one
+                for (String column : RecordEntry.getPageKeyColumns(sort[0])) {
+                    boolean text = column.equals(RecordEntry.COLUMN_ALBUM_NAME)
+                            || column.equals(RecordEntry.COLUMN_BAND_NAME);
+                    filtered.appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_KEY, text ? "Kid A" : "7");
+                }
+                filtered.appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_ID, "12");
+                assertWalksIndex(db, sort[1], filtered.build());
+            }
+        }
+    }
+
+    private SQLiteDatabase openDatabase() {
+        mDbHelper = new RecordDbHelper(RuntimeEnvironment.application);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        // EXPLAIN never runs the statement, so it doesn't notice that the schema changed and
+        // would plan with the tables as they were before the upgrade. A query that reads the
+        // schema brings the connection up to date.
+        DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master", null);
+        return db;
+    }
+
+    private static void checkLookups(SQLiteDatabase db) {
+        assertUsesIndex(db, "records_band_album_idx",
+                "SELECT _id FROM records WHERE band_name = ? COLLATE NOCASE", "radiohead");
+        assertUsesIndex(db, "records_band_album_idx",
+                "SELECT _id FROM records ORDER BY band_name COLLATE NOCASE, album_name COLLATE NOCASE");
+        assertUsesIndex(db, "records_album_idx",
+                "SELECT _id FROM records WHERE album_name = ? COLLATE NOCASE", "kid a");
+        assertUsesIndex(db, "records_album_idx",
+                "SELECT _id FROM records ORDER BY album_name COLLATE NOCASE");
+        assertUsesIndex(db, "records_supplier_idx",
+                "SELECT _id FROM records WHERE supplier_id = ?", "1");
+        assertUsesIndex(db, "records_supplier_idx",
+                "SELECT _id FROM " + RecordEntry.VIEW_NAME + " WHERE supplier_id = ?", "1");
+        assertUsesIndex(db, "records_quantity_idx",
+                "SELECT _id FROM records WHERE quantity <= ?", "5");
+        assertUsesIndex(db, "records_quantity_idx",
+                "SELECT _id FROM " + RecordEntry.VIEW_NAME + " WHERE " + RecordSchema.LOW_STOCK_SELECTION,
+                "5", "5");
+        assertUsesIndex(db, "records_quantity_idx",
+                "SELECT _id FROM records ORDER BY quantity");
+        assertUsesIndex(db, "records_price_idx",
+                "SELECT _id FROM records WHERE price <= ?", "5");
+        assertUsesIndex(db, "records_price_idx",
+                "SELECT _id FROM records ORDER BY price");
+    }
+
+    /**
+     * Assert that the catalog query of the URI reads the records in the order of the given
+     * index, so it neither scans the table nor sorts the rows in a temporary B-tree.
+     */
+    private static void assertWalksIndex(SQLiteDatabase db, String index, Uri uri) {
+        RecordQuery query = RecordQuery.fromUri(uri, null, null, null);
+        String sql = SQLiteQueryBuilder.buildQueryString(false, RecordEntry.VIEW_NAME,
+                new String[] { RecordEntry._ID }, query.mSelection, null, null, query.mSortOrder,
+                query.mLimit);
+        assertUsesIndex(db, index, sql, query.mSelectionArgs == null ? new String[0] : query.mSelectionArgs);
+        for (String step : explain(db, sql, query.mSelectionArgs)) {
+            assertFalse(uri + " sorts in a temporary B-tree: " + step, step.contains("TEMP B-TREE"));
+        }
+    }
+
+    /**
+     * Assert that the query reads the records through the given index, never scanning the
+     * table itself.
+     */
+    private static void assertUsesIndex(SQLiteDatabase db, String index, String sql, String... args) {
+        List<String> plan = explain(db, sql, args);
+        boolean usesIndex = false;
+        for (String step : plan) {
+            usesIndex |= step.contains(" INDEX " + index);
+            assertFalse(sql + " scans the records table: " + plan, isTableScan(step));
+        }
+        assertTrue(sql + " doesn't use " + index + ": " + plan, usesIndex);
+    }
+
+    private static boolean isTableScan(String step) {
+        return step.startsWith("SCAN TABLE records") && !step.contains(" USING ");
+    }
+
+    private static List<String> explain(SQLiteDatabase db, String sql, String[] args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the CSV and JSON parsing of {@link RecordImporter}, and of the rows it reports,
+ * importing into a {@link RecordProvider} that refuses the chunks holding a broken album.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RecordImporterTest {
+
+    /** Album the provider refuses to insert, as a database error would */
+    private static final String BROKEN_ALBUM = "Broken";
+
+    private static final String HEADER = RecordEntry.COLUMN_ALBUM_NAME + ","
+            + RecordEntry.COLUMN_BAND_NAME + "," + RecordEntry.COLUMN_QUANTITY + ","
+            + RecordEntry.COLUMN_PRICE + "," + RecordEntry.COLUMN_RECORD_COVER + ","
+            + RecordEntry.COLUMN_SUPPLIER_NAME + "," + RecordEntry.COLUMN_SUPPLIER_EMAIL + "\n";
+
+    /**
+     * Refuses the chunks holding {@link #BROKEN_ALBUM}.
+     */
+    public static class FailingRecordProvider extends RecordProvider {
+        @Override
+        public int bulkInsert(Uri uri, ContentValues[] values) {
+            for (ContentValues recordValues : values) {
+                if (BROKEN_ALBUM.equals(recordValues.getAsString(RecordEntry.COLUMN_ALBUM_NAME))) {
+                    throw new SQLException("Disk I/O error");
+                }
+            }
+            return super.bulkInsert(uri, values);
+        }
+    }
+
+    /**
+     * Keeps what the importer reports.
+     */
+    private static final class RecordingListener implements RecordImporter.Listener {
+        final List<Integer> mErrorRows = new ArrayList<>();
+        int mRowsRead;
+        int mRowsImported;
+        int mProgressCalls;
+
+        @Override
+        public void onProgress(int rowsRead, int rowsImported) {
+            mRowsRead = rowsRead;
+            mRowsImported = rowsImported;
+            mProgressCalls++;
+        }
+
+        @Override
+        public void onRowError(int row, String message) {
+            mErrorRows.add(row);
+        }
+    }
+
+    private FailingRecordProvider mProvider;
+
+    private RecordingListener mListener;
+
+    @Before
+    public void setUp() {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = RecordContract.CONTENT_AUTHORITY;
+        mProvider = Robolectric.buildContentProvider(FailingRecordProvider.class).create(info).get();
+        mListener = new RecordingListener();
+    }
+
+    @Test
+    public void csv_quotedFields_keepTheirCommasQuotesAndLineBreaks() throws IOException {
+        String csv = HEADER
+                + "\"Hail to the Thief\",Radiohead,1,10,cover,\"Parlophone, UK\",a@b.com\r\n"
+                + "\"The \"\"White\"\" Album\",\"The\nBeatles\",2,20,cover,Apple,c@d.com\n";
+
+        assertEquals(2, importRecords(csv, RecordImporter.Format.CSV, 10));
+
+        assertEquals(Arrays.asList(), mListener.mErrorRows);
+        assertEquals(Arrays.asList("Hail to the Thief", "The \"White\" Album"), queryAlbums());
+        assertEquals("Parlophone, UK", querySupplier("Hail to the Thief"));
+    }
+
+    @Test
+    public void csv_headerInAnyOrder_ignoresUnknownColumns() throws IOException {
+        // Starts with a byte order mark
+        String csv = "\uFEFFnotes," + RecordEntry.COLUMN_SUPPLIER_EMAIL + ","
+                + RecordEntry.COLUMN_SUPPLIER_NAME + "," + RecordEntry.COLUMN_RECORD_COVER + ","
+                + RecordEntry.COLUMN_PRICE + "," + RecordEntry.COLUMN_QUANTITY + ","
+                + RecordEntry.COLUMN_BAND_NAME + "," + RecordEntry.COLUMN_ALBUM_NAME + "\n"
+                + "first pressing,a@b.com,Parlophone,cover,10,1,Radiohead,Kid A\n"
+                + "\n"
+                + ",c@d.com,Parlophone,cover,12,2,Radiohead,Amnesiac\n";
+
+        assertEquals(2, importRecords(csv, RecordImporter.Format.CSV, 10));
+
+        assertEquals(Arrays.asList("Amnesiac", "Kid A"), queryAlbums());
+    }
+
+    @Test
+    public void csv_invalidRows_areReportedWithTheirNumber() throws IOException {
+        String csv = HEADER
+                + "Kid A,Radiohead,1,10,cover,Parlophone,a@b.com\n"
+                + "Amnesiac,Radiohead,1\n"
+                + "OK Computer,Radiohead,1,-5,cover,Parlophone,a@b.com\n"
+                + "\n"
+                + "The Bends,Radiohead,1,10,cover,Parlophone,a@b.com\n"
+                + ",Radiohead,1,10,cover,Parlophone,a@b.com\n";
+
+        assertEquals(2, importRecords(csv, RecordImporter.Format.CSV, 10));
+
+        // The blank line isn't a row
+        assertEquals(Arrays.asList(2, 3, 5), mListener.mErrorRows);
+        assertEquals(5, mListener.mRowsRead);
+        assertEquals(2, mListener.mRowsImported);
+    }
+
+    @Test(expected = IOException.class)
+    public void csv_noRecordColumn_isRejected() throws IOException {
+        importRecords("name,artist\nKid A,Radiohead\n", RecordImporter.Format.CSV, 10);
+    }
+
+    @Test
+    public void json_valuesOfEveryType_areImported() throws IOException {
+        String json = "[{\"" + RecordEntry.COLUMN_ALBUM_NAME + "\": \"Kid A\", \""
+                + RecordEntry.COLUMN_BAND_NAME + "\": \"Radiohead\", \""
+                + RecordEntry.COLUMN_QUANTITY + "\": 3, \"" + RecordEntry.COLUMN_PRICE + "\": 10.0, \""
+                + RecordEntry.COLUMN_RECORD_COVER + "\": \"cover\", \""
+                + RecordEntry.COLUMN_SUPPLIER_NAME + "\": \"Parlophone\", \""
+                + RecordEntry.COLUMN_SUPPLIER_EMAIL + "\": \"a@b.com\", \"reissue\": true,"
+                + " \"tracks\": [1, 2]}]";
+
+        assertEquals(1, importRecords(json, RecordImporter.Format.JSON, 10));
+
+        assertEquals(Arrays.asList("Kid A"), queryAlbums());
+        assertEquals(Arrays.asList(), mListener.mErrorRows);
+    }
+
+    @Test
+    public void json_invalidRows_areReportedWithTheirNumber() throws IOException {
+        String json = "[" + jsonRecord("Kid A")
+                + ", \"Amnesiac\""
+                + ", {\"" + RecordEntry.COLUMN_ALBUM_NAME + "\": {\"title\": \"OK Computer\"}}"
+                + ", {\"" + RecordEntry.COLUMN_ALBUM_NAME + "\": \"The Bends\", \""
+                + RecordEntry.COLUMN_BAND_NAME + "\": null}"
+                + ", " + jsonRecord("Pablo Honey") + "]";
+
+        assertEquals(2, importRecords(json, RecordImporter.Format.JSON, 10));
+
+        assertEquals(Arrays.asList(2, 3, 4), mListener.mErrorRows);
+        assertEquals(Arrays.asList("Kid A", "Pablo Honey"), queryAlbums());
+    }
+
+    @Test
+    public void failedChunk_reportsTheNumbersOfItsRows() throws IOException {
+        // Chunks of two valid rows: rows 1 and 3, then rows 4 and 6, then row 7
+        String csv = HEADER
+                + csvRecord("Kid A")
+                + "Amnesiac,Radiohead\n"
+                + csvRecord("OK Computer")
+                + csvRecord(BROKEN_ALBUM)
+                + "The Bends,Radiohead\n"
+                + csvRecord("Pablo Honey")
+                + csvRecord("In Rainbows");
+
+        assertEquals(3, importRecords(csv, RecordImporter.Format.CSV, 2));
+
+        assertEquals(Arrays.asList(2, 5, 4, 6), mListener.mErrorRows);
+        assertEquals(Arrays.asList("In Rainbows", "Kid A", "OK Computer"), queryAlbums());
+    }
+
+    @Test
+    public void largeFile_isImportedInChunks() throws IOException {
+        int rowCount = 5000;
+        StringBuilder csv = new StringBuilder(HEADER);
+        List<Integer> invalidRows = new ArrayList<>();
+        for (int row = 1; row <= rowCount; row++) {
+            if (row % 1000 == 0) {
+                csv.append("Album ").append(row).append(",Band\n");
+                invalidRows.add(row);
+            } else {
+                csv.append(csvRecord("Album " + row));
+            }
+        }
+
+        int imported = importRecords(csv.toString(), RecordImporter.Format.CSV,
+                RecordImporter.DEFAULT_CHUNK_SIZE);
+
+        assertEquals(rowCount - invalidRows.size(), imported);
+        assertEquals(invalidRows, mListener.mErrorRows);
+        assertEquals(rowCount, mListener.mRowsRead);
+        assertEquals(imported, countRecords());
+        // Once for each full chunk, and once at the end
+        assertEquals(imported / RecordImporter.DEFAULT_CHUNK_SIZE + 1, mListener.mProgressCalls);
+    }
+
+    private int importRecords(String content, RecordImporter.Format format, int chunkSize)
+            throws IOException {
+        InputStream in = new ByteArrayInputStream(content.getBytes(Charset.forName("UTF-8")));
+        RecordImporter importer = new RecordImporter(
+                RuntimeEnvironment.application.getContentResolver(), chunkSize);
+        return importer.importRecords(in, format, mListener);
+    }
+
+    private static String csvRecord(String album) {
+        return album + ",Radiohead,1,10,cover,Parlophone,a@b.com\n";
+    }
+
+    private static String jsonRecord(String album) {
+        return "{\"" + RecordEntry.COLUMN_ALBUM_NAME + "\": \"" + album + "\", \""
+                + RecordEntry.COLUMN_BAND_NAME + "\": \"Radiohead\", \""
+                + RecordEntry.COLUMN_QUANTITY + "\": 1, \"" + RecordEntry.COLUMN_PRICE + "\": 10, \""
+                + RecordEntry.COLUMN_RECORD_COVER + "\": \"cover\", \""
+                + RecordEntry.COLUMN_SUPPLIER_NAME + "\": \"Parlophone\", \""
+                + RecordEntry.COLUMN_SUPPLIER_EMAIL + "\": \"a@b.com\"}";
+    }
+
+    private List<String> queryAlbums() {
+        List<String> albums = new ArrayList<>();
+        Cursor cursor = mProvider.query(RecordEntry.CONTENT_URI,
+                new String[] { RecordEntry.COLUMN_ALBUM_NAME }, null, null,
+                RecordEntry.COLUMN_ALBUM_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                albums.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return albums;
+    }
+
+    private String querySupplier(String album) {
+        Cursor cursor = mProvider.query(RecordEntry.CONTENT_URI,
+                new String[] { RecordEntry.COLUMN_SUPPLIER_NAME },
+                RecordEntry.COLUMN_ALBUM_NAME + " = ?", new String[] { album }, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countRecords() {
+        Cursor cursor = mProvider.query(RecordEntry.CONTENT_URI,
+                new String[] { RecordEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
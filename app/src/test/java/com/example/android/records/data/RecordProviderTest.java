@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SalesEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of the quantity methods, the quantity filters, the low stock query and the search of
+ * {@link RecordProvider}, called the way other apps do.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RecordProviderTest {
+
+    private RecordProvider mProvider;
+
+    @Before
+    public void setUp() {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = RecordContract.CONTENT_AUTHORITY;
+        mProvider = Robolectric.buildContentProvider(RecordProvider.class).create(info).get();
+    }
+
+    @Test
+    public void sellBatch_deletedRecord_keepsTheOtherSales() {
+        long first = insertRecord("Kid A", 5);
+        long deleted = insertRecord("Amnesiac", 5);
+        long last = insertRecord("OK Computer", 1);
+        mProvider.delete(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, deleted), null, null);
+
+        Bundle result = sellBatch(new long[] { first, deleted, last }, new int[] { 2, 1, 3 });
+
+        // The deleted record and the sale beyond the stock are rejected, the first sale is kept
+        assertArrayEquals(new int[] { 3, -1, 1 }, result.getIntArray(RecordContract.EXTRA_QUANTITY));
+        assertArrayEquals(new boolean[] { true, false, false },
+                result.getBooleanArray(RecordContract.EXTRA_UPDATED));
+        assertEquals(3, getQuantity(first));
+        assertEquals(1, getQuantity(last));
+        assertEquals(1, countSales());
+    }
+
+    @Test
+    public void sellBatch_onlyDeletedRecords_sellsNothing() {
+        long deleted = insertRecord("Kid A", 5);
+        mProvider.delete(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, deleted), null, null);
+
+        Bundle result = sellBatch(new long[] { deleted }, new int[] { 1 });
+
+        assertArrayEquals(new int[] { -1 }, result.getIntArray(RecordContract.EXTRA_QUANTITY));
+        assertArrayEquals(new boolean[] { false }, result.getBooleanArray(RecordContract.EXTRA_UPDATED));
+        assertEquals(0, countSales());
+    }
+
+    @Test
+    public void sell_deletedRecord_returnsNull() {
+        long deleted = insertRecord("Kid A", 5);
+        mProvider.delete(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, deleted), null, null);
+
+        assertNull(mProvider.call(RecordContract.METHOD_SELL, String.valueOf(deleted), null));
+        assertNull(mProvider.call(RecordContract.METHOD_RESTOCK, String.valueOf(deleted), null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sellBatch_zeroAmount_isRejected() {
+        long id = insertRecord("Kid A", 5);
+        sellBatch(new long[] { id }, new int[] { 0 });
+    }
+
+    @Test
+    public void lowStock_thresholdParameter_includesTheThreshold() {
+        long below = insertRecord("Kid A", 2);
+        long at = insertRecord("Amnesiac", 3);
+        insertRecord("OK Computer", 4);
+
+        Uri uri = RecordEntry.CONTENT_LOW_STOCK_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_THRESHOLD, "3").build();
+        assertArrayEquals(new long[] { below, at }, queryIds(uri));
+    }
+
+    @Test
+    public void lowStock_noThreshold_usesTheDefault() {
+        long at = insertRecord("Kid A", RecordEntry.DEFAULT_LOW_STOCK_THRESHOLD);
+        insertRecord("Amnesiac", RecordEntry.DEFAULT_LOW_STOCK_THRESHOLD + 1);
+
+        assertArrayEquals(new long[] { at }, queryIds(RecordEntry.CONTENT_LOW_STOCK_URI));
+    }
+
+    @Test
+    public void lowStock_countsPendingSales() {
+        long id = insertRecord("Kid A", 8);
+        Bundle extras = new Bundle();
+        extras.putInt(RecordContract.EXTRA_AMOUNT, 3);
+        mProvider.call(RecordContract.METHOD_SELL, String.valueOf(id), extras);
+
+        assertArrayEquals(new long[] { id }, queryIds(RecordEntry.CONTENT_LOW_STOCK_URI));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowStock_invalidThreshold_isRejected() {
+        Uri uri = RecordEntry.CONTENT_LOW_STOCK_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_THRESHOLD, "low").build();
+        mProvider.query(uri, null, null, null, null);
+    }
+
+    @Test
+    public void quantityFilters_countPendingSales() {
+        long sold = insertRecord("Kid A", 5);
+        long kept = insertRecord("Amnesiac", 3);
+        Bundle extras = new Bundle();
+        extras.putInt(RecordContract.EXTRA_AMOUNT, 3);
+        mProvider.call(RecordContract.METHOD_SELL, String.valueOf(sold), extras);
+
+        // Kid A shows 2 copies, though 5 are still stored on the record
+        Uri atMostTwo = RecordEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_MAX_QUANTITY, "2").build();
+        assertArrayEquals(new long[] { sold }, queryIds(atMostTwo));
+        Uri atLeastThree = RecordEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_MIN_QUANTITY, "3").build();
+        assertArrayEquals(new long[] { kept }, queryIds(atLeastThree));
+    }
+
+    @Test
+    public void search_pagesInRankOrder() {
+        long kidA = insertRecord("Kid A", 1);
+        long amnesiac = insertRecord("Amnesiac", 1);
+        long radio = insertRecord("Radio Friendly", 1);
+        long ok = insertRecord("OK Computer", 1);
+        long bends = insertRecord("The Bends", 1);
+
+        // The album match first, then the band matches by album, two at a time
+        Uri search = RecordEntry.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_SEARCH, "Radio")
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_LIMIT, "2").build();
+        Cursor first = querySearchPage(search);
+        assertArrayEquals(new long[] { radio, amnesiac }, ids(first));
+
+        Cursor second = querySearchPage(nextPage(search, first));
+        assertArrayEquals(new long[] { kidA, ok }, ids(second));
+
+        Cursor third = querySearchPage(nextPage(search, second));
+        assertArrayEquals(new long[] { bends }, ids(third));
+        third.close();
+    }
+
+    @Test
+    public void search_termsInSeveralColumns_rankLast() {
+        long kidA = insertRecord("Kid A", 1);
+        long rough = insertRecord("Rough Cuts", 1);
+
+        Uri search = RecordEntry.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_SEARCH, "rough radio").build();
+        Cursor cursor = querySearchPage(search);
+
+        // Both are by Radiohead from Rough Trade, so no column holds both terms, even the album
+        // of the second one
+        assertArrayEquals(new long[] { kidA, rough }, ids(cursor));
+        int rank = cursor.getColumnIndexOrThrow(RecordEntry.COLUMN_SEARCH_RANK);
+        cursor.moveToFirst();
+        assertEquals(3, cursor.getInt(rank));
+        cursor.moveToNext();
+        assertEquals(3, cursor.getInt(rank));
+        cursor.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void search_pageStartWithoutRank_isRejected() {
+        Uri search = RecordEntry.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_SEARCH, "radio")
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_LIMIT, "2")
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_KEY, "Kid A")
+                .appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_ID, "1").build();
+        mProvider.query(search, null, null, null, null);
+    }
+
+    private long insertRecord(String album, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, album);
+        values.put(RecordEntry.COLUMN_BAND_NAME, "Radiohead");
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        values.put(RecordEntry.COLUMN_PRICE, 20);
+        values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + album);
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Rough Trade");
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@roughtrade.com");
+        Uri uri = mProvider.insert(RecordEntry.CONTENT_URI, values);
+        return ContentUris.parseId(uri);
+    }
+
+    private Bundle sellBatch(long[] ids, int[] amounts) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(RecordContract.EXTRA_RECORD_IDS, ids);
+        extras.putIntArray(RecordContract.EXTRA_AMOUNTS, amounts);
+        return mProvider.call(RecordContract.METHOD_SELL_BATCH, null, extras);
+    }
+
+    private int getQuantity(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, id),
+                new String[] { RecordEntry.COLUMN_QUANTITY }, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Query search results with the columns the catalog pages them by.
+     */
+    private Cursor querySearchPage(Uri uri) {
+        return mProvider.query(uri, new String[] {
+                RecordEntry._ID, RecordEntry.COLUMN_SEARCH_RANK, RecordEntry.COLUMN_ALBUM_NAME},
+                null, null, null);
+    }
+
+    /**
+     * Return the URI of the page of search results that follows the given one, and close it.
+     */
+    private static Uri nextPage(Uri search, Cursor page) {
+        try {
+            page.moveToLast();
+            Uri.Builder builder = search.buildUpon();
+            for (String column : RecordEntry.getSearchPageKeyColumns()) {
+                builder.appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_KEY,
+                        page.getString(page.getColumnIndexOrThrow(column)));
+            }
+            return builder.appendQueryParameter(RecordEntry.QUERY_PARAMETER_AFTER_ID,
+                    page.getString(page.getColumnIndexOrThrow(RecordEntry._ID))).build();
+        } finally {
+            page.close();
+        }
+    }
+
+    /**
+     * Return the IDs of the rows of the cursor, leaving it open.
+     */
+    private static long[] ids(Cursor cursor) {
+        long[] ids = new long[cursor.getCount()];
+        int column = cursor.getColumnIndexOrThrow(RecordEntry._ID);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            ids[cursor.getPosition()] = cursor.getLong(column);
+        }
+        return ids;
+    }
+
+    private long[] queryIds(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[] { RecordEntry._ID }, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                ids[cursor.getPosition()] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countSales() {
+        Cursor cursor = mProvider.query(SalesEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the threshold of {@link SQLiteRecordStore#findLowStock(int)}, with the stock kept on
+ * the records and with sales not applied yet, and of the updates of the stock of the records
+ * matching a selection.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SQLiteRecordStoreTest {
+
+    private SQLiteRecordStore mStore;
+
+    @Before
+    public void setUp() {
+        mStore = new SQLiteRecordStore(new RecordDbHelper(RuntimeEnvironment.application));
+    }
+
+    @After
+    public void tearDown() {
+        mStore.close();
+    }
+
+    @Test
+    public void findLowStock_includesTheThreshold() {
+        long below = insertRecord("Kid A", 4);
+        long at = insertRecord("Amnesiac", 5);
+        insertRecord("OK Computer", 6);
+
+        assertEquals(ids(below, at), idsOf(mStore.findLowStock(5)));
+    }
+
+    @Test
+    public void findLowStock_zero_findsSoldOutRecords() {
+        long soldOut = insertRecord("Kid A", 0);
+        insertRecord("Amnesiac", 1);
+
+        assertEquals(ids(soldOut), idsOf(mStore.findLowStock(0)));
+    }
+
+    @Test
+    public void findLowStock_negative_findsNothing() {
+        insertRecord("Kid A", 0);
+
+        assertEquals(ids(), idsOf(mStore.findLowStock(-1)));
+    }
+
+    @Test
+    public void findLowStock_countsPendingSales() {
+        // Stored above the threshold, the sales take both to it and one below it
+        long soldToThreshold = insertRecord("Kid A", 8);
+        long soldBelow = insertRecord("Amnesiac", 9);
+        long stillAbove = insertRecord("OK Computer", 10);
+        mStore.changeQuantity(soldToThreshold, -3);
+        mStore.changeQuantity(soldBelow, -5);
+        mStore.changeQuantity(stillAbove, -4);
+
+        List<Map<String, Object>> records = mStore.findLowStock(5);
+
+        assertEquals(ids(soldBelow, soldToThreshold), idsOf(records));
+        assertEquals(4, records.get(0).get(RecordEntry.COLUMN_QUANTITY));
+        assertEquals(5, records.get(1).get(RecordEntry.COLUMN_QUANTITY));
+
+        // Applying the sales moves the stock onto the records, it doesn't change it
+        mStore.compactSales(10);
+        assertEquals(ids(soldBelow, soldToThreshold), idsOf(mStore.findLowStock(5)));
+    }
+
+    @Test
+    public void findLowStock_restock_takesARecordOffTheList() {
+        long id = insertRecord("Kid A", 2);
+        mStore.changeQuantity(id, -1);
+        mStore.changeQuantity(id, 5);
+
+        assertEquals(ids(), idsOf(mStore.findLowStock(5)));
+    }
+
+    @Test
+    public void findLowStock_sortsByStockThenId() {
+        long first = insertRecord("Kid A", 3);
+        long lowest = insertRecord("Amnesiac", 1);
+        long second = insertRecord("OK Computer", 3);
+
+        assertEquals(ids(lowest, first, second), idsOf(mStore.findLowStock(5)));
+    }
+
+    @Test
+    public void updateRecords_quantity_bySelectionOnStock() {
+        long sold = insertRecord("Kid A", 5);
+        long stocked = insertRecord("Amnesiac", 5);
+        long low = insertRecord("OK Computer", 2);
+        mStore.changeQuantity(sold, -3);
+
+        assertEquals(2, mStore.updateRecords(quantity(10),
+                RecordEntry.COLUMN_QUANTITY + " <= CAST(? AS INTEGER)", new String[] { "2" }));
+        assertEquals(10, mStore.getQuantity(sold));
+        assertEquals(5, mStore.getQuantity(stocked));
+        assertEquals(10, mStore.getQuantity(low));
+        mStore.compactSales(10);
+        assertEquals(10, mStore.getQuantity(sold));
+
+        // The records picked by the first update aren't picked again
+        assertEquals(1, mStore.updateRecords(quantity(1), RecordEntry._ID + " = ?",
+                new String[] { String.valueOf(stocked) }));
+        assertEquals(10, mStore.getQuantity(sold));
+        assertEquals(1, mStore.getQuantity(stocked));
+    }
+
+    private static Map<String, Object> quantity(int quantity) {
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        return values;
+    }
+
+    private long insertRecord(String album, int quantity) {
+        return mStore.insertRecord(newRecord(album, quantity));
+    }
+
+    private static Map<String, Object> newRecord(String album, int quantity) {
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, album);
+        values.put(RecordEntry.COLUMN_BAND_NAME, "Radiohead");
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        values.put(RecordEntry.COLUMN_PRICE, 20);
+        values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + album);
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Rough Trade");
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@roughtrade.com");
+        return values;
+    }
+
+    private static List<Long> ids(long... ids) {
+        List<Long> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<Long> idsOf(List<Map<String, Object>> records) {
+        List<Long> ids = new ArrayList<>(records.size());
+        for (Map<String, Object> record : records) {
+            ids.add((Long) record.get(RecordEntry._ID));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load a supplier delivery into an empty catalog, one record per transaction as
+ * separate inserts do, or all of them in one transaction as the provider's bulkInsert and
+ * applyBatch do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BulkInsertBenchmark {
+
+    /** Number of records in the delivery */
+    @Param({ "1000", "10000", "100000" })
+    public int rowCount;
+
+    private List<Map<String, Object>> mRecords;
+
+    private File mDatabase;
+
+    private JdbcRecordStore mStore;
+
+    @Setup(Level.Trial)
+    public void createRecords() {
+        mRecords = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            Map<String, Object> values = new HashMap<>();
+            values.put(RecordEntry.COLUMN_ALBUM_NAME, "Album " + i);
+            values.put(RecordEntry.COLUMN_BAND_NAME, "Band " + i % 500);
+            values.put(RecordEntry.COLUMN_QUANTITY, i % 20);
+            values.put(RecordEntry.COLUMN_PRICE, i % 50);
+            values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + i);
+            values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i % 20);
+            values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@supplier" + i % 20 + ".com");
+            mRecords.add(values);
+        }
+    }
+
+    /** Each load starts from an empty database. */
+    @Setup(Level.Iteration)
+    public void openStore() throws IOException {
+        mDatabase = File.createTempFile("records", ".db");
+        mStore = new JdbcRecordStore("jdbc:sqlite:" + mDatabase.getPath());
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStore() {
+        mStore.close();
+        if (!mDatabase.delete()) {
+            mDatabase.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public int insertPerRow() {
+        int rowsInserted = 0;
+        for (Map<String, Object> values : mRecords) {
+            if (mStore.insertRecord(values) != -1) {
+                rowsInserted++;
+            }
+        }
+        return rowsInserted;
+    }
+
+    @Benchmark
+    public int insertBatch() {
+        return mStore.insertRecords(mRecords);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordStore.QuantityChange;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the catalog reads while the sale button writes, in each storage mode of
+ * {@link RecordDbHelper}. The reader has its own connection, as the framework's pool gives one
+ * to the loader thread, and the writer sells copies as fast as it can. Both connections sync and
+ * cache pages as the mode sets them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentReadBenchmark {
+
+    /** Number of records in the catalog */
+    private static final int RECORD_COUNT = 10000;
+
+    /**
+     * Milliseconds a read waits for the writer to release the database before failing. Long
+     * enough for a read to wait out the writer with the rollback journal, rather than fail.
+     */
+    private static final int BUSY_TIMEOUT = 60000;
+
+    /** Records per page of the catalog, as the list shows them */
+    private static final String PAGE_SIZE = "50";
+
+    /**
+     * The presets of {@link RecordDbHelper.StorageMode}, which can't be used here as the helper
+     * needs the Android runtime.
+     */
+    public enum StorageMode {
+        ROLLBACK_JOURNAL("DELETE", "FULL", 0),
+        WAL("WAL", "NORMAL", 2048);
+
+        final String mJournalMode;
+        final String mSynchronous;
+        final int mCacheSizeKib;
+
+        StorageMode(String journalMode, String synchronous, int cacheSizeKib) {
+            mJournalMode = journalMode;
+            mSynchronous = synchronous;
+            mCacheSizeKib = cacheSizeKib;
+        }
+    }
+
+    @Param({ "ROLLBACK_JOURNAL", "WAL" })
+    public StorageMode storageMode;
+
+    private File mDatabase;
+
+    private String mUrl;
+
+    /** Store of the writer */
+    private JdbcRecordStore mStore;
+
+    /** Cycles through the records, so each sale is of the next one */
+    private long mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mDatabase = File.createTempFile("records", ".db");
+        mUrl = "jdbc:sqlite:" + mDatabase.getPath();
+
+        // The journal mode is kept in the database file, so it holds for every connection
+        Connection connection = DriverManager.getConnection(mUrl);
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("PRAGMA journal_mode = " + storageMode.mJournalMode);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+
+        mStore = open(mUrl);
+        List<Map<String, Object>> records = new ArrayList<>(RECORD_COUNT);
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            Map<String, Object> values = new HashMap<>();
+            values.put(RecordEntry.COLUMN_ALBUM_NAME, "Album " + i);
+            values.put(RecordEntry.COLUMN_BAND_NAME, "Band " + i % 500);
+            values.put(RecordEntry.COLUMN_QUANTITY, 1000000);
+            values.put(RecordEntry.COLUMN_PRICE, i % 50);
+            values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + i);
+            values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i % 20);
+            values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@supplier" + i % 20 + ".com");
+            records.add(values);
+        }
+        mStore.insertRecords(records);
+    }
+
+    /**
+     * Open a store on the given URL with the sync mode and page cache of the storage mode.
+     */
+    private JdbcRecordStore open(String url) {
+        return new JdbcRecordStore(url, JdbcRecordStore.MAX_CACHED_STATEMENTS, storageMode.mSynchronous,
+                storageMode.mCacheSizeKib);
+    }
+
+    /**
+     * Fold the sales of the iteration into the records, so the ledger doesn't keep growing from
+     * one iteration to the next.
+     */
+    @TearDown(Level.Iteration)
+    public void compactSales() {
+        while (mStore.compactSales(10000) > 0) {
+            // Until every sale is applied
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mStore.close();
+        if (!mDatabase.delete()) {
+            mDatabase.deleteOnExit();
+        }
+        new File(mDatabase.getPath() + "-wal").delete();
+        new File(mDatabase.getPath() + "-shm").delete();
+    }
+
+    /**
+     * Connection of the reader thread.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+
+        private JdbcRecordStore mStore;
+
+        @Setup(Level.Trial)
+        public void open(ConcurrentReadBenchmark benchmark) {
+            mStore = benchmark.open(benchmark.mUrl + "?busy_timeout=" + BUSY_TIMEOUT);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            mStore.close();
+        }
+    }
+
+    /** Read the first page of the catalog, as the list loads it. */
+    @Benchmark
+    @Group("catalog")
+    @GroupThreads(1)
+    public List<Map<String, Object>> readPage(Reader reader) {
+        String[] columns = {
+                RecordEntry._ID, RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME,
+                RecordEntry.COLUMN_QUANTITY, RecordEntry.COLUMN_PRICE, RecordEntry.COLUMN_RECORD_COVER};
+        return reader.mStore.queryRecords(columns, null, null,
+                RecordEntry.COLUMN_BAND_NAME + " COLLATE NOCASE, " + RecordEntry.COLUMN_ALBUM_NAME
+                        + " COLLATE NOCASE", PAGE_SIZE);
+    }
+
+    /** Sell a copy of the next record. */
+    @Benchmark
+    @Group("catalog")
+    @GroupThreads(1)
+    public QuantityChange sell() {
+        return mStore.changeQuantity(1 + mNext++ % RECORD_COUNT, -1);
+    }
+}
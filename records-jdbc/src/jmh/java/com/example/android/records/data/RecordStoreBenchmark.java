@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordStore.QuantityChange;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the paths of the record store the app runs most: adding a record, reading a
+ * page of the catalog, the low stock report, reading, selling and restocking one record, and
+ * editing one. The store runs on a database file holding a catalog of the given size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordStoreBenchmark {
+
+    /** Number of records in the catalog */
+    @Param({ "10000" })
+    public int recordCount;
+
+    /** Records per page of the catalog, as the list shows them */
+    private static final String PAGE_SIZE = "50";
+
+    /** Stock of each record, high enough that the sales of a run never use it up */
+    private static final int STOCK = 1000000;
+
+    private File mDatabase;
+
+    private JdbcRecordStore mStore;
+
+    /** Cycles through the records, so each call reads or writes the next one */
+    private long mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDatabase = File.createTempFile("records", ".db");
+        mStore = new JdbcRecordStore("jdbc:sqlite:" + mDatabase.getPath());
+        List<Map<String, Object>> records = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(newRecord(i));
+        }
+        mStore.insertRecords(records);
+    }
+
+    /**
+     * Fold the sales of the iteration into the records, as the app does in the background, so
+     * the ledger doesn't keep growing from one iteration to the next.
+     */
+    @TearDown(Level.Iteration)
+    public void compactSales() {
+        while (mStore.compactSales(10000) > 0) {
+            // Until every sale is applied
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mStore.close();
+        if (!mDatabase.delete()) {
+            mDatabase.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public long insertRecord() {
+        return mStore.insertRecord(newRecord((int) mNext++));
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> queryPage() {
+        String[] columns = {
+                RecordEntry._ID, RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME,
+                RecordEntry.COLUMN_QUANTITY, RecordEntry.COLUMN_PRICE, RecordEntry.COLUMN_RECORD_COVER};
+        return mStore.queryRecords(columns, null, null,
+                RecordEntry.COLUMN_BAND_NAME + " COLLATE NOCASE, " + RecordEntry.COLUMN_ALBUM_NAME
+                        + " COLLATE NOCASE", PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> findLowStock() {
+        return mStore.findLowStock(RecordEntry.DEFAULT_LOW_STOCK_THRESHOLD);
+    }
+
+    @Benchmark
+    public long getQuantity() {
+        return mStore.getQuantity(nextId());
+    }
+
+    @Benchmark
+    public QuantityChange sell() {
+        return mStore.changeQuantity(nextId(), -1);
+    }
+
+    @Benchmark
+    public QuantityChange restock() {
+        return mStore.changeQuantity(nextId(), 1);
+    }
+
+    @Benchmark
+    public int updateRecord() {
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_PRICE, (int) (mNext % 50));
+        return mStore.updateRecord(nextId(), values);
+    }
+
+    /**
+     * Return the ID of the next record of the catalog, wrapping around at the end. The records
+     * of a new database are numbered from 1.
+     */
+    private long nextId() {
+        return 1 + mNext++ % recordCount;
+    }
+
+    private static Map<String, Object> newRecord(int i) {
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, "Album " + i);
+        values.put(RecordEntry.COLUMN_BAND_NAME, "Band " + i % 500);
+        // One record in a hundred is sold out, for the low stock report to find
+        values.put(RecordEntry.COLUMN_QUANTITY, i % 100 == 0 ? 0 : STOCK);
+        values.put(RecordEntry.COLUMN_PRICE, i % 50);
+        values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + i);
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i % 20);
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@supplier" + i % 20 + ".com");
+        return values;
+    }
+}
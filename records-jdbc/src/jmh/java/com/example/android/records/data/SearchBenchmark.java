@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the first page of search results, as the catalog loads it when the user stops
+ * typing, in a catalog of 50,000 records. The goal is a few milliseconds per search. The short
+ * prefixes match a large part of the catalog, and every match has to be ranked before the best
+ * ones are known, so they show how the cost grows with the number of matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    /** Number of records in the catalog */
+    private static final int RECORD_COUNT = 50000;
+
+    /** Number of distinct words the names are made of */
+    private static final int WORD_COUNT = 3000;
+
+    /** Number of suppliers */
+    private static final int SUPPLIER_COUNT = 40;
+
+    /** Records per page of the catalog, as the list shows them */
+    private static final int PAGE_SIZE = 50;
+
+    /** Text typed in the search box, from a single letter to two whole words */
+    @Param({ "r", "ra", "rad", "radio", "radio rock" })
+    public String query;
+
+    private File mDatabase;
+
+    private JdbcRecordStore mStore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDatabase = File.createTempFile("records", ".db");
+        mStore = new JdbcRecordStore("jdbc:sqlite:" + mDatabase.getPath());
+
+        // Names made of random words, a few of them much more common than the others, as the
+        // words of real album and band names are
+        Random random = new Random(42);
+        String[] words = new String[WORD_COUNT];
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(7);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+            words[i] = word.toString();
+        }
+        words[0] = "Radio";
+        words[1] = "Rock";
+
+        List<Map<String, Object>> records = new ArrayList<>(RECORD_COUNT);
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            int supplier = random.nextInt(SUPPLIER_COUNT);
+            Map<String, Object> values = new HashMap<>();
+            values.put(RecordEntry.COLUMN_ALBUM_NAME, name(random, words, 1 + random.nextInt(3)));
+            values.put(RecordEntry.COLUMN_BAND_NAME, name(random, words, 1 + random.nextInt(2)));
+            values.put(RecordEntry.COLUMN_QUANTITY, random.nextInt(20));
+            values.put(RecordEntry.COLUMN_PRICE, random.nextInt(50));
+            values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + i);
+            values.put(RecordEntry.COLUMN_SUPPLIER_NAME, name(random, words, 2) + " " + supplier);
+            values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@supplier" + supplier + ".com");
+            records.add(values);
+        }
+        mStore.insertRecords(records);
+    }
+
+    /**
+     * Return a name of the given number of words, picked with a bias towards the first ones.
+     */
+    private static String name(Random random, String[] words, int wordCount) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            int index = (int) Math.min(words.length - 1, Math.abs(random.nextGaussian()) * words.length / 5);
+            name.append(i == 0 ? "" : " ").append(words[index]);
+        }
+        return name.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mStore.close();
+        if (!mDatabase.delete()) {
+            mDatabase.deleteOnExit();
+        }
+    }
+
+    /** Search the first page of the catalog, as the list loads it. */
+    @Benchmark
+    public List<Map<String, Object>> searchFirstPage() {
+        String[] columns = {
+                RecordEntry._ID, RecordEntry.COLUMN_SEARCH_RANK, RecordEntry.COLUMN_ALBUM_NAME,
+                RecordEntry.COLUMN_BAND_NAME, RecordEntry.COLUMN_QUANTITY, RecordEntry.COLUMN_PRICE,
+                RecordEntry.COLUMN_RECORD_COVER};
+        return mStore.searchRecords(query, columns, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordStore.QuantityChange;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of single-record updates by ID, with the statements prepared on each call or kept
+ * in the store's cache. On a file each update also waits for its commit to reach the disk, in
+ * memory only the work of the statements is left.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementCacheBenchmark {
+
+    /** Number of records in the catalog */
+    private static final int RECORD_COUNT = 1000;
+
+    /** Maximum number of cached statements, 0 to prepare them on each call */
+    @Param({ "0", "16" })
+    public int cacheSize;
+
+    /** Where the database is kept, "file" or "memory" */
+    @Param({ "file", "memory" })
+    public String storage;
+
+    private File mDatabase;
+
+    private JdbcRecordStore mStore;
+
+    /** Cycles through the records, so each call updates the next one */
+    private long mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String url;
+        if ("memory".equals(storage)) {
+            url = "jdbc:sqlite::memory:";
+        } else {
+            mDatabase = File.createTempFile("records", ".db");
+            url = "jdbc:sqlite:" + mDatabase.getPath();
+        }
+        mStore = new JdbcRecordStore(url, cacheSize);
+
+        List<Map<String, Object>> records = new ArrayList<>(RECORD_COUNT);
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            Map<String, Object> values = new HashMap<>();
+            values.put(RecordEntry.COLUMN_ALBUM_NAME, "Album " + i);
+            values.put(RecordEntry.COLUMN_BAND_NAME, "Band " + i % 50);
+            values.put(RecordEntry.COLUMN_QUANTITY, 10);
+            values.put(RecordEntry.COLUMN_PRICE, i % 50);
+            values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + i);
+            values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Rough Trade");
+            values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@roughtrade.com");
+            records.add(values);
+        }
+        mStore.insertRecords(records);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mStore.close();
+        if (mDatabase != null && !mDatabase.delete()) {
+            mDatabase.deleteOnExit();
+        }
+    }
+
+    /** Edit the price of a record, as the editor saves it. */
+    @Benchmark
+    public int updatePrice() {
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_PRICE, (int) (mNext % 50));
+        return mStore.updateRecord(nextId(), values);
+    }
+
+    /** Set the quantity of a record, which also supersedes its pending sales. */
+    @Benchmark
+    public int updateQuantity() {
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_QUANTITY, 10);
+        return mStore.updateRecord(nextId(), values);
+    }
+
+    /** Add a copy to a record, as the restock button does. */
+    @Benchmark
+    public QuantityChange restock() {
+        return mStore.changeQuantity(nextId(), 1);
+    }
+
+    /**
+     * Return the ID of the next record, wrapping around at the end. The records of a new
+     * database are numbered from 1.
+     */
+    private long nextId() {
+        return 1 + mNext++ % RECORD_COUNT;
+    }
+}
@@ -0,0 +1,875 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SalesEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link RecordStore} backed by an SQLite database reached through JDBC, for running the storage
+ * code on a build host: in tests, load tests and benchmarks. It builds the same schema as the
+ * app, from {@link RecordSchema}, and follows the same paths as {@link SQLiteRecordStore}, so
+ * the numbers it gives are those of the app's SQL rather than of the Android framework.
+ * <p>
+ * The store uses a single connection, and every method holds the store's lock while it runs.
+ * Failures of the database are thrown as {@link IllegalStateException}.
+ */
+public class JdbcRecordStore implements RecordStore {
+
+    private static final Logger LOG = Logger.getLogger(JdbcRecordStore.class.getName());
+
+    /**
+     * Default maximum number of prepared statements kept, one per set of columns updated by ID
+     */
+    public static final int MAX_CACHED_STATEMENTS = 16;
+
+    /** SQL adding copies to the quantity stored on one record */
+    private static final String SQL_RESTOCK = "UPDATE " + RecordEntry.TABLE_NAME
+            + " SET " + RecordEntry.COLUMN_QUANTITY + " = " + RecordEntry.COLUMN_QUANTITY + " + ?"
+            + " WHERE " + RecordEntry._ID + " = ?";
+
+    /** SQL reading the stock of one record, the view subtracts the sales not applied yet */
+    private static final String SQL_QUANTITY = "SELECT " + RecordEntry.COLUMN_QUANTITY
+            + " FROM " + RecordEntry.VIEW_NAME + " WHERE " + RecordEntry._ID + " = ?";
+
+    /** SQL appending a sale to the ledger */
+    private static final String SQL_INSERT_SALE = "INSERT INTO " + SalesEntry.TABLE_NAME
+            + " (" + SalesEntry.COLUMN_RECORD_ID + ", " + SalesEntry.COLUMN_UNITS + ", "
+            + SalesEntry.COLUMN_SOLD_AT + ") VALUES (?, ?, ?)";
+
+    /**
+     * SQL marking the sales of one record as applied without changing its quantity, for when a
+     * new quantity is written over the stock they were subtracted from
+     */
+    private static final String SQL_SUPERSEDE_SALES = "UPDATE " + SalesEntry.TABLE_NAME
+            + " SET " + SalesEntry.COLUMN_APPLIED + " = 1"
+            + " WHERE " + SalesEntry.COLUMN_RECORD_ID + " = ? AND " + SalesEntry.COLUMN_APPLIED + " = 0";
+
+    /** SQL deleting one record */
+    private static final String SQL_DELETE = "DELETE FROM " + RecordEntry.TABLE_NAME
+            + " WHERE " + RecordEntry._ID + " = ?";
+
+    /** SQL reading the supplier of one record */
+    private static final String SQL_SUPPLIER_OF_RECORD = "SELECT " + RecordEntry.COLUMN_SUPPLIER_NAME
+            + ", " + RecordEntry.COLUMN_SUPPLIER_EMAIL + " FROM " + RecordEntry.VIEW_NAME
+            + " WHERE " + RecordEntry._ID + " = ?";
+
+    /** SQL looking up a supplier */
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID
+            + " FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_NAME + " = ?"
+            + " AND " + SupplierEntry.COLUMN_EMAIL + " = ?";
+
+    /** SQL adding a supplier */
+    private static final String SQL_INSERT_SUPPLIER = "INSERT INTO " + SupplierEntry.TABLE_NAME
+            + " (" + SupplierEntry.COLUMN_NAME + ", " + SupplierEntry.COLUMN_EMAIL + ") VALUES (?, ?)";
+
+    private final Connection mConnection;
+
+    /** Prepared statements of the single-record paths, guarded by this store's lock */
+    private final JdbcStatementCache mStatements;
+
+    /**
+     * Constructs a new {@link JdbcRecordStore}, creating the schema if the database is empty.
+     *
+     * @param url JDBC URL of the database, such as "jdbc:sqlite:/tmp/records.db"
+     * @throws IllegalStateException if the database can't be opened, or holds another version
+     *                               of the schema
+     */
+    public JdbcRecordStore(String url) {
+        this(url, MAX_CACHED_STATEMENTS);
+    }
+
+    /**
+     * Constructs a new {@link JdbcRecordStore} keeping at most the given number of prepared
+     * statements, creating the schema if the database is empty.
+     *
+     * @param url                 JDBC URL of the database, such as "jdbc:sqlite:/tmp/records.db"
+     * @param maxCachedStatements maximum number of prepared statements of the single-record
+     *                            paths kept between calls, 0 to prepare them on each call
+     * @throws IllegalStateException if the database can't be opened, or holds another version
+     *                               of the schema
+     */
+    public JdbcRecordStore(String url, int maxCachedStatements) {
+        this(url, maxCachedStatements, "FULL", 0);
+    }
+
+    /**
+     * Constructs a new {@link JdbcRecordStore} whose connection syncs and caches pages as one of
+     * the storage modes of {@link RecordDbHelper} sets them, creating the schema if the database
+     * is empty. The other constructors use the settings of the rollback journal mode.
+     *
+     * @param url                 JDBC URL of the database, such as "jdbc:sqlite:/tmp/records.db"
+     * @param maxCachedStatements maximum number of prepared statements of the single-record
+     *                            paths kept between calls, 0 to prepare them on each call
+     * @param synchronous         value of {@code PRAGMA synchronous}, such as "FULL" or "NORMAL"
+     * @param cacheSizeKib        page cache size in KiB, or 0 to keep the SQLite default
+     * @throws IllegalStateException if the database can't be opened, or holds another version
+     *                               of the schema
+     */
+    public JdbcRecordStore(String url, int maxCachedStatements, String synchronous, int cacheSizeKib) {
+        try {
+            mConnection = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        mStatements = new JdbcStatementCache(mConnection, maxCachedStatements);
+        boolean opened = false;
+        try {
+            configure(synchronous, cacheSizeKib);
+            createSchema();
+            opened = true;
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (!opened) {
+                try {
+                    mConnection.close();
+                } catch (SQLException e) {
+                    LOG.log(Level.WARNING, "Error closing " + url, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the settings the app applies to its connection in
+     * {@link RecordDbHelper#onConfigure}.
+     */
+    private void configure(String synchronous, int cacheSizeKib) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            // Records may only point to suppliers that exist
+            statement.execute("PRAGMA foreign_keys = ON");
+            statement.execute("PRAGMA synchronous = " + synchronous);
+            if (cacheSizeKib > 0) {
+                // A negative cache size is a size in KiB rather than a number of pages
+                statement.execute("PRAGMA cache_size = -" + cacheSizeKib);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Create the schema of a new database, or check that an existing one is current. The store
+     * doesn't upgrade older databases, only the app has to.
+     */
+    private void createSchema() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            int version = queryInt(statement, "PRAGMA user_version");
+            if (version == RecordSchema.VERSION) {
+                return;
+            }
+            if (version != 0) {
+                throw new IllegalStateException("Cannot open a database of version " + version
+                        + ", expected " + RecordSchema.VERSION);
+            }
+
+            mConnection.setAutoCommit(false);
+            try {
+                for (String sql : RecordSchema.create()) {
+                    statement.execute(sql);
+                }
+                statement.execute("PRAGMA user_version = " + RecordSchema.VERSION);
+                mConnection.commit();
+            } finally {
+                endTransaction();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static int queryInt(Statement statement, String sql) throws SQLException {
+        ResultSet result = statement.executeQuery(sql);
+        try {
+            return result.next() ? result.getInt(1) : 0;
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Start a transaction on the connection. It's committed by calling
+     * {@link Connection#commit()}, and must always be ended with {@link #endTransaction()}.
+     */
+    private void beginTransaction() throws SQLException {
+        mConnection.setAutoCommit(false);
+    }
+
+    /**
+     * End the transaction started with {@link #beginTransaction()}, rolling it back unless it
+     * has been committed.
+     */
+    private void endTransaction() throws SQLException {
+        try {
+            mConnection.rollback();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public synchronized long insertRecord(Map<String, ?> values) {
+        RecordValidator.checkRecord(values);
+        try {
+            beginTransaction();
+            try {
+                long id = insert(toRecordValues(values, -1));
+                mConnection.commit();
+                return id;
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized int insertRecords(List<? extends Map<String, ?>> records) {
+        // Validate the whole batch up front, so a bad row doesn't leave a half open transaction
+        for (Map<String, ?> values : records) {
+            RecordValidator.checkRecord(values);
+        }
+
+        int rowsInserted = 0;
+        try {
+            beginTransaction();
+            try {
+                for (Map<String, ?> values : records) {
+                    if (insert(toRecordValues(values, -1)) == -1) {
+                        LOG.severe("Failed to insert record " + values);
+                    } else {
+                        rowsInserted++;
+                    }
+                }
+                mConnection.commit();
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Insert a row in the records table, and return its ID, or -1 if the insertion failed, as
+     * {@code SQLiteDatabase.insert()} does. Must be called inside a transaction.
+     */
+    private long insert(Map<String, Object> recordValues) throws SQLException {
+        String[] columns = recordValues.keySet().toArray(new String[recordValues.size()]);
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(RecordEntry.TABLE_NAME).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(columns[i]);
+            placeholders.append('?');
+        }
+        sql.append(") VALUES (").append(placeholders).append(')');
+
+        try {
+            PreparedStatement statement = mStatements.get(sql.toString());
+            for (int i = 0; i < columns.length; i++) {
+                bind(statement, i + 1, recordValues.get(columns[i]));
+            }
+            statement.executeUpdate();
+            return lastInsertId();
+        } catch (SQLException e) {
+            LOG.log(Level.SEVERE, "Error inserting " + recordValues, e);
+            return -1;
+        }
+    }
+
+    private long lastInsertId() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("SELECT last_insert_rowid()");
+            try {
+                result.next();
+                return result.getLong(1);
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public synchronized int updateRecord(long id, Map<String, ?> values) {
+        RecordValidator.checkUpdate(values);
+        // If there are no values to update, then don't try to update the database
+        if (values == null || values.isEmpty()) {
+            return 0;
+        }
+        try {
+            beginTransaction();
+            try {
+                Map<String, Object> recordValues = toRecordValues(values, id);
+                // Sorted, so the same set of columns always gives the same SQL and statement
+                String[] columns = recordValues.keySet().toArray(new String[recordValues.size()]);
+
+                if (recordValues.containsKey(RecordEntry.COLUMN_QUANTITY)) {
+                    PreparedStatement supersede = mStatements.get(SQL_SUPERSEDE_SALES);
+                    supersede.setLong(1, id);
+                    supersede.executeUpdate();
+                }
+                PreparedStatement statement = mStatements.get(buildUpdateSql(columns));
+                for (int i = 0; i < columns.length; i++) {
+                    bind(statement, i + 1, recordValues.get(columns[i]));
+                }
+                statement.setLong(columns.length + 1, id);
+                int rowsUpdated = statement.executeUpdate();
+                mConnection.commit();
+                return rowsUpdated;
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return the SQL updating the given columns of one record, whose ID is the last argument.
+     */
+    private static String buildUpdateSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(RecordEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]).append(" = ?");
+        }
+        return sql.append(" WHERE ").append(RecordEntry._ID).append(" = ?").toString();
+    }
+
+    @Override
+    public synchronized int updateRecords(Map<String, ?> values, String selection, String[] selectionArgs) {
+        RecordValidator.checkUpdate(values);
+        // If there are no values to update, then don't try to update the database
+        if (values == null || values.isEmpty()) {
+            return 0;
+        }
+        try {
+            beginTransaction();
+            try {
+                Map<String, Object> recordValues = toRecordValues(values, -1);
+                String recordSelection = selectDetails(selection);
+                boolean picked = false;
+                if (recordValues.containsKey(RecordEntry.COLUMN_QUANTITY)) {
+                    // The new quantity replaces the stock the pending sales were subtracted from.
+                    // The selection may be on the stock, which changes as soon as the sales are
+                    // marked, so the matching records are picked before anything is written.
+                    String pendingSales = SalesEntry.COLUMN_APPLIED + " = 0";
+                    picked = pickRecords(selection, selectionArgs);
+                    if (picked) {
+                        recordSelection = RecordEntry._ID + " IN (" + RecordSchema.PICKED_RECORD_IDS + ")";
+                        pendingSales += " AND " + SalesEntry.COLUMN_RECORD_ID + " IN ("
+                                + RecordSchema.PICKED_RECORD_IDS + ")";
+                        selectionArgs = null;
+                    }
+                    execute("UPDATE " + SalesEntry.TABLE_NAME + " SET " + SalesEntry.COLUMN_APPLIED
+                            + " = 1 WHERE " + pendingSales, null);
+                }
+
+                String[] columns = recordValues.keySet().toArray(new String[recordValues.size()]);
+                StringBuilder sql = new StringBuilder("UPDATE ").append(RecordEntry.TABLE_NAME).append(" SET ");
+                Object[] args = new Object[columns.length + (selectionArgs == null ? 0 : selectionArgs.length)];
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) {
+                        sql.append(", ");
+                    }
+                    sql.append(columns[i]).append(" = ?");
+                    args[i] = recordValues.get(columns[i]);
+                }
+                if (selectionArgs != null) {
+                    System.arraycopy(selectionArgs, 0, args, columns.length, selectionArgs.length);
+                }
+                if (recordSelection != null && !recordSelection.isEmpty()) {
+                    sql.append(" WHERE ").append(recordSelection);
+                }
+                int rowsUpdated = execute(sql.toString(), args);
+                if (picked) {
+                    execute(RecordSchema.CLEAR_PICKED_RECORDS, null);
+                }
+                mConnection.commit();
+                return rowsUpdated;
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized int deleteRecord(long id) {
+        try {
+            beginTransaction();
+            try {
+                PreparedStatement statement = mStatements.get(SQL_DELETE);
+                statement.setLong(1, id);
+                int rowsDeleted = statement.executeUpdate();
+                mConnection.commit();
+                return rowsDeleted;
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized int deleteRecords(String selection, String[] selectionArgs) {
+        String sql = "DELETE FROM " + RecordEntry.TABLE_NAME;
+        String recordSelection = selectDetails(selection);
+        if (recordSelection != null && !recordSelection.isEmpty()) {
+            sql += " WHERE " + recordSelection;
+        }
+        try {
+            return execute(sql, selectionArgs);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Turn a selection written against the records as callers see them, which may use the
+     * supplier name and email, into a selection of the records table.
+     */
+    private static String selectDetails(String selection) {
+        if (selection == null || selection.isEmpty()) {
+            return selection;
+        }
+        return RecordEntry._ID + " IN (SELECT " + RecordEntry._ID + " FROM " + RecordEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Put the IDs of the records matching the given selection in the picked records table of
+     * {@link RecordSchema}, which stay there until the caller empties it. Return false, and pick
+     * nothing, if the selection is empty and so matches every record.
+     */
+    private boolean pickRecords(String selection, String[] selectionArgs) throws SQLException {
+        if (selection == null || selection.isEmpty()) {
+            return false;
+        }
+        execute(RecordSchema.CREATE_PICKED_RECORDS, null);
+        execute(RecordSchema.pickRecords(selection), selectionArgs);
+        return true;
+    }
+
+    /**
+     * Return the values to write to the records table, sorted by column. A supplier name and
+     * email are replaced by the ID of that supplier, which is created if needed. When only one
+     * of them changes, the other is taken from the current supplier of the record, so a record
+     * ID must be given. Must be called inside a transaction.
+     */
+    private Map<String, Object> toRecordValues(Map<String, ?> values, long recordId) throws SQLException {
+        Map<String, Object> recordValues = new TreeMap<>(values);
+        boolean hasName = recordValues.containsKey(RecordEntry.COLUMN_SUPPLIER_NAME);
+        boolean hasEmail = recordValues.containsKey(RecordEntry.COLUMN_SUPPLIER_EMAIL);
+        if (!hasName && !hasEmail) {
+            return recordValues;
+        }
+
+        Object name = recordValues.remove(RecordEntry.COLUMN_SUPPLIER_NAME);
+        Object email = recordValues.remove(RecordEntry.COLUMN_SUPPLIER_EMAIL);
+
+        if (!hasName || !hasEmail) {
+            if (recordId == -1) {
+                throw new IllegalArgumentException("Supplier name and email must be changed together");
+            }
+            PreparedStatement supplier = mStatements.get(SQL_SUPPLIER_OF_RECORD);
+            supplier.setLong(1, recordId);
+            ResultSet result = supplier.executeQuery();
+            try {
+                if (!result.next()) {
+                    // No such record, the update won't change anything
+                    return recordValues;
+                }
+                if (!hasName) {
+                    name = result.getString(1);
+                } else {
+                    email = result.getString(2);
+                }
+            } finally {
+                result.close();
+            }
+        }
+
+        recordValues.put(RecordEntry.COLUMN_SUPPLIER_ID, getSupplierId(name.toString(), email.toString()));
+        return recordValues;
+    }
+
+    /**
+     * Return the ID of the supplier with the given name and email, ignoring case and the
+     * surrounding spaces, adding the supplier if there is none yet. Must be called inside a
+     * transaction.
+     */
+    private long getSupplierId(String name, String email) throws SQLException {
+        PreparedStatement find = mStatements.get(SQL_FIND_SUPPLIER);
+        find.setString(1, name.trim());
+        find.setString(2, email.trim());
+        ResultSet result = find.executeQuery();
+        try {
+            if (result.next()) {
+                return result.getLong(1);
+            }
+        } finally {
+            result.close();
+        }
+
+        PreparedStatement insert = mStatements.get(SQL_INSERT_SUPPLIER);
+        insert.setString(1, name.trim());
+        insert.setString(2, email.trim());
+        insert.executeUpdate();
+        return lastInsertId();
+    }
+
+    @Override
+    public synchronized QuantityChange changeQuantity(long id, int delta) {
+        try {
+            beginTransaction();
+            try {
+                QuantityChange change = delta < 0 ? sell(id, -delta) : restock(id, delta);
+                // Also when there is no record with this ID, nothing was written
+                mConnection.commit();
+                return change;
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Append a sale of the given number of copies to the ledger, if there are enough in stock.
+     * Return null if there is no record with the given ID. Must be called inside a transaction.
+     */
+    private QuantityChange sell(long id, int units) throws SQLException {
+        long quantity = readQuantity(id);
+        if (quantity == -1) {
+            // There is no record with this ID
+            return null;
+        }
+        if (quantity < units) {
+            return new QuantityChange((int) quantity, false);
+        }
+
+        PreparedStatement insertSale = mStatements.get(SQL_INSERT_SALE);
+        insertSale.setLong(1, id);
+        insertSale.setLong(2, units);
+        insertSale.setLong(3, System.currentTimeMillis());
+        insertSale.executeUpdate();
+        return new QuantityChange((int) (quantity - units), true);
+    }
+
+    /**
+     * Add the given number of copies to the quantity stored on the record. Return null if there
+     * is no record with the given ID. Must be called inside a transaction.
+     */
+    private QuantityChange restock(long id, int units) throws SQLException {
+        PreparedStatement restock = mStatements.get(SQL_RESTOCK);
+        restock.setLong(1, units);
+        restock.setLong(2, id);
+        if (restock.executeUpdate() == 0) {
+            // There is no record with this ID
+            return null;
+        }
+        return new QuantityChange((int) readQuantity(id), true);
+    }
+
+    /**
+     * Return the stock of the record with the given ID, sales included, or -1 if there is none.
+     */
+    private long readQuantity(long id) throws SQLException {
+        PreparedStatement readQuantity = mStatements.get(SQL_QUANTITY);
+        readQuantity.setLong(1, id);
+        ResultSet result = readQuantity.executeQuery();
+        try {
+            return result.next() ? result.getLong(1) : -1;
+        } finally {
+            result.close();
+        }
+    }
+
+    @Override
+    public synchronized long getQuantity(long id) {
+        try {
+            return readQuantity(id);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized int compactSales(int maxSales) {
+        try {
+            beginTransaction();
+            try {
+                Statement statement = mConnection.createStatement();
+                long lastSaleId;
+                try {
+                    ResultSet result = statement.executeQuery("SELECT IFNULL(MAX(" + SalesEntry._ID
+                            + "), 0) FROM (SELECT " + SalesEntry._ID + " FROM " + SalesEntry.TABLE_NAME
+                            + " WHERE " + SalesEntry.COLUMN_APPLIED + " = 0"
+                            + " ORDER BY " + SalesEntry._ID + " LIMIT " + maxSales + ")");
+                    try {
+                        result.next();
+                        lastSaleId = result.getLong(1);
+                    } finally {
+                        result.close();
+                    }
+                    if (lastSaleId == 0) {
+                        return 0;
+                    }
+
+                    // Sales up to the last one of the batch, not applied yet
+                    String pending = SalesEntry.COLUMN_APPLIED + " = 0 AND " + SalesEntry._ID + " <= " + lastSaleId;
+                    statement.executeUpdate("UPDATE " + RecordEntry.TABLE_NAME + " SET " + RecordEntry.COLUMN_QUANTITY
+                            + " = " + RecordEntry.COLUMN_QUANTITY + " - (SELECT SUM(" + SalesEntry.COLUMN_UNITS + ")"
+                            + " FROM " + SalesEntry.TABLE_NAME + " WHERE " + SalesEntry.COLUMN_RECORD_ID + " = "
+                            + RecordEntry.TABLE_NAME + "." + RecordEntry._ID + " AND " + pending + ")"
+                            + " WHERE " + RecordEntry._ID + " IN (SELECT " + SalesEntry.COLUMN_RECORD_ID
+                            + " FROM " + SalesEntry.TABLE_NAME + " WHERE " + pending + ")");
+                    int salesApplied = statement.executeUpdate("UPDATE " + SalesEntry.TABLE_NAME
+                            + " SET " + SalesEntry.COLUMN_APPLIED + " = 1 WHERE " + pending);
+                    mConnection.commit();
+                    return salesApplied;
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Map<String, Object>> findLowStock(int threshold) {
+        String[] columns = {
+                RecordEntry._ID, RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME,
+                RecordEntry.COLUMN_QUANTITY, RecordEntry.COLUMN_SUPPLIER_ID,
+                RecordEntry.COLUMN_SUPPLIER_NAME, RecordEntry.COLUMN_SUPPLIER_EMAIL};
+        String thresholdArg = String.valueOf(threshold);
+        try {
+            PreparedStatement statement = mConnection.prepareStatement(buildQuerySql(columns,
+                    RecordSchema.LOW_STOCK_SELECTION, RecordEntry.COLUMN_QUANTITY + ", " + RecordEntry._ID, null));
+            try {
+                bindAll(statement, new String[] { thresholdArg, thresholdArg });
+                ResultSet result = statement.executeQuery();
+                List<Map<String, Object>> records = new ArrayList<>();
+                while (result.next()) {
+                    // Typed as the app's store types them, whatever size the values are
+                    Map<String, Object> record = new HashMap<>(columns.length);
+                    record.put(RecordEntry._ID, result.getLong(1));
+                    record.put(RecordEntry.COLUMN_ALBUM_NAME, result.getString(2));
+                    record.put(RecordEntry.COLUMN_BAND_NAME, result.getString(3));
+                    record.put(RecordEntry.COLUMN_QUANTITY, result.getInt(4));
+                    record.put(RecordEntry.COLUMN_SUPPLIER_ID, result.getLong(5));
+                    record.put(RecordEntry.COLUMN_SUPPLIER_NAME, result.getString(6));
+                    record.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, result.getString(7));
+                    records.add(record);
+                }
+                return records;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return the given columns of the records matching the selection, as the provider reads
+     * them from {@link RecordEntry#VIEW_NAME}. Each record is a map from column name to value.
+     *
+     * @param columns       to read, or null for all of them
+     * @param selection     on the records, or null for all of them
+     * @param selectionArgs replacing the "?" placeholders of the selection, bound as text
+     * @param sortOrder     ORDER BY clause, without the keywords, or null to leave the order
+     *                      to SQLite
+     * @param limit         LIMIT clause, without the keyword, or null to read every record
+     */
+    public synchronized List<Map<String, Object>> queryRecords(String[] columns, String selection,
+                                                               String[] selectionArgs, String sortOrder,
+                                                               String limit) {
+        return query(buildQuerySql(columns, selection, sortOrder, limit), selectionArgs);
+    }
+
+    /**
+     * Return the given columns of the first records matching the search, best matches first,
+     * as the provider's search URI returns them. Each record is a map from column name to value.
+     *
+     * @param text    typed by the user
+     * @param columns to read, from {@link RecordEntry#VIEW_NAME} and
+     *                {@link RecordEntry#COLUMN_SEARCH_RANK}, or null for all the record columns
+     * @param limit   maximum number of records to return
+     */
+    public synchronized List<Map<String, Object>> searchRecords(String text, String[] columns, int limit) {
+        RecordSearch search = RecordSearch.build(text, columns, null, null, null, String.valueOf(limit),
+                Collections.<String>emptyList(), null);
+        if (search == null) {
+            return new ArrayList<>();
+        }
+        return query(search.mSql, search.mArgs);
+    }
+
+    /**
+     * Run a query and return its rows, each a map from column name to value.
+     */
+    private List<Map<String, Object>> query(String sql, String[] args) {
+        try {
+            // Compiled on each call, as SQLiteDatabase.query() does
+            PreparedStatement statement = mConnection.prepareStatement(sql);
+            try {
+                bindAll(statement, args);
+                ResultSet result = statement.executeQuery();
+                ResultSetMetaData metaData = result.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                List<Map<String, Object>> records = new ArrayList<>();
+                while (result.next()) {
+                    Map<String, Object> record = new HashMap<>(columnCount);
+                    for (int i = 1; i <= columnCount; i++) {
+                        record.put(metaData.getColumnLabel(i), result.getObject(i));
+                    }
+                    records.add(record);
+                }
+                return records;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return the SQL reading the given columns of the records from {@link RecordEntry#VIEW_NAME}.
+     */
+    private static String buildQuerySql(String[] columns, String selection, String sortOrder, String limit) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns == null) {
+            sql.append('*');
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(columns[i]);
+            }
+        }
+        sql.append(" FROM ").append(RecordEntry.VIEW_NAME);
+        if (selection != null && !selection.isEmpty()) {
+            sql.append(" WHERE ").append(selection);
+        }
+        if (sortOrder != null && !sortOrder.isEmpty()) {
+            sql.append(" ORDER BY ").append(sortOrder);
+        }
+        if (limit != null && !limit.isEmpty()) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            try {
+                mStatements.clear();
+            } finally {
+                mConnection.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Run a statement that doesn't return rows, and return the number of rows it changed.
+     */
+    private int execute(String sql, Object[] args) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        try {
+            bindAll(statement, args);
+            return statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void bindAll(PreparedStatement statement, Object[] args) throws SQLException {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                bind(statement, i + 1, args[i]);
+            }
+        }
+    }
+
+    /**
+     * Set a parameter of a statement to a value, typed the way
+     * {@code DatabaseUtils.bindObjectToProgram()} types it.
+     */
+    private static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, java.sql.Types.NULL);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.setDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.setLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.setLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.setBytes(index, (byte[]) value);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JdbcRecordStore[" + mStatements + "]";
+    }
+}
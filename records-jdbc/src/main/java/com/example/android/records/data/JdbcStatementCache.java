@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The JDBC counterpart of the app's StatementCache: keeps the prepared statements of the
+ * store's single-record paths, keyed by their SQL, so a statement is prepared once and only has
+ * its parameters set on later calls. The least recently used statement is closed when the cache
+ * is full. A cache of size 0 keeps nothing: each call prepares its statement, and closes the one
+ * the previous call returned, which is how the store ran before it had a cache.
+ * <p>
+ * The cache isn't thread safe, callers must hold the lock of the connection it belongs to.
+ */
+final class JdbcStatementCache {
+
+    private final Connection mConnection;
+
+    private final int mMaxSize;
+
+    private final LinkedHashMap<String, PreparedStatement> mStatements;
+
+    /** Statement returned by the last call, when nothing is cached */
+    private PreparedStatement mUncached;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    /**
+     * Constructs a new {@link JdbcStatementCache}.
+     *
+     * @param connection the statements are prepared on
+     * @param maxSize    maximum number of statements kept prepared, 0 to prepare them on each
+     *                   call
+     */
+    JdbcStatementCache(Connection connection, int maxSize) {
+        mConnection = connection;
+        mMaxSize = maxSize;
+        // Access order, so the eldest entry is the least recently used statement
+        mStatements = new LinkedHashMap<>(maxSize, 0.75f, true);
+    }
+
+    /**
+     * Return the prepared statement for the given SQL, with no parameters set, preparing it if
+     * it isn't cached yet.
+     */
+    PreparedStatement get(String sql) throws SQLException {
+        if (mMaxSize == 0) {
+            mMissCount++;
+            closeUncached();
+            mUncached = mConnection.prepareStatement(sql);
+            return mUncached;
+        }
+
+        PreparedStatement statement = mStatements.get(sql);
+        if (statement != null) {
+            mHitCount++;
+            statement.clearParameters();
+            return statement;
+        }
+
+        mMissCount++;
+        statement = mConnection.prepareStatement(sql);
+        mStatements.put(sql, statement);
+        if (mStatements.size() > mMaxSize) {
+            Iterator<Map.Entry<String, PreparedStatement>> eldest = mStatements.entrySet().iterator();
+            eldest.next().getValue().close();
+            eldest.remove();
+        }
+        return statement;
+    }
+
+    /** Close every cached statement. */
+    void clear() throws SQLException {
+        try {
+            closeUncached();
+            for (PreparedStatement statement : mStatements.values()) {
+                statement.close();
+            }
+        } finally {
+            mStatements.clear();
+        }
+    }
+
+    private void closeUncached() throws SQLException {
+        if (mUncached != null) {
+            PreparedStatement statement = mUncached;
+            mUncached = null;
+            statement.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JdbcStatementCache[" + mStatements.size() + "/" + mMaxSize + " statements, "
+                + mHitCount + " hits, " + mMissCount + " misses]";
+    }
+}
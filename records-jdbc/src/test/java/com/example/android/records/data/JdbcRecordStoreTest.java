@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.records.data;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordStore.QuantityChange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link JdbcRecordStore}, on a database file that is created for each test.
+ */
+public class JdbcRecordStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private String mUrl;
+
+    private JdbcRecordStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mUrl = "jdbc:sqlite:" + new File(mFolder.getRoot(), "records.db").getPath();
+        mStore = new JdbcRecordStore(mUrl);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.close();
+    }
+
+    @Test
+    public void insertRecord_isReadBack() {
+        long id = mStore.insertRecord(newRecord("Kid A", 5));
+
+        assertEquals(5, mStore.getQuantity(id));
+        List<Map<String, Object>> records = mStore.queryRecords(
+                new String[] { RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_SUPPLIER_NAME },
+                RecordEntry._ID + " = ?", new String[] { String.valueOf(id) }, null, null);
+        assertEquals(1, records.size());
+        assertEquals("Kid A", records.get(0).get(RecordEntry.COLUMN_ALBUM_NAME));
+        assertEquals("Rough Trade", records.get(0).get(RecordEntry.COLUMN_SUPPLIER_NAME));
+    }
+
+    @Test
+    public void insertRecords_shareTheirSupplier() {
+        List<Map<String, Object>> records = new ArrayList<>();
+        records.add(newRecord("Kid A", 5));
+        records.add(newRecord("Amnesiac", 3));
+
+        assertEquals(2, mStore.insertRecords(records));
+        List<Map<String, Object>> suppliers = mStore.queryRecords(
+                new String[] { "DISTINCT " + RecordEntry.COLUMN_SUPPLIER_ID }, null, null, null, null);
+        assertEquals(1, suppliers.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertRecords_invalidRecord_insertsNothing() {
+        List<Map<String, Object>> records = new ArrayList<>();
+        records.add(newRecord("Kid A", 5));
+        records.add(newRecord("Amnesiac", -1));
+        try {
+            mStore.insertRecords(records);
+        } finally {
+            assertTrue(mStore.queryRecords(null, null, null, null, null).isEmpty());
+        }
+    }
+
+    @Test
+    public void changeQuantity_sellsAndRestocks() {
+        long id = mStore.insertRecord(newRecord("Kid A", 5));
+
+        QuantityChange sold = mStore.changeQuantity(id, -2);
+        assertTrue(sold.isUpdated());
+        assertEquals(3, sold.getQuantity());
+
+        QuantityChange refused = mStore.changeQuantity(id, -4);
+        assertFalse(refused.isUpdated());
+        assertEquals(3, refused.getQuantity());
+
+        QuantityChange restocked = mStore.changeQuantity(id, 4);
+        assertTrue(restocked.isUpdated());
+        assertEquals(7, restocked.getQuantity());
+
+        assertNull(mStore.changeQuantity(id + 1, -1));
+        assertNull(mStore.changeQuantity(id + 1, 1));
+    }
+
+    @Test
+    public void compactSales_keepsTheStock() {
+        long id = mStore.insertRecord(newRecord("Kid A", 5));
+        mStore.changeQuantity(id, -1);
+        mStore.changeQuantity(id, -2);
+
+        assertEquals(1, mStore.compactSales(1));
+        assertEquals(2, mStore.getQuantity(id));
+        assertEquals(1, mStore.compactSales(10));
+        assertEquals(2, mStore.getQuantity(id));
+        assertEquals(0, mStore.compactSales(10));
+    }
+
+    @Test
+    public void updateRecord_quantity_replacesPendingSales() {
+        long id = mStore.insertRecord(newRecord("Kid A", 5));
+        mStore.changeQuantity(id, -2);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_QUANTITY, 10);
+        assertEquals(1, mStore.updateRecord(id, values));
+
+        assertEquals(10, mStore.getQuantity(id));
+        mStore.compactSales(10);
+        assertEquals(10, mStore.getQuantity(id));
+    }
+
+    @Test
+    public void updateRecords_quantity_bySelectionOnStock() {
+        long sold = mStore.insertRecord(newRecord("Kid A", 5));
+        long stocked = mStore.insertRecord(newRecord("Amnesiac", 5));
+        long low = mStore.insertRecord(newRecord("OK Computer", 2));
+        mStore.changeQuantity(sold, -3);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_QUANTITY, 10);
+        assertEquals(2, mStore.updateRecords(values,
+                RecordEntry.COLUMN_QUANTITY + " <= CAST(? AS INTEGER)", new String[] { "2" }));
+        assertEquals(10, mStore.getQuantity(sold));
+        assertEquals(5, mStore.getQuantity(stocked));
+        assertEquals(10, mStore.getQuantity(low));
+        mStore.compactSales(10);
+        assertEquals(10, mStore.getQuantity(sold));
+
+        // The records picked by the first update aren't picked again
+        values.put(RecordEntry.COLUMN_QUANTITY, 1);
+        assertEquals(1, mStore.updateRecords(values, RecordEntry._ID + " = ?",
+                new String[] { String.valueOf(stocked) }));
+        assertEquals(10, mStore.getQuantity(sold));
+        assertEquals(1, mStore.getQuantity(stocked));
+    }
+
+    @Test
+    public void updateRecord_supplierEmailOnly_keepsTheName() {
+        long id = mStore.insertRecord(newRecord("Kid A", 5));
+
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "shop@roughtrade.com");
+        assertEquals(1, mStore.updateRecord(id, values));
+
+        Map<String, Object> record = mStore.queryRecords(null, RecordEntry._ID + " = ?",
+                new String[] { String.valueOf(id) }, null, null).get(0);
+        assertEquals("Rough Trade", record.get(RecordEntry.COLUMN_SUPPLIER_NAME));
+        assertEquals("shop@roughtrade.com", record.get(RecordEntry.COLUMN_SUPPLIER_EMAIL));
+    }
+
+    @Test
+    public void deleteRecords_bySupplier() {
+        mStore.insertRecord(newRecord("Kid A", 5));
+        Map<String, Object> other = newRecord("Blue Lines", 2);
+        other.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Wild Bunch");
+        mStore.insertRecord(other);
+
+        assertEquals(1, mStore.deleteRecords(RecordEntry.COLUMN_SUPPLIER_NAME + " = ?",
+                new String[] { "Wild Bunch" }));
+        assertEquals(1, mStore.queryRecords(null, null, null, null, null).size());
+    }
+
+    @Test
+    public void noStatementCache_updatesAndSells() {
+        mStore.close();
+        mStore = new JdbcRecordStore(mUrl, 0);
+        long id = mStore.insertRecord(newRecord("Kid A", 5));
+
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Beggars");
+        values.put(RecordEntry.COLUMN_QUANTITY, 4);
+        assertEquals(1, mStore.updateRecord(id, values));
+        assertEquals(3, mStore.changeQuantity(id, -1).getQuantity());
+        assertEquals(4, mStore.changeQuantity(id, 1).getQuantity());
+        assertEquals(1, mStore.deleteRecord(id));
+        assertEquals(-1, mStore.getQuantity(id));
+    }
+
+    @Test
+    public void searchRecords_ranksAlbumThenBandThenSupplier() {
+        long supplier = mStore.insertRecord(newRecord("Amnesiac", 5));
+        Map<String, Object> bandRecord = newRecord("Kid A", 5);
+        bandRecord.put(RecordEntry.COLUMN_BAND_NAME, "Rough Riders");
+        long band = mStore.insertRecord(bandRecord);
+        long album = mStore.insertRecord(newRecord("Rough Cuts", 5));
+        Map<String, Object> other = newRecord("OK Computer", 5);
+        other.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Parlophone");
+        mStore.insertRecord(other);
+
+        List<Map<String, Object>> records = mStore.searchRecords("ROUGH",
+                new String[] { RecordEntry._ID, RecordEntry.COLUMN_SEARCH_RANK }, 10);
+
+        assertEquals(3, records.size());
+        assertEquals(album, ((Number) records.get(0).get(RecordEntry._ID)).longValue());
+        assertEquals(0, records.get(0).get(RecordEntry.COLUMN_SEARCH_RANK));
+        assertEquals(band, ((Number) records.get(1).get(RecordEntry._ID)).longValue());
+        assertEquals(1, records.get(1).get(RecordEntry.COLUMN_SEARCH_RANK));
+        assertEquals(supplier, ((Number) records.get(2).get(RecordEntry._ID)).longValue());
+        assertEquals(2, records.get(2).get(RecordEntry.COLUMN_SEARCH_RANK));
+    }
+
+    @Test
+    public void searchRecords_limit_keepsTheBestMatches() {
+        mStore.insertRecord(newRecord("The Bends", 5));
+        mStore.insertRecord(newRecord("Kid A", 5));
+        mStore.insertRecord(newRecord("Amnesiac", 5));
+
+        List<Map<String, Object>> records = mStore.searchRecords("radio rough",
+                new String[] { RecordEntry.COLUMN_ALBUM_NAME }, 2);
+
+        // The terms are in the band and the supplier, so all rank alike and come by album
+        assertEquals(2, records.size());
+        assertEquals("Amnesiac", records.get(0).get(RecordEntry.COLUMN_ALBUM_NAME));
+        assertEquals("Kid A", records.get(1).get(RecordEntry.COLUMN_ALBUM_NAME));
+        assertTrue(mStore.searchRecords("  --  ", null, 2).isEmpty());
+    }
+
+    @Test
+    public void reopen_keepsTheRecords() {
+        long id = mStore.insertRecord(newRecord("Kid A", 5));
+        mStore.close();
+
+        mStore = new JdbcRecordStore(mUrl);
+        assertEquals(5, mStore.getQuantity(id));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void open_otherVersion_isRejected() throws Exception {
+        mStore.close();
+        Connection connection = DriverManager.getConnection(mUrl);
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("PRAGMA user_version = " + (RecordSchema.VERSION + 1));
+            statement.close();
+        } finally {
+            connection.close();
+        }
+
+        mStore = new JdbcRecordStore(mUrl);
+    }
+
+    private static Map<String, Object> newRecord(String album, int quantity) {
+        Map<String, Object> values = new HashMap<>();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, album);
+        values.put(RecordEntry.COLUMN_BAND_NAME, "Radiohead");
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        values.put(RecordEntry.COLUMN_PRICE, 20);
+        values.put(RecordEntry.COLUMN_RECORD_COVER, "content://covers/" + album);
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Rough Trade");
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@roughtrade.com");
+        return values;
+    }
+}